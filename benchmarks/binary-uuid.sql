@@ -0,0 +1,55 @@
+-- Compares VARCHAR(255) and BINARY(16) storage of the payment UUID columns.
+-- Run against a scratch MySQL 8.0.18+ schema:
+--   mysql -u root -p scratch < benchmarks/binary-uuid.sql
+-- Builds two copies of the payments table with the same rows, then reports
+-- the size of each index and the EXPLAIN ANALYZE timing of a lookup on each.
+SET SESSION cte_max_recursion_depth = 1000000;
+SET @rows = 1000000;
+
+DROP TABLE IF EXISTS bench_payments_string;
+DROP TABLE IF EXISTS bench_payments_binary;
+
+CREATE TABLE bench_payments_string (
+  id INT NOT NULL PRIMARY KEY,
+  booking_uuid VARCHAR(255) NOT NULL,
+  stripe_uuid VARCHAR(255) NOT NULL,
+  status VARCHAR(255) NOT NULL,
+  UNIQUE INDEX ux_payments_stripe_uuid (stripe_uuid),
+  INDEX ix_payments_booking_uuid (booking_uuid)
+);
+
+CREATE TABLE bench_payments_binary (
+  id INT NOT NULL PRIMARY KEY,
+  booking_uuid BINARY(16) NOT NULL,
+  stripe_uuid BINARY(16) NOT NULL,
+  status VARCHAR(255) NOT NULL,
+  UNIQUE INDEX ux_payments_stripe_uuid (stripe_uuid),
+  INDEX ix_payments_booking_uuid (booking_uuid)
+);
+
+INSERT INTO bench_payments_string (id, booking_uuid, stripe_uuid, status)
+WITH RECURSIVE seq (n) AS (SELECT 1 UNION ALL SELECT n + 1 FROM seq WHERE n < @rows)
+SELECT n, UUID(), UUID(), ELT(1 + n % 4, 'PENDING', 'CONFIRMED', 'APPROVED', 'REJECTED') FROM seq;
+
+INSERT INTO bench_payments_binary (id, booking_uuid, stripe_uuid, status)
+SELECT id, UUID_TO_BIN(booking_uuid), UUID_TO_BIN(stripe_uuid), status FROM bench_payments_string;
+
+ANALYZE TABLE bench_payments_string, bench_payments_binary;
+
+-- Index size
+SELECT table_name, index_name,
+  ROUND(stat_value * @@innodb_page_size / 1024 / 1024, 2) AS size_mb
+FROM mysql.innodb_index_stats
+WHERE database_name = DATABASE()
+  AND table_name IN ('bench_payments_string', 'bench_payments_binary')
+  AND stat_name = 'size'
+ORDER BY index_name, table_name;
+
+-- Lookup latency
+SELECT stripe_uuid INTO @stripe_uuid FROM bench_payments_string WHERE id = @rows DIV 2;
+SELECT booking_uuid INTO @booking_uuid FROM bench_payments_string WHERE id = @rows DIV 3;
+
+EXPLAIN ANALYZE SELECT * FROM bench_payments_string WHERE stripe_uuid = @stripe_uuid;
+EXPLAIN ANALYZE SELECT * FROM bench_payments_binary WHERE stripe_uuid = UUID_TO_BIN(@stripe_uuid);
+EXPLAIN ANALYZE SELECT * FROM bench_payments_string WHERE booking_uuid = @booking_uuid;
+EXPLAIN ANALYZE SELECT * FROM bench_payments_binary WHERE booking_uuid = UUID_TO_BIN(@booking_uuid);
@@ -0,0 +1,27 @@
+-- wrk request generator for benchmarks/lookup-load.sh.
+-- LOOKUP selects the endpoint: id (/payments/{id}), booking or stripe.
+-- Ids are drawn from 1..PAYMENT_ID_MAX. UUIDs are random, so those lookups
+-- take the same index probe as a hit but answer 404.
+local lookup = os.getenv("LOOKUP") or "id"
+local maxId = tonumber(os.getenv("PAYMENT_ID_MAX") or "100000")
+
+math.randomseed(os.time())
+
+local function randomUuid()
+  return string.format("%04x%04x-%04x-4%03x-%04x-%04x%04x%04x",
+    math.random(0, 0xffff), math.random(0, 0xffff), math.random(0, 0xffff),
+    math.random(0, 0xfff), math.random(0x8000, 0xbfff),
+    math.random(0, 0xffff), math.random(0, 0xffff), math.random(0, 0xffff))
+end
+
+request = function()
+  local path
+  if lookup == "booking" then
+    path = "/payments/booking/" .. randomUuid()
+  elseif lookup == "stripe" then
+    path = "/payments/stripe/" .. randomUuid()
+  else
+    path = "/payments/" .. math.random(1, maxId)
+  end
+  return wrk.format("GET", path, { ["Accept"] = "application/json" })
+end
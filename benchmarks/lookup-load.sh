@@ -0,0 +1,27 @@
+#!/usr/bin/env bash
+# Load test of the PaymentRepository lookups behind /payments/{id},
+# /payments/booking/{uuid} and /payments/stripe/{uuid}, using wrk.
+#
+#   benchmarks/lookup-load.sh [base-url] [duration] [connections]
+#
+# Start PaymentMS with --payments.cache.maximum-size=0 so every request reaches
+# the database, run once per pool configuration and compare the Requests/sec
+# and latency percentiles printed by wrk, then the pool's acquire and usage
+# timers printed at the end.
+set -euo pipefail
+
+BASE_URL=${1:-http://localhost:8087}
+DURATION=${2:-60s}
+CONNECTIONS=${3:-64}
+SCRIPT_DIR=$(cd "$(dirname "$0")" && pwd)
+
+for lookup in id booking stripe; do
+  echo "== ${lookup} lookups"
+  LOOKUP=${lookup} wrk -t4 -c"${CONNECTIONS}" -d"${DURATION}" --latency -s "${SCRIPT_DIR}/lookup-load.lua" "${BASE_URL}"
+done
+
+for metric in hikaricp.connections.acquire hikaricp.connections.usage hikaricp.connections.pending hikaricp.connections.timeout; do
+  echo "== ${metric}"
+  curl -s "${BASE_URL}/actuator/metrics/${metric}"
+  echo
+done
@@ -0,0 +1,34 @@
+package com.ss.utopia.benchmarks;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.UUID;
+
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+
+public final class PaymentDatasets {
+
+  private static final long SEED = 42L;
+  private static final PaymentStatus[] PAYMENT_STATUSES = PaymentStatus.values();
+
+  private PaymentDatasets() {
+    throw new IllegalStateException("Utilility class 'PaymentDatasets' is static and should not be instantiated.");
+  }
+
+  // Seeded so every run and every fork filters the same payments
+  public static List<Payment> generate(int rows) {
+    Random random = new Random(SEED);
+    List<Payment> payments = new ArrayList<>(rows);
+    for(int i = 1; i <= rows; i++) {
+      payments.add(new Payment(
+        i,
+        new UUID(random.nextLong(), random.nextLong()).toString(),
+        new UUID(random.nextLong(), random.nextLong()).toString(),
+        PAYMENT_STATUSES[random.nextInt(PAYMENT_STATUSES.length)]
+      ));
+    }
+    return payments;
+  }
+}
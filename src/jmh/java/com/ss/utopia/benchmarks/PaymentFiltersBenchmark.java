@@ -0,0 +1,93 @@
+package com.ss.utopia.benchmarks;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.ss.utopia.filters.PaymentFilters;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+import com.ss.utopia.snapshots.PaymentColumns;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class PaymentFiltersBenchmark {
+
+  @Param({ "10000", "100000", "1000000", "5000000" })
+  private int rows;
+
+  private List<Payment> payments;
+  private Payment targetPayment;
+  private Map<String, String> filterMap;
+  private PaymentColumns columns;
+
+  @Setup
+  public void setup() {
+    payments = PaymentDatasets.generate(rows);
+    targetPayment = payments.get(rows / 2);
+
+    filterMap = new HashMap<>();
+    filterMap.put("paymentStatus", "CONFIRMED");
+    filterMap.put("searchTerms", "4a, 7");
+
+    columns = new PaymentColumns(rows);
+    payments.forEach(columns::put);
+  }
+
+  @Benchmark
+  public List<Payment> filterByPaymentId() {
+    return PaymentFilters.filterByPaymentId(payments, targetPayment.getPaymentId());
+  }
+
+  @Benchmark
+  public List<Payment> filterByPaymentBookingUuid() {
+    return PaymentFilters.filterByPaymentBookingUuid(payments, targetPayment.getPaymentBookingUuid());
+  }
+
+  @Benchmark
+  public List<Payment> filterByPaymentStripeUuid() {
+    return PaymentFilters.filterByPaymentStripeUuid(payments, targetPayment.getPaymentStripeUuid());
+  }
+
+  @Benchmark
+  public List<Payment> filterByPaymentStatus() {
+    return PaymentFilters.filterByPaymentStatus(payments, PaymentStatus.CONFIRMED);
+  }
+
+  @Benchmark
+  public List<Payment> filterBySearchTerms_SingleTerm() {
+    return PaymentFilters.filterBySearchTerms(payments, "confirmed");
+  }
+
+  @Benchmark
+  public List<Payment> filterBySearchTerms_MultiTerm() {
+    return PaymentFilters.filterBySearchTerms(payments, "CONFIRMED, 4a, 7");
+  }
+
+  @Benchmark
+  public List<Payment> apply_FilterAndSearch() {
+    return PaymentFilters.apply(payments, filterMap);
+  }
+
+  @Benchmark
+  public int[] scan_FilterAndSearch() {
+    return PaymentFilters.scan(columns, filterMap);
+  }
+}
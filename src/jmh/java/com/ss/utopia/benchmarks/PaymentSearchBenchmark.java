@@ -0,0 +1,117 @@
+package com.ss.utopia.benchmarks;
+
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+import static org.mockito.Mockito.withSettings;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.repositories.PaymentRepository;
+import com.ss.utopia.services.PaymentService;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+import org.springframework.test.util.ReflectionTestUtils;
+
+// The full in-memory search path behind POST /payments/search, with
+// PaymentRepository.findPage stubbed to return keyset pages of the synthetic dataset.
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms4g", "-Xmx4g" })
+@State(Scope.Benchmark)
+public class PaymentSearchBenchmark {
+
+  @Param({ "10000", "100000", "1000000", "5000000" })
+  private int rows;
+
+  @Param({ "confirmed", "CONFIRMED, 4a, 7" })
+  private String searchTerms;
+
+  private PaymentService paymentService;
+  private ObjectMapper mapper;
+  private Map<String, String> filterMap;
+  private List<Payment> searchResults;
+
+  @Setup
+  public void setup() throws Exception {
+    // stubOnly - a regular mock would record every benchmark invocation
+    PaymentRepository paymentRepository = mock(PaymentRepository.class, withSettings().stubOnly());
+    // Ids run from 1 to rows, so a page after id n starts at index n
+    List<Payment> payments = PaymentDatasets.generate(rows);
+    when(paymentRepository.findPage(isNull(), any(), anyInt())).thenAnswer(invocation -> {
+      Integer afterPaymentId = invocation.getArgument(1);
+      int fromIndex = afterPaymentId != null ? afterPaymentId : 0;
+      int limit = invocation.getArgument(2);
+      return payments.subList(fromIndex, Math.min(payments.size(), fromIndex + limit));
+    });
+
+    paymentService = new PaymentService();
+    ReflectionTestUtils.setField(paymentService, "paymentRepository", paymentRepository);
+    ReflectionTestUtils.setField(paymentService, "searchMode", "memory");
+    ReflectionTestUtils.setField(paymentService, "uuidStorage", "string");
+    ReflectionTestUtils.setField(paymentService, "maxResultSize", rows);
+
+    mapper = Jackson2ObjectMapperBuilder.json().build();
+    filterMap = new HashMap<>();
+    filterMap.put("searchTerms", searchTerms);
+    searchResults = paymentService.findBySearchAndFilter(filterMap);
+  }
+
+  @Benchmark
+  public List<Payment> findBySearchAndFilter() throws Exception {
+    return paymentService.findBySearchAndFilter(filterMap);
+  }
+
+  @Benchmark
+  public long serializeResults() throws IOException {
+    return writeJson(searchResults);
+  }
+
+  @Benchmark
+  public long findBySearchAndFilter_Serialized() throws Exception {
+    return writeJson(paymentService.findBySearchAndFilter(filterMap));
+  }
+
+  private long writeJson(List<Payment> payments) throws IOException {
+    CountingOutputStream out = new CountingOutputStream();
+    mapper.writeValue(out, payments);
+    return out.count;
+  }
+
+  // Counts the bytes written so the serialized size is measured without buffering it
+  private static final class CountingOutputStream extends OutputStream {
+    private long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+}
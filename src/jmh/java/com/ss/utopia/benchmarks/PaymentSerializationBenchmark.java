@@ -0,0 +1,95 @@
+package com.ss.utopia.benchmarks;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.ss.utopia.json.PaymentJsonSerializers;
+import com.ss.utopia.models.Payment;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+import org.springframework.http.converter.json.Jackson2ObjectMapperBuilder;
+
+// Writing a findAll / search sized result list as the response body, with
+// Jackson's reflective bean serializer against PaymentJsonSerializers, each
+// through an ObjectWriter built once for List<Payment>.
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(value = 1, jvmArgsAppend = { "-Xms2g", "-Xmx2g" })
+@State(Scope.Benchmark)
+public class PaymentSerializationBenchmark {
+
+  private static final TypeReference<List<Payment>> PAYMENT_LIST = new TypeReference<List<Payment>>() {};
+
+  @Param({ "1000", "10000", "100000" })
+  private int rows;
+
+  private List<Payment> payments;
+  private ObjectWriter beanWriter;
+  private ObjectWriter handWrittenWriter;
+  private ObjectMapper beanMapper;
+
+  @Setup
+  public void setup() {
+    payments = PaymentDatasets.generate(rows);
+    beanMapper = Jackson2ObjectMapperBuilder.json().build();
+    beanWriter = beanMapper.writerFor(PAYMENT_LIST);
+    handWrittenWriter = Jackson2ObjectMapperBuilder.json()
+      .modulesToInstall(PaymentJsonSerializers.module())
+      .build()
+      .writerFor(PAYMENT_LIST);
+  }
+
+  // What a controller paid before - the mapper resolves the writer on every call
+  @Benchmark
+  public long beanSerializer_PerCallWriter() throws IOException {
+    return writeJson(beanMapper.writer(), payments);
+  }
+
+  @Benchmark
+  public long beanSerializer() throws IOException {
+    return writeJson(beanWriter, payments);
+  }
+
+  @Benchmark
+  public long handWrittenSerializer() throws IOException {
+    return writeJson(handWrittenWriter, payments);
+  }
+
+  private long writeJson(ObjectWriter writer, List<Payment> payments) throws IOException {
+    CountingOutputStream out = new CountingOutputStream();
+    writer.writeValue(out, payments);
+    return out.count;
+  }
+
+  // Counts the bytes written so the serialized size is measured without buffering it
+  private static final class CountingOutputStream extends OutputStream {
+    private long count;
+
+    @Override
+    public void write(int b) {
+      count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+      count += len;
+    }
+  }
+}
@@ -1,11 +1,26 @@
 package com.ss.utopia;
 
+import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.ConnectException;
 import java.sql.SQLException;
+import java.util.Collections;
 import java.util.Map;
 import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+import javax.annotation.PostConstruct;
+import javax.servlet.http.HttpServletRequest;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.SerializationFeature;
 
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.QueryTimeoutException;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.ResponseEntity;
 import org.springframework.http.converter.HttpMessageNotReadableException;
@@ -16,23 +31,64 @@ import org.springframework.web.bind.annotation.PathVariable;
 import org.springframework.web.bind.annotation.PostMapping;
 import org.springframework.web.bind.annotation.PutMapping;
 import org.springframework.web.bind.annotation.RequestBody;
+import org.springframework.web.bind.annotation.RequestHeader;
 import org.springframework.web.bind.annotation.RequestMapping;
+import org.springframework.web.bind.annotation.RequestParam;
 import org.springframework.web.bind.annotation.ResponseStatus;
 import org.springframework.web.bind.annotation.RestController;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import com.ss.utopia.exceptions.PaymentAlreadyExistsException;
+import com.ss.utopia.exceptions.PaymentBatchTooLargeException;
+import com.ss.utopia.exceptions.PaymentCursorInvalidException;
+import com.ss.utopia.exceptions.PaymentIdempotencyKeyInProgressException;
+import com.ss.utopia.exceptions.PaymentIdempotencyKeyInvalidException;
+import com.ss.utopia.exceptions.PaymentIdempotencyKeyReusedException;
 import com.ss.utopia.exceptions.PaymentNotFoundException;
+import com.ss.utopia.exceptions.PaymentRequestRejectedException;
+import com.ss.utopia.exceptions.PaymentResultTooLargeException;
 import com.ss.utopia.exceptions.PaymentStatusNotFoundException;
+import com.ss.utopia.exceptions.PaymentUuidInvalidException;
+import com.ss.utopia.exceptions.PaymentVersionConflictException;
+import com.ss.utopia.executors.PaymentAsyncTimeouts;
+import com.ss.utopia.executors.PaymentExecutor;
+import com.ss.utopia.idempotency.PaymentIdempotency;
 import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentBatchResult;
+import com.ss.utopia.models.PaymentPage;
+import com.ss.utopia.models.PaymentStats;
+import com.ss.utopia.models.PaymentStatusUpdate;
+import com.ss.utopia.models.PaymentStatusUpdateResult;
 import com.ss.utopia.models.ErrorMessage;
 import com.ss.utopia.services.PaymentService;
+import com.ss.utopia.subscriptions.PaymentSubscriptions;
 
 @RestController
 @RequestMapping("/payments")
 public class PaymentController {
 
+	private static final String APPLICATION_NDJSON = "application/x-ndjson";
+
 	@Autowired
 	private PaymentService paymentService;
+
+	@Autowired
+	private PaymentExecutor paymentExecutor;
+
+	@Autowired
+	private PaymentIdempotency paymentIdempotency;
+
+	@Autowired
+	private PaymentSubscriptions paymentSubscriptions;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	@Value("${payments.export.timeout-ms:1800000}")
+	private Long exportTimeoutMs;
+
+	private ObjectWriter paymentWriter;
 	
 	@GetMapping("/health")
 	public ResponseEntity<Object> health() {
@@ -40,46 +96,128 @@ public class PaymentController {
 	}
 
 	@GetMapping
-	public ResponseEntity<Object> findAll() {
-		List<Payment> payments = paymentService.findAll();
-		return !payments.isEmpty()
-			? new ResponseEntity<>(payments, HttpStatus.OK)
-			: new ResponseEntity<>(HttpStatus.NO_CONTENT);
+	public CompletableFuture<ResponseEntity<Object>> findAll(
+		@RequestParam(required = false) Integer limit,
+		@RequestParam(required = false) String after) {
+		return paymentExecutor.submit(() -> {
+			if(limit != null || after != null) {
+				return toPageResponse(paymentService.findPage(Collections.emptyMap(), limit, after));
+			}
+			List<Payment> payments = paymentService.findAll();
+			return !payments.isEmpty()
+				? new ResponseEntity<>(payments, HttpStatus.OK)
+				: new ResponseEntity<>(HttpStatus.NO_CONTENT);
+		});
+	}
+
+	// Built once - an ObjectWriter is immutable and caches the Payment serializer
+	@PostConstruct
+	public void createWriters() {
+		paymentWriter = objectMapper.writerFor(Payment.class)
+			.without(SerializationFeature.FLUSH_AFTER_WRITE_VALUE);
+	}
+
+	@GetMapping(value = "/export", produces = APPLICATION_NDJSON)
+	public ResponseEntity<StreamingResponseBody> export(HttpServletRequest request) {
+		PaymentAsyncTimeouts.extend(request, exportTimeoutMs);
+		StreamingResponseBody body = outputStream -> {
+			try(JsonGenerator generator = objectMapper.getFactory().createGenerator(outputStream)
+				.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET)) {
+				generator.setRootValueSeparator(null);
+				paymentService.exportAll(payment -> {
+					try {
+						paymentWriter.writeValue(generator, payment);
+						generator.writeRaw('\n');
+					} 
+					catch(IOException err) {
+						throw new UncheckedIOException(err);
+					}
+				});
+			}
+		};
+		return new ResponseEntity<>(body, HttpStatus.OK);
+	}
+
+	@GetMapping("/stats")
+	public CompletableFuture<ResponseEntity<Object>> findStats() {
+		return paymentExecutor.submit(() -> {
+			PaymentStats stats = paymentService.findStats();
+			return new ResponseEntity<>(stats, HttpStatus.OK);
+		});
 	}
 
 	@GetMapping("{paymentId}")
-	public ResponseEntity<Object> findById(@PathVariable String paymentId) 
-	throws PaymentNotFoundException {
-		Integer formattedId = Integer.parseInt(paymentId);
-		Payment payment = paymentService.findById(formattedId);
-		return new ResponseEntity<>(payment, HttpStatus.OK);
+	public CompletableFuture<ResponseEntity<Object>> findById(@PathVariable String paymentId) {
+		return paymentExecutor.submit(() -> {
+			Integer formattedId = Integer.parseInt(paymentId);
+			Payment payment = paymentService.findById(formattedId);
+			return new ResponseEntity<>(payment, HttpStatus.OK);
+		});
 	}
 
 	@GetMapping("/booking/{bookingId}")
-	public ResponseEntity<Object> findByBookingUuid(@PathVariable String bookingId) 
-	throws PaymentNotFoundException {
-		Payment payment = paymentService.findByBookingUuid(bookingId);
-		return new ResponseEntity<>(payment, HttpStatus.OK);
+	public CompletableFuture<ResponseEntity<Object>> findByBookingUuid(@PathVariable String bookingId) {
+		return paymentExecutor.submit(() -> {
+			Payment payment = paymentService.findByBookingUuid(bookingId);
+			return new ResponseEntity<>(payment, HttpStatus.OK);
+		});
 	}
 
 	@GetMapping("/stripe/{stripeId}")
-	public ResponseEntity<Object> findByStripeUuid(@PathVariable String stripeId)
-	throws PaymentNotFoundException  {
-		Payment payment = paymentService.findByStripeUuid(stripeId);
-		return new ResponseEntity<>(payment, HttpStatus.OK);
+	public CompletableFuture<ResponseEntity<Object>> findByStripeUuid(@PathVariable String stripeId) {
+		return paymentExecutor.submit(() -> {
+			Payment payment = paymentService.findByStripeUuid(stripeId);
+			return new ResponseEntity<>(payment, HttpStatus.OK);
+		});
+	}
+
+	// Streams the payment now and again after every committed change, instead of being polled
+	@GetMapping("{paymentId}/events")
+	public CompletableFuture<SseEmitter> subscribeById(@PathVariable String paymentId) {
+		return paymentExecutor.submit(() -> {
+			Integer formattedId = Integer.parseInt(paymentId);
+			return paymentSubscriptions.subscribe(formattedId, () -> paymentService.findCurrentById(formattedId));
+		});
+	}
+
+	// The stripe UUID only resolves the id - the stream follows that payment
+	@GetMapping("/stripe/{stripeId}/events")
+	public CompletableFuture<SseEmitter> subscribeByStripeUuid(@PathVariable String stripeId) {
+		return paymentExecutor.submit(() -> {
+			Integer paymentId = paymentService.findByStripeUuid(stripeId).getPaymentId();
+			return paymentSubscriptions.subscribe(paymentId, () -> paymentService.findCurrentById(paymentId));
+		});
 	}
 
 	@PostMapping("/search")
-	public ResponseEntity<Object> findBySearchAndFilter(@RequestBody Map<String, String> filterMap) {
-		List<Payment> payments = paymentService.findBySearchAndFilter(filterMap);
-		return !payments.isEmpty()
-			? new ResponseEntity<>(payments, HttpStatus.OK)
-			: new ResponseEntity<>(HttpStatus.NO_CONTENT);
+	public CompletableFuture<ResponseEntity<Object>> findBySearchAndFilter(
+		@RequestBody Map<String, String> filterMap,
+		@RequestParam(required = false) Integer limit,
+		@RequestParam(required = false) String after) {
+		return paymentExecutor.submit(() -> {
+			if(limit != null || after != null) {
+				return toPageResponse(paymentService.findPage(filterMap, limit, after));
+			}
+			List<Payment> payments = paymentService.findBySearchAndFilter(filterMap);
+			return !payments.isEmpty()
+				? new ResponseEntity<>(payments, HttpStatus.OK)
+				: new ResponseEntity<>(HttpStatus.NO_CONTENT);
+		});
 	}
 
 	@PostMapping
-	public ResponseEntity<Object> insert(@RequestBody Map<String, String> paymentMap) 
-	throws PaymentAlreadyExistsException, PaymentStatusNotFoundException {
+	public CompletableFuture<ResponseEntity<Object>> insert(@RequestBody Map<String, String> paymentMap, 
+	@RequestHeader(value = PaymentIdempotency.IDEMPOTENCY_KEY_HEADER, required = false) String idempotencyKey) {
+		return paymentExecutor.submit(() -> {
+			if(idempotencyKey != null) {
+				return paymentIdempotency.execute(idempotencyKey, paymentMap, () -> insertPayment(paymentMap));
+			}
+			return insertPayment(paymentMap);
+		});
+	}
+
+	private ResponseEntity<Object> insertPayment(Map<String, String> paymentMap) 
+	throws PaymentAlreadyExistsException, PaymentStatusNotFoundException, PaymentUuidInvalidException {
 		String paymentBookingUuid = paymentMap.get("paymentBookingUuid");
 		String paymentStripeUuid = paymentMap.get("paymentStripeUuid");
 		String paymentStatus = paymentMap.get("paymentStatus");
@@ -88,24 +226,58 @@ public class PaymentController {
 		return new ResponseEntity<>(newPayment, HttpStatus.CREATED);
 	}
 
+	@PostMapping("/batch")
+	public CompletableFuture<ResponseEntity<Object>> insertAll(@RequestBody List<Map<String, String>> paymentMaps) {
+		return paymentExecutor.submit(() -> {
+			List<PaymentBatchResult> results = paymentService.insertAll(paymentMaps);
+			boolean allCreated = results.stream()
+				.allMatch(i -> i.getStatus() == HttpStatus.CREATED.value());
+			return new ResponseEntity<>(results, allCreated ? HttpStatus.CREATED : HttpStatus.MULTI_STATUS);
+		});
+	}
+
 	@PutMapping
-	public ResponseEntity<Object> update(@RequestBody Map<String, String> paymentMap) 
-	throws PaymentAlreadyExistsException, PaymentNotFoundException, PaymentStatusNotFoundException {
-		Integer paymentId = Integer.parseInt(paymentMap.get("paymentId"));
-		String paymentBookingUuid = paymentMap.get("paymentBookingUuid");
-		String paymentStripeUuid = paymentMap.get("paymentStripeUuid");
-		String paymentStatus = paymentMap.get("paymentStatus");
+	public CompletableFuture<ResponseEntity<Object>> update(@RequestBody Map<String, String> paymentMap) {
+		return paymentExecutor.submit(() -> {
+			Integer paymentId = Integer.parseInt(paymentMap.get("paymentId"));
+			String paymentBookingUuid = paymentMap.get("paymentBookingUuid");
+			String paymentStripeUuid = paymentMap.get("paymentStripeUuid");
+			String paymentStatus = paymentMap.get("paymentStatus");
+			Integer paymentVersion = paymentMap.get("paymentVersion") != null
+				? Integer.parseInt(paymentMap.get("paymentVersion"))
+				: null;
 
-		Payment newPayment = paymentService.update(paymentId, paymentBookingUuid, paymentStripeUuid, paymentStatus);
-		return new ResponseEntity<>(newPayment, HttpStatus.ACCEPTED);
+			Payment newPayment = paymentService.update(paymentId, paymentBookingUuid, paymentStripeUuid, paymentStatus, paymentVersion);
+			return new ResponseEntity<>(newPayment, HttpStatus.ACCEPTED);
+		});
+	}
+
+	@PutMapping("/status")
+	public CompletableFuture<ResponseEntity<Object>> updateStatuses(@RequestBody PaymentStatusUpdate statusUpdate) {
+		return paymentExecutor.submit(() -> {
+			PaymentStatusUpdateResult result = paymentService.updateStatuses(
+				statusUpdate.getPaymentIds(), 
+				statusUpdate.getFromStatus(), 
+				statusUpdate.getPaymentStatus()
+			);
+			return new ResponseEntity<>(result, HttpStatus.ACCEPTED);
+		});
 	}
 
 	@DeleteMapping("{paymentId}")
-	public ResponseEntity<Object> delete(@PathVariable String paymentId) 
-	throws IllegalArgumentException, PaymentNotFoundException {
-		Integer formattedId = Integer.parseInt(paymentId);
-		String deleteInformation = paymentService.delete(formattedId);
-		return new ResponseEntity<>(deleteInformation, HttpStatus.ACCEPTED);
+	public CompletableFuture<ResponseEntity<Object>> delete(@PathVariable String paymentId, 
+	@RequestParam(required = false) Integer paymentVersion) {
+		return paymentExecutor.submit(() -> {
+			Integer formattedId = Integer.parseInt(paymentId);
+			String deleteInformation = paymentService.delete(formattedId, paymentVersion);
+			return new ResponseEntity<>(deleteInformation, HttpStatus.ACCEPTED);
+		});
+	}
+
+	private ResponseEntity<Object> toPageResponse(PaymentPage page) {
+		return !page.getPayments().isEmpty()
+			? new ResponseEntity<>(page, HttpStatus.OK)
+			: new ResponseEntity<>(HttpStatus.NO_CONTENT);
 	}
 
 	// Exception Handling
@@ -119,6 +291,54 @@ public class PaymentController {
 		);
 	}
 
+	@ExceptionHandler(PaymentBatchTooLargeException.class)
+	@ResponseStatus(HttpStatus.PAYLOAD_TOO_LARGE)
+	public ResponseEntity<Object> paymentBatchTooLargeException(Throwable err) {
+		return new ResponseEntity<>(
+			new ErrorMessage(err.getMessage()), 
+			HttpStatus.PAYLOAD_TOO_LARGE
+		);
+	}
+
+	@ExceptionHandler(PaymentCursorInvalidException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public ResponseEntity<Object> paymentCursorInvalidException(Throwable err) {
+		return new ResponseEntity<>(
+			new ErrorMessage(err.getMessage()), 
+			HttpStatus.BAD_REQUEST
+		);
+	}
+
+	@ExceptionHandler(PaymentIdempotencyKeyInvalidException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public ResponseEntity<Object> paymentIdempotencyKeyInvalidException(Throwable err) {
+		return new ResponseEntity<>(
+			new ErrorMessage(err.getMessage()), 
+			HttpStatus.BAD_REQUEST
+		);
+	}
+
+	@ExceptionHandler(PaymentIdempotencyKeyInProgressException.class)
+	@ResponseStatus(HttpStatus.CONFLICT)
+	public ResponseEntity<Object> paymentIdempotencyKeyInProgressException(Throwable err) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.RETRY_AFTER, "1");
+		return new ResponseEntity<>(
+			new ErrorMessage(err.getMessage()), 
+			headers,
+			HttpStatus.CONFLICT
+		);
+	}
+
+	@ExceptionHandler(PaymentIdempotencyKeyReusedException.class)
+	@ResponseStatus(HttpStatus.UNPROCESSABLE_ENTITY)
+	public ResponseEntity<Object> paymentIdempotencyKeyReusedException(Throwable err) {
+		return new ResponseEntity<>(
+			new ErrorMessage(err.getMessage()), 
+			HttpStatus.UNPROCESSABLE_ENTITY
+		);
+	}
+
 	@ExceptionHandler(PaymentNotFoundException.class)
 	@ResponseStatus(HttpStatus.NOT_FOUND)
 	public ResponseEntity<Object> paymentNotFoundException(Throwable err) {
@@ -128,6 +348,27 @@ public class PaymentController {
 		);
 	}
 
+	@ExceptionHandler(PaymentRequestRejectedException.class)
+	@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+	public ResponseEntity<Object> paymentRequestRejectedException(Throwable err) {
+		HttpHeaders headers = new HttpHeaders();
+		headers.set(HttpHeaders.RETRY_AFTER, "1");
+		return new ResponseEntity<>(
+			new ErrorMessage(err.getMessage()), 
+			headers,
+			HttpStatus.SERVICE_UNAVAILABLE
+		);
+	}
+
+	@ExceptionHandler(PaymentResultTooLargeException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public ResponseEntity<Object> paymentResultTooLargeException(Throwable err) {
+		return new ResponseEntity<>(
+			new ErrorMessage(err.getMessage()), 
+			HttpStatus.BAD_REQUEST
+		);
+	}
+
 	@ExceptionHandler(PaymentStatusNotFoundException.class)
 	@ResponseStatus(HttpStatus.NOT_FOUND)
 	public ResponseEntity<Object> paymentStatusNotFoundException(Throwable err) {
@@ -137,6 +378,24 @@ public class PaymentController {
 		);
 	}
 
+	@ExceptionHandler(PaymentUuidInvalidException.class)
+	@ResponseStatus(HttpStatus.BAD_REQUEST)
+	public ResponseEntity<Object> paymentUuidInvalidException(Throwable err) {
+		return new ResponseEntity<>(
+			new ErrorMessage(err.getMessage()), 
+			HttpStatus.BAD_REQUEST
+		);
+	}
+
+	@ExceptionHandler(PaymentVersionConflictException.class)
+	@ResponseStatus(HttpStatus.CONFLICT)
+	public ResponseEntity<Object> paymentVersionConflictException(Throwable err) {
+		return new ResponseEntity<>(
+			new ErrorMessage(err.getMessage()), 
+			HttpStatus.CONFLICT
+		);
+	}
+
 	@ExceptionHandler(ConnectException.class)
 	@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
 	public ResponseEntity<Object> invalidConnection() {
@@ -164,6 +423,16 @@ public class PaymentController {
 		);
 	}
 
+	// A query cut off by javax.persistence.query.timeout
+	@ExceptionHandler(QueryTimeoutException.class)
+	@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
+	public ResponseEntity<Object> queryTimeout() {
+		return new ResponseEntity<>(
+			new ErrorMessage("The query took too long, please narrow the search or retry."), 
+			HttpStatus.SERVICE_UNAVAILABLE
+		);
+	}
+
 	@ExceptionHandler(SQLException.class)
 	@ResponseStatus(HttpStatus.SERVICE_UNAVAILABLE)
 	public ResponseEntity<Object> invalidSQL() {
@@ -0,0 +1,170 @@
+package com.ss.utopia.caches;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Supplier;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ss.utopia.datasources.PaymentTransactions;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStats;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+// Payments are cached once by id. The booking and stripe UUID caches only map
+// to an id and are checked against the cached payment on every read, so
+// evicting a payment's id invalidates all three keys together.
+// Evictions made inside a transaction wait for it to commit - evicting earlier
+// would let a concurrent read re-cache the old row until the TTL expires.
+// A lookup takes a load stamp before querying, and its result is only cached
+// if its id was not evicted since - a load that started before a write and
+// finished after the eviction would otherwise re-cache the old row. A cached
+// payment is never replaced by an older version of itself either.
+// Only this instance's writes evict - writes made through other instances are
+// seen once the entry expires, so the TTL is kept to a couple of seconds.
+// Payment stats are held separately under a single key for a few seconds and
+// are not evicted by writes - pollers may see counts up to that old.
+@Component
+public class PaymentCache implements MeterBinder {
+
+	private static final String STATS_KEY = "stats";
+	// Longer than any load may run - the query timeout is far shorter
+	private static final long EVICTION_STAMP_SECONDS = 60;
+
+	private final Cache<Integer, Payment> paymentsById;
+	private final Cache<String, Integer> paymentIdsByBookingUuid;
+	private final Cache<String, Integer> paymentIdsByStripeUuid;
+	private final Cache<String, PaymentStats> stats;
+	private final Cache<Integer, Long> evictionStamps;
+	private final AtomicLong evictionCount = new AtomicLong();
+	private volatile long evictedAllStamp;
+
+	public PaymentCache(
+		@Value("${payments.cache.maximum-size:10000}") long maximumSize,
+		@Value("${payments.cache.time-to-live-seconds:2}") long timeToLiveSeconds,
+		@Value("${payments.stats.time-to-live-ms:5000}") long statsTimeToLiveMs
+	) {
+		paymentsById = buildCache(maximumSize, timeToLiveSeconds);
+		paymentIdsByBookingUuid = buildCache(maximumSize, timeToLiveSeconds);
+		paymentIdsByStripeUuid = buildCache(maximumSize, timeToLiveSeconds);
+		stats = Caffeine.newBuilder()
+			.maximumSize(1)
+			.expireAfterWrite(Math.max(0, statsTimeToLiveMs), TimeUnit.MILLISECONDS)
+			.recordStats()
+			.build();
+		evictionStamps = Caffeine.newBuilder()
+			.maximumSize(maximumSize)
+			.expireAfterWrite(Math.max(timeToLiveSeconds, EVICTION_STAMP_SECONDS), TimeUnit.SECONDS)
+			.build();
+	}
+
+	// Taken before a lookup queries the database, and handed back to put with its result
+	public long loadStamp() {
+		return evictionCount.get();
+	}
+
+	public Payment getById(Integer paymentId) {
+		return paymentsById.getIfPresent(paymentId);
+	}
+
+	public Payment getByBookingUuid(String paymentBookingUuid) {
+		Integer paymentId = paymentIdsByBookingUuid.getIfPresent(paymentBookingUuid);
+		Payment payment = paymentId != null ? paymentsById.getIfPresent(paymentId) : null;
+		return payment != null && paymentBookingUuid.equals(payment.getPaymentBookingUuid())
+			? payment
+			: null;
+	}
+
+	public Payment getByStripeUuid(String paymentStripeUuid) {
+		Integer paymentId = paymentIdsByStripeUuid.getIfPresent(paymentStripeUuid);
+		Payment payment = paymentId != null ? paymentsById.getIfPresent(paymentId) : null;
+		return payment != null && paymentStripeUuid.equals(payment.getPaymentStripeUuid())
+			? payment
+			: null;
+	}
+
+	public void put(Payment payment, long loadStamp) {
+		Payment cachedPayment = paymentsById.asMap().compute(payment.getPaymentId(), (paymentId, current) -> {
+			Long evictionStamp = evictionStamps.getIfPresent(paymentId);
+			if(loadStamp < evictedAllStamp || (evictionStamp != null && loadStamp < evictionStamp)) {
+				return current;
+			}
+			return current != null && version(current) > version(payment) ? current : payment;
+		});
+		if(cachedPayment != payment) {
+			return;
+		}
+		if(payment.getPaymentBookingUuid() != null) {
+			paymentIdsByBookingUuid.put(payment.getPaymentBookingUuid(), payment.getPaymentId());
+		}
+		if(payment.getPaymentStripeUuid() != null) {
+			paymentIdsByStripeUuid.put(payment.getPaymentStripeUuid(), payment.getPaymentId());
+		}
+	}
+
+	public void evict(Payment payment) {
+		Integer paymentId = payment.getPaymentId();
+		String paymentBookingUuid = payment.getPaymentBookingUuid();
+		String paymentStripeUuid = payment.getPaymentStripeUuid();
+		PaymentTransactions.afterCommit(() -> evictNow(paymentId, paymentBookingUuid, paymentStripeUuid));
+	}
+
+	public void evictById(Integer paymentId) {
+		PaymentTransactions.afterCommit(() -> evictNow(paymentId, null, null));
+	}
+
+	private void evictNow(Integer paymentId, String paymentBookingUuid, String paymentStripeUuid) {
+		if(paymentId != null) {
+			// Stamped under the entry's lock, so a put racing this eviction either lands before it or is refused
+			paymentsById.asMap().compute(paymentId, (id, current) -> {
+				evictionStamps.put(id, evictionCount.incrementAndGet());
+				return null;
+			});
+		}
+		if(paymentBookingUuid != null) {
+			paymentIdsByBookingUuid.invalidate(paymentBookingUuid);
+		}
+		if(paymentStripeUuid != null) {
+			paymentIdsByStripeUuid.invalidate(paymentStripeUuid);
+		}
+	}
+
+	public void evictAll() {
+		evictedAllStamp = evictionCount.incrementAndGet();
+		paymentsById.invalidateAll();
+		paymentIdsByBookingUuid.invalidateAll();
+		paymentIdsByStripeUuid.invalidateAll();
+		stats.invalidateAll();
+	}
+
+	// Concurrent misses wait on a single load rather than each counting the table
+	public PaymentStats getStats(Supplier<PaymentStats> loader) {
+		return stats.get(STATS_KEY, key -> loader.get());
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		CaffeineCacheMetrics.monitor(registry, paymentsById, "payments.id");
+		CaffeineCacheMetrics.monitor(registry, paymentIdsByBookingUuid, "payments.booking");
+		CaffeineCacheMetrics.monitor(registry, paymentIdsByStripeUuid, "payments.stripe");
+		CaffeineCacheMetrics.monitor(registry, stats, "payments.stats");
+	}
+
+	private static int version(Payment payment) {
+		return payment.getPaymentVersion() != null ? payment.getPaymentVersion() : -1;
+	}
+
+	private static <K, V> Cache<K, V> buildCache(long maximumSize, long timeToLiveSeconds) {
+		return Caffeine.newBuilder()
+			.maximumSize(maximumSize)
+			.expireAfterWrite(timeToLiveSeconds, TimeUnit.SECONDS)
+			.recordStats()
+			.build();
+	}
+}
@@ -0,0 +1,131 @@
+package com.ss.utopia.caches;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.function.Supplier;
+
+import com.ss.utopia.models.Payment;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// Single-flight for cache misses: while one lookup of a key is querying the
+// database, concurrent lookups of the same key wait for and share its result
+// instead of issuing their own query. Nothing is kept once the call returns -
+// PaymentCache holds results. Each call carries the PaymentCache load stamp it
+// started with, and a lookup only joins a call started at or after its own
+// stamp - a call that began before an eviction may have read the row as it was
+// before a write its caller already saw committed, so a later lookup runs its own.
+@Component
+public class PaymentLookupCoalescer implements MeterBinder {
+
+	public static final String LOOKUP_ID = "id";
+	public static final String LOOKUP_BOOKING = "booking";
+	public static final String LOOKUP_STRIPE = "stripe";
+
+	private final boolean enabled;
+	private final ConcurrentMap<String, Call> inFlight = new ConcurrentHashMap<>();
+
+	private final Map<String, Counter> collapsedCounters = new HashMap<>();
+	private final Map<String, Counter> loadCounters = new HashMap<>();
+
+	public PaymentLookupCoalescer(@Value("${payments.coalescing.enabled:true}") boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	// loadStamp - PaymentCache.loadStamp() taken before this lookup missed the cache
+	public Optional<Payment> load(String lookup, Object key, long loadStamp, Supplier<Optional<Payment>> loader) {
+		if(!enabled) {
+			return loader.get();
+		}
+		String flightKey = lookup + ":" + key;
+		Call call = new Call(loadStamp);
+		Call leader = inFlight.putIfAbsent(flightKey, call);
+		while(leader != null) {
+			if(leader.loadStamp >= loadStamp) {
+				increment(collapsedCounters, lookup);
+				return join(leader.result);
+			}
+			// Started before an eviction this lookup may depend on - take its place for later lookups
+			leader = inFlight.replace(flightKey, leader, call) ? null : inFlight.putIfAbsent(flightKey, call);
+		}
+
+		increment(loadCounters, lookup);
+		try {
+			Optional<Payment> payment = loader.get();
+			call.result.complete(payment);
+			return payment;
+		}
+		catch(RuntimeException | Error err) {
+			call.result.completeExceptionally(err);
+			throw err;
+		}
+		finally {
+			inFlight.remove(flightKey, call);
+		}
+	}
+
+	public int inFlightCount() {
+		return inFlight.size();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		for(String lookup : new String[] { LOOKUP_ID, LOOKUP_BOOKING, LOOKUP_STRIPE }) {
+			collapsedCounters.put(lookup, Counter.builder("payments.coalescing.collapsed")
+				.description("Lookups answered by another lookup's in-flight query")
+				.tag("lookup", lookup)
+				.register(registry));
+			loadCounters.put(lookup, Counter.builder("payments.coalescing.loads")
+				.description("Lookups that queried the database")
+				.tag("lookup", lookup)
+				.register(registry));
+		}
+		Gauge.builder("payments.coalescing.in-flight", this, PaymentLookupCoalescer::inFlightCount)
+			.description("Lookups currently querying the database")
+			.register(registry);
+	}
+
+	private static void increment(Map<String, Counter> counters, String lookup) {
+		Counter counter = counters.get(lookup);
+		if(counter != null) {
+			counter.increment();
+		}
+	}
+
+	private static class Call {
+
+		private final long loadStamp;
+		private final CompletableFuture<Optional<Payment>> result = new CompletableFuture<>();
+
+		private Call(long loadStamp) {
+			this.loadStamp = loadStamp;
+		}
+	}
+
+	// Rethrows what the leading lookup threw rather than the CompletionException wrapping it
+	private static Optional<Payment> join(CompletableFuture<Optional<Payment>> leader) {
+		try {
+			return leader.join();
+		}
+		catch(CompletionException err) {
+			if(err.getCause() instanceof RuntimeException) {
+				throw (RuntimeException) err.getCause();
+			}
+			if(err.getCause() instanceof Error) {
+				throw (Error) err.getCause();
+			}
+			throw err;
+		}
+	}
+}
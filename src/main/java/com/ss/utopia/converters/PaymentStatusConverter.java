@@ -0,0 +1,21 @@
+package com.ss.utopia.converters;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+import com.ss.utopia.models.PaymentStatus;
+
+// Stores a PaymentStatus as its TINYINT code rather than its name
+@Converter
+public class PaymentStatusConverter implements AttributeConverter<PaymentStatus, Byte> {
+
+  @Override
+  public Byte convertToDatabaseColumn(PaymentStatus paymentStatus) {
+    return paymentStatus != null ? paymentStatus.getCode() : null;
+  }
+
+  @Override
+  public PaymentStatus convertToEntityAttribute(Byte code) {
+    return code != null ? PaymentStatus.fromCode(code) : null;
+  }
+}
@@ -0,0 +1,52 @@
+package com.ss.utopia.converters;
+
+import java.nio.ByteBuffer;
+import java.util.UUID;
+
+import javax.persistence.AttributeConverter;
+import javax.persistence.Converter;
+
+// Stores canonical UUID strings as BINARY(16). Applied to the Payment UUID
+// columns by META-INF/orm-binary-uuid.xml when the binary-uuid profile is active.
+@Converter
+public class UuidBinaryConverter implements AttributeConverter<String, byte[]> {
+
+  private static final int UUID_LENGTH = 36;
+
+  @Override
+  public byte[] convertToDatabaseColumn(String uuid) {
+    if(uuid == null) {
+      return null;
+    }
+    UUID parsedUuid = UUID.fromString(uuid);
+    return ByteBuffer.allocate(16)
+      .putLong(parsedUuid.getMostSignificantBits())
+      .putLong(parsedUuid.getLeastSignificantBits())
+      .array();
+  }
+
+  @Override
+  public String convertToEntityAttribute(byte[] bytes) {
+    if(bytes == null) {
+      return null;
+    }
+    ByteBuffer buffer = ByteBuffer.wrap(bytes);
+    return new UUID(buffer.getLong(), buffer.getLong()).toString();
+  }
+
+  // UUID.fromString accepts shortened groups and uppercase digits, only the
+  // lowercase 8-4-4-4-12 form reads back as the string that was written
+  public static boolean isCanonical(String uuid) {
+    if(uuid == null || uuid.length() != UUID_LENGTH) {
+      return false;
+    }
+    for(int i = 0; i < UUID_LENGTH; i++) {
+      char c = uuid.charAt(i);
+      boolean isDash = i == 8 || i == 13 || i == 18 || i == 23;
+      if(isDash ? c != '-' : !((c >= '0' && c <= '9') || (c >= 'a' && c <= 'f'))) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
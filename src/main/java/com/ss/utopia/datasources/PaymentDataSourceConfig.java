@@ -0,0 +1,87 @@
+package com.ss.utopia.datasources;
+
+import javax.annotation.PreDestroy;
+import javax.sql.DataSource;
+
+import com.zaxxer.hikari.HikariDataSource;
+import com.zaxxer.hikari.metrics.micrometer.MicrometerMetricsTrackerFactory;
+
+import org.springframework.beans.factory.ObjectProvider;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.boot.autoconfigure.jdbc.DataSourceProperties;
+import org.springframework.boot.context.properties.bind.Bindable;
+import org.springframework.boot.context.properties.bind.Binder;
+import org.springframework.boot.jdbc.DataSourceBuilder;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.core.env.Environment;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+
+import io.micrometer.core.instrument.MeterRegistry;
+
+// Replaces the auto-configured DataSource with primary and replica Hikari pools
+// behind a PaymentRoutingDataSource once payments.datasource.replica.url is set.
+// Both pools take the spring.datasource.hikari settings; the replica's can be
+// overridden under payments.datasource.replica.hikari. The pools are not beans
+// of their own, so the one DataSource bean stays the routing proxy.
+@Configuration
+@ConditionalOnProperty("payments.datasource.replica.url")
+public class PaymentDataSourceConfig {
+
+	private static final String HIKARI_PREFIX = "spring.datasource.hikari";
+	private static final String REPLICA_HIKARI_PREFIX = "payments.datasource.replica.hikari";
+
+	private HikariDataSource primaryDataSource;
+	private HikariDataSource replicaDataSource;
+
+	@Bean
+	public DataSource dataSource(
+		DataSourceProperties properties,
+		Environment environment,
+		ObjectProvider<MeterRegistry> meterRegistry,
+		@Value("${payments.datasource.replica.url}") String replicaUrl,
+		@Value("${payments.datasource.replica.username:}") String replicaUsername,
+		@Value("${payments.datasource.replica.password:}") String replicaPassword
+	) {
+		Binder binder = Binder.get(environment);
+
+		primaryDataSource = properties.initializeDataSourceBuilder()
+			.type(HikariDataSource.class)
+			.build();
+		binder.bind(HIKARI_PREFIX, Bindable.ofInstance(primaryDataSource));
+
+		replicaDataSource = DataSourceBuilder.create(properties.getClassLoader())
+			.type(HikariDataSource.class)
+			.driverClassName(properties.determineDriverClassName())
+			.url(replicaUrl)
+			.username(!replicaUsername.isEmpty() ? replicaUsername : properties.determineUsername())
+			.password(!replicaPassword.isEmpty() ? replicaPassword : properties.determinePassword())
+			.build();
+		binder.bind(HIKARI_PREFIX, Bindable.ofInstance(replicaDataSource));
+		replicaDataSource.setPoolName(
+			(primaryDataSource.getPoolName() != null ? primaryDataSource.getPoolName() : "PaymentPool") + "Replica"
+		);
+		binder.bind(REPLICA_HIKARI_PREFIX, Bindable.ofInstance(replicaDataSource));
+
+		// hikaricp.connections.* for both pools, tagged with their pool names
+		meterRegistry.ifAvailable(registry -> {
+			primaryDataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry));
+			replicaDataSource.setMetricsTrackerFactory(new MicrometerMetricsTrackerFactory(registry));
+		});
+
+		PaymentRoutingDataSource routingDataSource = new PaymentRoutingDataSource(primaryDataSource, replicaDataSource);
+		routingDataSource.afterPropertiesSet();
+		return new LazyConnectionDataSourceProxy(routingDataSource);
+	}
+
+	@PreDestroy
+	public void close() {
+		if(primaryDataSource != null) {
+			primaryDataSource.close();
+		}
+		if(replicaDataSource != null) {
+			replicaDataSource.close();
+		}
+	}
+}
@@ -0,0 +1,100 @@
+package com.ss.utopia.datasources;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+import com.ss.utopia.datasources.PaymentRoutingDataSource.PrimaryReads;
+import com.ss.utopia.models.Payment;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+// Read-your-writes for the replica: payments written by this instance are
+// remembered for payments.datasource.read-your-writes-ms, and lookups of them
+// by id, booking UUID or stripe UUID read from the primary until then. Lookups
+// of them are not cached until then either - a replica read already in flight
+// when the write landed would otherwise cache the row as it was.
+@Component
+public class PaymentRecentWrites {
+
+	private static final PrimaryReads UNCHANGED = () -> {};
+
+	private final boolean enabled;
+	private final Cache<String, Boolean> writtenKeys;
+
+	public PaymentRecentWrites(
+		@Value("${payments.datasource.replica.url:}") String replicaUrl,
+		@Value("${payments.datasource.read-your-writes-ms:2000}") long readYourWritesMs,
+		@Value("${payments.datasource.read-your-writes-maximum-size:100000}") long maximumSize
+	) {
+		this.enabled = !replicaUrl.isEmpty();
+		this.writtenKeys = Caffeine.newBuilder()
+			.maximumSize(maximumSize)
+			.expireAfterWrite(readYourWritesMs, TimeUnit.MILLISECONDS)
+			.build();
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	public void record(Payment payment) {
+		if(!enabled) {
+			return;
+		}
+		record(payment.getPaymentId());
+		if(payment.getPaymentBookingUuid() != null) {
+			writtenKeys.put(bookingKey(payment.getPaymentBookingUuid()), Boolean.TRUE);
+		}
+		if(payment.getPaymentStripeUuid() != null) {
+			writtenKeys.put(stripeKey(payment.getPaymentStripeUuid()), Boolean.TRUE);
+		}
+	}
+
+	public void record(Integer paymentId) {
+		if(enabled && paymentId != null) {
+			writtenKeys.put(idKey(paymentId), Boolean.TRUE);
+		}
+	}
+
+	public PrimaryReads readsForId(Integer paymentId) {
+		return readsFor(idKey(paymentId));
+	}
+
+	public PrimaryReads readsForBookingUuid(String paymentBookingUuid) {
+		return readsFor(bookingKey(paymentBookingUuid));
+	}
+
+	public PrimaryReads readsForStripeUuid(String paymentStripeUuid) {
+		return readsFor(stripeKey(paymentStripeUuid));
+	}
+
+	public boolean isRecentlyWritten(Payment payment) {
+		return enabled && (isRecentlyWritten(idKey(payment.getPaymentId()))
+			|| (payment.getPaymentBookingUuid() != null && isRecentlyWritten(bookingKey(payment.getPaymentBookingUuid())))
+			|| (payment.getPaymentStripeUuid() != null && isRecentlyWritten(stripeKey(payment.getPaymentStripeUuid()))));
+	}
+
+	private boolean isRecentlyWritten(String key) {
+		return writtenKeys.getIfPresent(key) != null;
+	}
+
+	private PrimaryReads readsFor(String key) {
+		return enabled && isRecentlyWritten(key)
+			? PaymentRoutingDataSource.primaryReads()
+			: UNCHANGED;
+	}
+
+	private static String idKey(Integer paymentId) {
+		return "id:" + paymentId;
+	}
+
+	private static String bookingKey(String paymentBookingUuid) {
+		return "booking:" + paymentBookingUuid;
+	}
+
+	private static String stripeKey(String paymentStripeUuid) {
+		return "stripe:" + paymentStripeUuid;
+	}
+}
@@ -0,0 +1,53 @@
+package com.ss.utopia.datasources;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import javax.sql.DataSource;
+
+import org.springframework.jdbc.datasource.lookup.AbstractRoutingDataSource;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+// Sends read-only transactions to the replica and everything else to the primary.
+// Must sit behind a LazyConnectionDataSourceProxy, so that the target is chosen at
+// the first statement - once the transaction's read-only flag is known - rather
+// than when the transaction manager opens the connection.
+public class PaymentRoutingDataSource extends AbstractRoutingDataSource {
+
+	static final String PRIMARY = "primary";
+	static final String REPLICA = "replica";
+
+	private static final ThreadLocal<Boolean> primaryReads = ThreadLocal.withInitial(() -> Boolean.FALSE);
+
+	public PaymentRoutingDataSource(DataSource primaryDataSource, DataSource replicaDataSource) {
+		Map<Object, Object> targetDataSources = new HashMap<>();
+		targetDataSources.put(PRIMARY, primaryDataSource);
+		targetDataSources.put(REPLICA, replicaDataSource);
+		setTargetDataSources(targetDataSources);
+		setDefaultTargetDataSource(primaryDataSource);
+	}
+
+	// Reads on this thread go to the primary until the returned scope is closed.
+	// Connections already bound to a running transaction keep their target.
+	public static PrimaryReads primaryReads() {
+		boolean previous = primaryReads.get();
+		primaryReads.set(Boolean.TRUE);
+		return () -> primaryReads.set(previous);
+	}
+
+	public static boolean isPrimaryReads() {
+		return primaryReads.get();
+	}
+
+	@Override
+	protected Object determineCurrentLookupKey() {
+		return TransactionSynchronizationManager.isCurrentTransactionReadOnly() && !primaryReads.get()
+			? REPLICA
+			: PRIMARY;
+	}
+
+	public interface PrimaryReads extends AutoCloseable {
+		@Override
+		void close();
+	}
+}
@@ -0,0 +1,26 @@
+package com.ss.utopia.datasources;
+
+import org.springframework.transaction.support.TransactionSynchronization;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+
+public final class PaymentTransactions {
+
+	private PaymentTransactions() {
+		throw new IllegalStateException("Utilility class 'PaymentTransactions' is static and should not be instantiated.");
+	}
+
+	// Runs the action once the current transaction commits, or at once outside of one.
+	// Nothing runs on rollback - the change it reflects never happened.
+	public static void afterCommit(Runnable action) {
+		if(TransactionSynchronizationManager.isSynchronizationActive()) {
+			TransactionSynchronizationManager.registerSynchronization(new TransactionSynchronization() {
+				@Override
+				public void afterCommit() {
+					action.run();
+				}
+			});
+		} else {
+			action.run();
+		}
+	}
+}
@@ -0,0 +1,11 @@
+package com.ss.utopia.exceptions;
+
+public class PaymentBatchTooLargeException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public PaymentBatchTooLargeException() {}
+	public PaymentBatchTooLargeException(String message) {
+		super(message);
+	}
+}
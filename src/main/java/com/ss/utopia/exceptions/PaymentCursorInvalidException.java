@@ -0,0 +1,11 @@
+package com.ss.utopia.exceptions;
+
+public class PaymentCursorInvalidException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public PaymentCursorInvalidException() {}
+	public PaymentCursorInvalidException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,11 @@
+package com.ss.utopia.exceptions;
+
+public class PaymentIdempotencyKeyInProgressException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public PaymentIdempotencyKeyInProgressException() {}
+	public PaymentIdempotencyKeyInProgressException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,11 @@
+package com.ss.utopia.exceptions;
+
+public class PaymentIdempotencyKeyInvalidException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public PaymentIdempotencyKeyInvalidException() {}
+	public PaymentIdempotencyKeyInvalidException(String message) {
+		super(message);
+	}
+}
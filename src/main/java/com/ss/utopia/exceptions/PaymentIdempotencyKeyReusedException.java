@@ -0,0 +1,11 @@
+package com.ss.utopia.exceptions;
+
+public class PaymentIdempotencyKeyReusedException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public PaymentIdempotencyKeyReusedException() {}
+	public PaymentIdempotencyKeyReusedException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,11 @@
+package com.ss.utopia.exceptions;
+
+public class PaymentRequestRejectedException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public PaymentRequestRejectedException() {}
+	public PaymentRequestRejectedException(String message) {
+		super(message);
+	}
+}
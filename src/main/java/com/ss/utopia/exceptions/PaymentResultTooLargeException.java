@@ -0,0 +1,11 @@
+package com.ss.utopia.exceptions;
+
+public class PaymentResultTooLargeException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public PaymentResultTooLargeException() {}
+	public PaymentResultTooLargeException(String message) {
+		super(message);
+	}
+}
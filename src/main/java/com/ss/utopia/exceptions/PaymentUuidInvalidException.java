@@ -0,0 +1,11 @@
+package com.ss.utopia.exceptions;
+
+public class PaymentUuidInvalidException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public PaymentUuidInvalidException() {}
+	public PaymentUuidInvalidException(String message) {
+		super(message);
+	}
+}
@@ -0,0 +1,11 @@
+package com.ss.utopia.exceptions;
+
+public class PaymentVersionConflictException extends Exception {
+
+	private static final long serialVersionUID = 1L;
+
+	public PaymentVersionConflictException() {}
+	public PaymentVersionConflictException(String message) {
+		super(message);
+	}
+}
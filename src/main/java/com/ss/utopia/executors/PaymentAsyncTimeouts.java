@@ -0,0 +1,40 @@
+package com.ss.utopia.executors;
+
+import java.util.concurrent.Callable;
+
+import javax.servlet.http.HttpServletRequest;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.web.context.request.NativeWebRequest;
+import org.springframework.web.context.request.RequestAttributes;
+import org.springframework.web.context.request.async.AsyncWebRequest;
+import org.springframework.web.context.request.async.CallableProcessingInterceptor;
+import org.springframework.web.servlet.config.annotation.AsyncSupportConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+// spring.mvc.async.request-timeout stays short for the CompletableFuture endpoints.
+// A handler that streams for longer (the StreamingResponseBody behind /payments/export)
+// marks its request with extend(), and the interceptor applies that timeout instead
+// just before the async processing starts.
+@Configuration
+public class PaymentAsyncTimeouts implements WebMvcConfigurer {
+
+	private static final String TIMEOUT_ATTRIBUTE = PaymentAsyncTimeouts.class.getName() + ".timeout";
+
+	public static void extend(HttpServletRequest request, long timeoutMs) {
+		request.setAttribute(TIMEOUT_ATTRIBUTE, timeoutMs);
+	}
+
+	@Override
+	public void configureAsyncSupport(AsyncSupportConfigurer configurer) {
+		configurer.registerCallableInterceptors(new CallableProcessingInterceptor() {
+			@Override
+			public <T> void beforeConcurrentHandling(NativeWebRequest request, Callable<T> task) {
+				Object timeoutMs = request.getAttribute(TIMEOUT_ATTRIBUTE, RequestAttributes.SCOPE_REQUEST);
+				if(timeoutMs instanceof Long && request instanceof AsyncWebRequest) {
+					((AsyncWebRequest) request).setTimeout((Long) timeoutMs);
+				}
+			}
+		});
+	}
+}
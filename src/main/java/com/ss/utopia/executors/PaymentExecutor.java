@@ -0,0 +1,139 @@
+package com.ss.utopia.executors;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import com.ss.utopia.exceptions.PaymentRequestRejectedException;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// Runs the controller's service calls off the Tomcat request threads. The pool
+// defaults to the size of the connection pool, since every task holds a
+// connection for most of its run, and its queue is bounded so a spike is
+// rejected with 503 instead of piling up behind a saturated database.
+// With payments.async.enabled=false tasks run inline on the request thread.
+@Component
+public class PaymentExecutor implements MeterBinder {
+
+	private static final String REJECTED_MESSAGE = "Payment Service is busy, please retry.";
+
+	private final boolean enabled;
+	private final ThreadPoolExecutor executor;
+
+	private Counter rejectedCounter;
+	private Timer queueWaitTimer;
+
+	public PaymentExecutor(
+		@Value("${payments.async.enabled:true}") boolean enabled,
+		@Value("${payments.async.pool-size:${spring.datasource.hikari.maximum-pool-size:10}}") int poolSize,
+		@Value("${payments.async.queue-capacity:200}") int queueCapacity
+	) {
+		this.enabled = enabled;
+		this.executor = new ThreadPoolExecutor(
+			poolSize, poolSize, 0L, TimeUnit.MILLISECONDS,
+			new ArrayBlockingQueue<>(Math.max(1, queueCapacity)),
+			new PaymentThreadFactory(),
+			new ThreadPoolExecutor.AbortPolicy()
+		);
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	// The future completes with the task's result, or exceptionally with whatever it
+	// threw - including checked exceptions - or PaymentRequestRejectedException when full
+	public <T> CompletableFuture<T> submit(Callable<T> task) {
+		CompletableFuture<T> future = new CompletableFuture<>();
+		if(!enabled) {
+			complete(future, task);
+			return future;
+		}
+
+		long queuedAt = System.nanoTime();
+		try {
+			executor.execute(() -> {
+				if(queueWaitTimer != null) {
+					queueWaitTimer.record(System.nanoTime() - queuedAt, TimeUnit.NANOSECONDS);
+				}
+				complete(future, task);
+			});
+		}
+		catch(RejectedExecutionException err) {
+			if(rejectedCounter != null) {
+				rejectedCounter.increment();
+			}
+			future.completeExceptionally(new PaymentRequestRejectedException(REJECTED_MESSAGE));
+		}
+		return future;
+	}
+
+	public int getQueueDepth() {
+		return executor.getQueue().size();
+	}
+
+	public int getActiveCount() {
+		return executor.getActiveCount();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("payments.async.queue.depth", this, PaymentExecutor::getQueueDepth)
+			.description("Payment requests waiting for an executor thread")
+			.register(registry);
+		Gauge.builder("payments.async.queue.remaining", executor, i -> i.getQueue().remainingCapacity())
+			.description("Payment requests that can still be queued before rejecting")
+			.register(registry);
+		Gauge.builder("payments.async.active", this, PaymentExecutor::getActiveCount)
+			.description("Executor threads running a payment request")
+			.register(registry);
+		rejectedCounter = Counter.builder("payments.async.rejected")
+			.description("Payment requests rejected because the queue was full")
+			.register(registry);
+		queueWaitTimer = Timer.builder("payments.async.queue.wait")
+			.description("Time payment requests spent queued before running")
+			.register(registry);
+	}
+
+	@PreDestroy
+	public void shutdown() throws InterruptedException {
+		executor.shutdown();
+		executor.awaitTermination(30, TimeUnit.SECONDS);
+	}
+
+	private static <T> void complete(CompletableFuture<T> future, Callable<T> task) {
+		try {
+			future.complete(task.call());
+		}
+		catch(Exception err) {
+			future.completeExceptionally(err);
+		}
+	}
+
+	private static class PaymentThreadFactory implements ThreadFactory {
+
+		private final AtomicInteger threadCount = new AtomicInteger();
+
+		@Override
+		public Thread newThread(Runnable runnable) {
+			Thread thread = new Thread(runnable, "payment-executor-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
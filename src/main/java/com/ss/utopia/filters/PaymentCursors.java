@@ -0,0 +1,36 @@
+package com.ss.utopia.filters;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Base64;
+
+import com.ss.utopia.exceptions.PaymentCursorInvalidException;
+
+public final class PaymentCursors {
+
+  private static final String CURSOR_PREFIX = "after:";
+
+  private PaymentCursors() {
+    throw new IllegalStateException("Utilility class 'PaymentCursors' is static and should not be instantiated.");
+  }
+
+  public static String encode(Integer afterPaymentId) {
+    byte[] cursor = (CURSOR_PREFIX + afterPaymentId).getBytes(StandardCharsets.UTF_8);
+    return Base64.getUrlEncoder().withoutPadding().encodeToString(cursor);
+  }
+
+  public static Integer decode(String cursor) throws PaymentCursorInvalidException {
+    if(cursor == null || cursor.isEmpty()) {
+      return null;
+    }
+    try {
+      String decoded = new String(Base64.getUrlDecoder().decode(cursor), StandardCharsets.UTF_8);
+      if(!decoded.startsWith(CURSOR_PREFIX)) {
+        throw new IllegalArgumentException();
+      }
+      return Integer.parseInt(decoded.substring(CURSOR_PREFIX.length()));
+    } 
+    catch(IllegalArgumentException err) {
+      throw new PaymentCursorInvalidException("\"" + cursor + "\" is not a valid Payment cursor.");
+    }
+  }
+}
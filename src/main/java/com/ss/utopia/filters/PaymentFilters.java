@@ -4,94 +4,278 @@ import java.util.Collection;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
+import java.util.function.IntPredicate;
+import java.util.function.Predicate;
 import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+import com.ss.utopia.snapshots.PaymentColumns;
+import com.ss.utopia.snapshots.UuidColumn;
 
 public final class PaymentFilters {
 
-  private static final String PAYMENT_ID = "paymentId";
-  private static final String PAYMENT_ID_BOOKING = "paymentBookingUuid";
-  private static final String PAYMENT_ID_STRIPE = "paymentStripeUuid";
-  private static final String PAYMENT_STATUS = "paymentStatus";
-  private static final String SEARCH_TERMS = "searchTerms";
+  static final String PAYMENT_ID = "paymentId";
+  static final String PAYMENT_ID_BOOKING = "paymentBookingUuid";
+  static final String PAYMENT_ID_STRIPE = "paymentStripeUuid";
+  static final String PAYMENT_STATUS = "paymentStatus";
+  static final String SEARCH_TERMS = "searchTerms";
+
+  // Below this many payments a sequential scan beats the ForkJoin split and merge
+  static final int PARALLEL_THRESHOLD = 20_000;
+
+  private static final long[] POWERS_OF_TEN = {
+    1L, 10L, 100L, 1_000L, 10_000L, 100_000L, 1_000_000L, 10_000_000L, 100_000_000L, 1_000_000_000L, 10_000_000_000L
+  };
 
   private PaymentFilters() {
     throw new IllegalStateException("Utilility class 'PaymentFilters' is static and should not be instantiated.");
   }
 
+  // Compiles the whole filterMap into one predicate and evaluates it in a single pass
   public static List<Payment> apply(List<Payment> payments, Map<String, String> filterMap) {
-    
+    return filter(payments, compile(filterMap));
+  }
+
+  public static Predicate<Payment> compile(Map<String, String> filterMap) {
+    Predicate<Payment> predicate = i -> true;
+
+    // ID
+    if(filterMap.keySet().contains(PAYMENT_ID)) {
+      predicate = predicate.and(hasPaymentId(Integer.parseInt(filterMap.get(PAYMENT_ID))));
+    }
+
+    // Booking ID
+    if(filterMap.keySet().contains(PAYMENT_ID_BOOKING)) {
+      predicate = predicate.and(hasPaymentBookingUuid(filterMap.get(PAYMENT_ID_BOOKING)));
+    }
+
+    // Stripe ID
+    if(filterMap.keySet().contains(PAYMENT_ID_STRIPE)) {
+      predicate = predicate.and(hasPaymentStripeUuid(filterMap.get(PAYMENT_ID_STRIPE)));
+    }
+
+    // Status - a name that is not a PaymentStatus matches nothing
+    if(filterMap.keySet().contains(PAYMENT_STATUS)) {
+      PaymentStatus paymentStatus = PaymentStatus.fromName(filterMap.get(PAYMENT_STATUS));
+      predicate = paymentStatus != null
+        ? predicate.and(hasPaymentStatus(paymentStatus))
+        : i -> false;
+    }
+
+    // SearchTerms
+    if(filterMap.keySet().contains(SEARCH_TERMS)) {
+      predicate = predicate.and(matchesSearchTerms(filterMap.get(SEARCH_TERMS)));
+    }
+    return predicate;
+  }
+
+  // The rows of a columnar snapshot matching filterMap, with the same semantics
+  // as apply but without building a Payment for rows that do not match
+  public static int[] scan(PaymentColumns columns, Map<String, String> filterMap) {
+    IntStream rows = IntStream.range(0, columns.getRowCount());
+    if(columns.getRowCount() >= PARALLEL_THRESHOLD) {
+      rows = rows.parallel();
+    }
+    return rows.filter(compileRows(columns, filterMap)).toArray();
+  }
+
+  private static IntPredicate compileRows(PaymentColumns columns, Map<String, String> filterMap) {
+    IntPredicate predicate = row -> columns.getStatusCode(row) != PaymentColumns.DELETED;
+
     // ID
-		if(filterMap.keySet().contains(PAYMENT_ID)) {
-			Integer parsedPaymentId = Integer.parseInt(filterMap.get(PAYMENT_ID));
-			payments = PaymentFilters.filterByPaymentId(payments, parsedPaymentId);
-		}
-
-		// Booking ID
-		if(filterMap.keySet().contains(PAYMENT_ID_BOOKING)) {
-			payments = PaymentFilters.filterByPaymentBookingUuid(payments, filterMap.get(PAYMENT_ID_BOOKING));
-		}
-
-		// Passport ID
-		if(filterMap.keySet().contains(PAYMENT_ID_STRIPE)) {
-			payments = PaymentFilters.filterByPaymentStripeUuid(payments, filterMap.get(PAYMENT_ID_STRIPE));
-		}
-
-		// First Name
-		if(filterMap.keySet().contains(PAYMENT_STATUS)) {
-			payments = PaymentFilters.filterByPaymentStatus(payments, filterMap.get(PAYMENT_STATUS));
-		}
+    if(filterMap.keySet().contains(PAYMENT_ID)) {
+      int paymentId = Integer.parseInt(filterMap.get(PAYMENT_ID));
+      predicate = predicate.and(row -> columns.getPaymentId(row) == paymentId);
+    }
+
+    // Booking ID
+    if(filterMap.keySet().contains(PAYMENT_ID_BOOKING)) {
+      predicate = predicate.and(hasUuid(columns.getBookingUuids(), filterMap.get(PAYMENT_ID_BOOKING)));
+    }
+
+    // Stripe ID
+    if(filterMap.keySet().contains(PAYMENT_ID_STRIPE)) {
+      predicate = predicate.and(hasUuid(columns.getStripeUuids(), filterMap.get(PAYMENT_ID_STRIPE)));
+    }
+
+    // Status - a name that is not a PaymentStatus matches nothing
+    if(filterMap.keySet().contains(PAYMENT_STATUS)) {
+      PaymentStatus paymentStatus = PaymentStatus.fromName(filterMap.get(PAYMENT_STATUS));
+      byte statusCode = paymentStatus != null ? paymentStatus.getCode() : PaymentColumns.DELETED;
+      predicate = predicate.and(row -> columns.getStatusCode(row) == statusCode);
+    }
 
     // SearchTerms
     if(filterMap.keySet().contains(SEARCH_TERMS)) {
-      payments = PaymentFilters.filterBySearchTerms(payments, filterMap.get(SEARCH_TERMS));
+      String[] splitTerms = splitSearchTerms(filterMap.get(SEARCH_TERMS));
+      long[] numericTerms = new long[splitTerms.length];
+      boolean[][] statusMatches = new boolean[splitTerms.length][];
+      for(int t = 0; t < splitTerms.length; t++) {
+        numericTerms[t] = parseDigits(splitTerms[t]);
+        statusMatches[t] = statusesContaining(splitTerms[t]);
+      }
+      UuidColumn bookingUuids = columns.getBookingUuids();
+      UuidColumn stripeUuids = columns.getStripeUuids();
+
+      predicate = predicate.and(row -> {
+        for(int t = 0; t < splitTerms.length; t++) {
+          if(!(containsDigits(columns.getPaymentId(row), splitTerms[t], numericTerms[t]) ||
+            statusMatches[t][columns.getStatusCode(row)] ||
+            bookingUuids.containsAt(row, splitTerms[t]) ||
+            stripeUuids.containsAt(row, splitTerms[t]))) {
+            return false;
+          }
+        }
+        return true;
+      });
     }
+    return predicate;
+  }
 
-		return payments;
+  private static IntPredicate hasUuid(UuidColumn uuids, String uuid) {
+    long[] packedUuid = UuidColumn.pack(uuid);
+    return row -> uuids.equalsAt(row, packedUuid, uuid);
   }
 
-  public static List<Payment> filterByPaymentId 
+  public static List<Payment> filterByPaymentId
   (Collection<Payment> payments, Integer paymentId) {
-    return payments.parallelStream()
-      .filter(i -> i.getPaymentId().equals(paymentId))
-      .collect(Collectors.toList());
+    return filter(payments, hasPaymentId(paymentId));
   }
 
   public static List<Payment> filterByPaymentBookingUuid
   (Collection<Payment> payments, String paymentBookingUuid) {
-    return payments.parallelStream()
-      .filter(i -> i.getPaymentBookingUuid().equals(paymentBookingUuid))
-      .collect(Collectors.toList());
+    return filter(payments, hasPaymentBookingUuid(paymentBookingUuid));
   }
 
   public static List<Payment> filterByPaymentStripeUuid
   (Collection<Payment> payments, String paymentStripeUuid) {
-    return payments.parallelStream()
-      .filter(i -> i.getPaymentStripeUuid().equals(paymentStripeUuid))
-      .collect(Collectors.toList());
+    return filter(payments, hasPaymentStripeUuid(paymentStripeUuid));
   }
 
-  public static List<Payment> filterByPaymentStatus 
-  (Collection<Payment> payments, String paymentStatus) {
-    return payments.parallelStream()
-      .filter(i -> i.getPaymentStatus().equals(paymentStatus))
-      .collect(Collectors.toList());
+  public static List<Payment> filterByPaymentStatus
+  (Collection<Payment> payments, PaymentStatus paymentStatus) {
+    return filter(payments, hasPaymentStatus(paymentStatus));
   }
 
   public static List<Payment> filterBySearchTerms(List<Payment> payments, String searchTerms) {
-    String formattedSearch = searchTerms.toLowerCase(Locale.getDefault()).replace(", ", ",");
-    String[] splitTerms = formattedSearch.split(",");
-
-    for(String searchTerm : splitTerms) {
-      payments = payments.parallelStream()
-      .filter((Payment i) ->
-          i.getPaymentId().toString().toLowerCase(Locale.getDefault()).contains(searchTerm) ||
-          i.getPaymentBookingUuid().toLowerCase(Locale.getDefault()).contains(searchTerm) ||
-          i.getPaymentStripeUuid().toLowerCase(Locale.getDefault()).contains(searchTerm) ||
-          i.getPaymentStatus().toLowerCase(Locale.getDefault()).contains(searchTerm)
-      ).collect(Collectors.toList());
-    }
-		return payments;
-	}
+    return filter(payments, matchesSearchTerms(searchTerms));
+  }
+
+  public static Predicate<Payment> hasPaymentId(Integer paymentId) {
+    return i -> i.getPaymentId().equals(paymentId);
+  }
+
+  public static Predicate<Payment> hasPaymentBookingUuid(String paymentBookingUuid) {
+    return i -> i.getPaymentBookingUuid().equals(paymentBookingUuid);
+  }
+
+  public static Predicate<Payment> hasPaymentStripeUuid(String paymentStripeUuid) {
+    return i -> i.getPaymentStripeUuid().equals(paymentStripeUuid);
+  }
+
+  public static Predicate<Payment> hasPaymentStatus(PaymentStatus paymentStatus) {
+    return i -> i.getPaymentStatus() == paymentStatus;
+  }
+
+  // Every comma separated term must be contained (case-insensitive) in at least
+  // one of the payment's fields. Terms are lower-cased once, fields never are,
+  // and each term is matched against the status names once per search.
+  public static Predicate<Payment> matchesSearchTerms(String searchTerms) {
+    String[] splitTerms = splitSearchTerms(searchTerms);
+    long[] numericTerms = new long[splitTerms.length];
+    boolean[][] statusMatches = new boolean[splitTerms.length][];
+    for(int t = 0; t < splitTerms.length; t++) {
+      numericTerms[t] = parseDigits(splitTerms[t]);
+      statusMatches[t] = statusesContaining(splitTerms[t]);
+    }
+
+    return i -> {
+      for(int t = 0; t < splitTerms.length; t++) {
+        String searchTerm = splitTerms[t];
+        if(!(containsDigits(i.getPaymentId(), searchTerm, numericTerms[t]) ||
+          containsIgnoreCase(i.getPaymentBookingUuid(), searchTerm) ||
+          containsIgnoreCase(i.getPaymentStripeUuid(), searchTerm) ||
+          (i.getPaymentStatus() != null && statusMatches[t][i.getPaymentStatus().getCode()]))) {
+          return false;
+        }
+      }
+      return true;
+    };
+  }
+
+  // Indexed by PaymentStatus code - whether that status name contains lowerTerm
+  public static boolean[] statusesContaining(String lowerTerm) {
+    boolean[] statusMatches = new boolean[PaymentStatus.values().length];
+    for(PaymentStatus paymentStatus : PaymentStatus.values()) {
+      statusMatches[paymentStatus.getCode()] = containsIgnoreCase(paymentStatus.name(), lowerTerm);
+    }
+    return statusMatches;
+  }
+
+  public static String[] splitSearchTerms(String searchTerms) {
+    return searchTerms.toLowerCase(Locale.getDefault()).replace(", ", ",").split(",");
+  }
+
+  static List<Payment> filter(Collection<Payment> payments, Predicate<Payment> predicate) {
+    Stream<Payment> stream = payments.size() >= PARALLEL_THRESHOLD
+      ? payments.parallelStream()
+      : payments.stream();
+    return stream.filter(predicate).collect(Collectors.toList());
+  }
+
+  // lowerTerm is already lower-cased, so only the field side needs folding
+  public static boolean containsIgnoreCase(String field, String lowerTerm) {
+    int termLength = lowerTerm.length();
+    int lastStart = field.length() - termLength;
+    for(int start = 0; start <= lastStart; start++) {
+      if(field.regionMatches(true, start, lowerTerm, 0, termLength)) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  // Whether the decimal form of paymentId contains term, without building the String.
+  // numericTerm is the value of an all-digit term, or -1 when term has other characters.
+  static boolean containsDigits(int paymentId, String term, long numericTerm) {
+    int termLength = term.length();
+    if(termLength == 0) {
+      return true;
+    }
+    if(paymentId < 0) {
+      return Integer.toString(paymentId).contains(term);
+    }
+    if(numericTerm < 0) {
+      return false;
+    }
+
+    int digitCount = 1;
+    while(digitCount < 10 && paymentId >= POWERS_OF_TEN[digitCount]) {
+      digitCount++;
+    }
+    for(int shift = 0; shift + termLength <= digitCount; shift++) {
+      if((paymentId / POWERS_OF_TEN[shift]) % POWERS_OF_TEN[termLength] == numericTerm) {
+        return true;
+      }
+    }
+    return false;
+  }
+
+  private static long parseDigits(String term) {
+    if(term.isEmpty() || term.length() >= POWERS_OF_TEN.length) {
+      return -1;
+    }
+    long value = 0;
+    for(int c = 0; c < term.length(); c++) {
+      char digit = term.charAt(c);
+      if(digit < '0' || digit > '9') {
+        return -1;
+      }
+      value = value * 10 + (digit - '0');
+    }
+    return value;
+  }
 }
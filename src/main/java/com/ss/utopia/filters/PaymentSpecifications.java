@@ -0,0 +1,151 @@
+package com.ss.utopia.filters;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.Expression;
+import javax.persistence.criteria.Predicate;
+
+import org.springframework.data.jpa.domain.Specification;
+
+import com.ss.utopia.converters.UuidBinaryConverter;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+
+public final class PaymentSpecifications {
+
+  private static final char LIKE_ESCAPE = '\\';
+
+  private PaymentSpecifications() {
+    throw new IllegalStateException("Utilility class 'PaymentSpecifications' is static and should not be instantiated.");
+  }
+
+  // Translates the same filterMap accepted by PaymentFilters.apply into a single
+  // Criteria query, so that only matching rows are read from the database.
+  public static Specification<Payment> apply(Map<String, String> filterMap) {
+    return apply(filterMap, false);
+  }
+
+  // binaryUuids - the UUID columns are stored as BINARY(16) (binary-uuid profile)
+  public static Specification<Payment> apply(Map<String, String> filterMap, boolean binaryUuids) {
+    Specification<Payment> specification = Specification.where(null);
+
+    // ID
+    if(filterMap.keySet().contains(PaymentFilters.PAYMENT_ID)) {
+      Integer parsedPaymentId = Integer.parseInt(filterMap.get(PaymentFilters.PAYMENT_ID));
+      specification = specification.and(hasPaymentId(parsedPaymentId));
+    }
+
+    // Booking ID
+    if(filterMap.keySet().contains(PaymentFilters.PAYMENT_ID_BOOKING)) {
+      specification = specification.and(hasUuid("paymentBookingUuid", filterMap.get(PaymentFilters.PAYMENT_ID_BOOKING), binaryUuids));
+    }
+
+    // Stripe ID
+    if(filterMap.keySet().contains(PaymentFilters.PAYMENT_ID_STRIPE)) {
+      specification = specification.and(hasUuid("paymentStripeUuid", filterMap.get(PaymentFilters.PAYMENT_ID_STRIPE), binaryUuids));
+    }
+
+    // Status - a name that is not a PaymentStatus matches nothing
+    if(filterMap.keySet().contains(PaymentFilters.PAYMENT_STATUS)) {
+      PaymentStatus paymentStatus = PaymentStatus.fromName(filterMap.get(PaymentFilters.PAYMENT_STATUS));
+      specification = specification.and(paymentStatus != null
+        ? hasPaymentStatus(paymentStatus)
+        : (root, query, cb) -> cb.disjunction());
+    }
+
+    // SearchTerms
+    if(filterMap.keySet().contains(PaymentFilters.SEARCH_TERMS)) {
+      specification = specification.and(matchesSearchTerms(filterMap.get(PaymentFilters.SEARCH_TERMS), binaryUuids));
+    }
+
+    return specification;
+  }
+
+  public static Specification<Payment> hasPaymentId(Integer paymentId) {
+    return (root, query, cb) -> cb.equal(root.get("paymentId"), paymentId);
+  }
+
+  public static Specification<Payment> hasPaymentBookingUuid(String paymentBookingUuid) {
+    return (root, query, cb) -> cb.equal(root.get("paymentBookingUuid"), paymentBookingUuid);
+  }
+
+  public static Specification<Payment> hasPaymentStripeUuid(String paymentStripeUuid) {
+    return (root, query, cb) -> cb.equal(root.get("paymentStripeUuid"), paymentStripeUuid);
+  }
+
+  // A value that is not a canonical UUID can not be stored in a binary column,
+  // so it matches nothing instead of failing in the converter.
+  private static Specification<Payment> hasUuid(String field, String uuid, boolean binaryUuids) {
+    if(binaryUuids && !UuidBinaryConverter.isCanonical(uuid)) {
+      return (root, query, cb) -> cb.disjunction();
+    }
+    return (root, query, cb) -> cb.equal(root.get(field), uuid);
+  }
+
+  public static Specification<Payment> hasPaymentStatus(PaymentStatus paymentStatus) {
+    return (root, query, cb) -> cb.equal(root.get("paymentStatus"), paymentStatus);
+  }
+
+  public static Specification<Payment> updatedSince(Instant updatedAt) {
+    return (root, query, cb) -> cb.greaterThanOrEqualTo(root.get("paymentUpdatedAt"), updatedAt);
+  }
+
+  // Every comma separated term must be contained (case-insensitive) in at least
+  // one of the payment's fields, matching PaymentFilters.filterBySearchTerms.
+  // Statuses are stored as codes, so a term matches the codes whose name contains it.
+  public static Specification<Payment> matchesSearchTerms(String searchTerms) {
+    return matchesSearchTerms(searchTerms, false);
+  }
+
+  public static Specification<Payment> matchesSearchTerms(String searchTerms, boolean binaryUuids) {
+    Specification<Payment> specification = Specification.where(null);
+    for(String searchTerm : PaymentFilters.splitSearchTerms(searchTerms)) {
+      String pattern = "%" + escapeLikePattern(searchTerm) + "%";
+      List<PaymentStatus> matchingStatuses = statusesContaining(searchTerm);
+      specification = specification.and((root, query, cb) -> cb.or(
+        containsPattern(cb, root.get("paymentId").as(String.class), pattern),
+        containsPattern(cb, uuidText(cb, root.get("paymentBookingUuid"), binaryUuids), pattern),
+        containsPattern(cb, uuidText(cb, root.get("paymentStripeUuid"), binaryUuids), pattern),
+        matchingStatuses.isEmpty() ? cb.disjunction() : root.get("paymentStatus").in(matchingStatuses)
+      ));
+    }
+    return specification;
+  }
+
+  private static List<PaymentStatus> statusesContaining(String searchTerm) {
+    boolean[] statusMatches = PaymentFilters.statusesContaining(searchTerm);
+    List<PaymentStatus> matchingStatuses = new ArrayList<>();
+    for(PaymentStatus paymentStatus : PaymentStatus.values()) {
+      if(statusMatches[paymentStatus.getCode()]) {
+        matchingStatuses.add(paymentStatus);
+      }
+    }
+    return matchingStatuses;
+  }
+
+  private static Predicate containsPattern
+  (CriteriaBuilder cb, Expression<String> field, String pattern) {
+    return cb.like(cb.lower(field), pattern, LIKE_ESCAPE);
+  }
+
+  // BIN_TO_UUID renders the canonical lower-case form (MySQL 8)
+  private static Expression<String> uuidText
+  (CriteriaBuilder cb, Expression<String> field, boolean binaryUuids) {
+    return binaryUuids ? cb.function("BIN_TO_UUID", String.class, field) : field;
+  }
+
+  private static String escapeLikePattern(String searchTerm) {
+    StringBuilder escaped = new StringBuilder(searchTerm.length());
+    for(char c : searchTerm.toCharArray()) {
+      if(c == '%' || c == '_' || c == LIKE_ESCAPE) {
+        escaped.append(LIKE_ESCAPE);
+      }
+      escaped.append(c);
+    }
+    return escaped.toString();
+  }
+}
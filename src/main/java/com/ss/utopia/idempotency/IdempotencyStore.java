@@ -0,0 +1,18 @@
+package com.ss.utopia.idempotency;
+
+// Where PaymentIdempotency keeps responses, chosen by payments.idempotency.store
+public interface IdempotencyStore {
+
+	// null when the key was never claimed or has expired
+	IdempotentResponse get(String idempotencyKey);
+
+	// Atomically marks the key as in progress - false when it is already claimed
+	// or answered, by this instance or any other sharing the store
+	boolean claim(String idempotencyKey, String fingerprint);
+
+	// Replaces this instance's claim with the response to replay
+	void put(String idempotencyKey, IdempotentResponse response);
+
+	// Drops a claim whose request failed, so a retry runs again
+	void release(String idempotencyKey);
+}
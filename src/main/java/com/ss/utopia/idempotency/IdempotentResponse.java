@@ -0,0 +1,35 @@
+package com.ss.utopia.idempotency;
+
+// The response first returned for an Idempotency-Key, with a fingerprint of
+// the request body it answered so a reused key with a different body is caught.
+// A claimed key holds an IN_PROGRESS placeholder until its request completes.
+public class IdempotentResponse {
+
+	public static final int IN_PROGRESS = 0;
+
+	private final String fingerprint;
+	private final int status;
+	private final String body;
+
+	public IdempotentResponse(String fingerprint, int status, String body) {
+		this.fingerprint = fingerprint;
+		this.status = status;
+		this.body = body;
+	}
+
+	public String getFingerprint() {
+		return fingerprint;
+	}
+
+	public int getStatus() {
+		return status;
+	}
+
+	public String getBody() {
+		return body;
+	}
+
+	public boolean isInProgress() {
+		return status == IN_PROGRESS;
+	}
+}
@@ -0,0 +1,99 @@
+package com.ss.utopia.idempotency;
+
+import java.sql.Timestamp;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.dao.DuplicateKeyException;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+// Shared by every instance through the idempotency_keys table, at the cost of
+// a primary-key lookup per keyed request. A key is claimed by inserting an
+// IN_PROGRESS row, so the primary key lets only one instance run the request.
+// A claim left behind by an instance that died mid-request can be taken over
+// after payments.idempotency.claim-timeout-seconds. Expired rows are purged periodically.
+@Component
+@ConditionalOnProperty(name = "payments.idempotency.store", havingValue = "jdbc")
+public class JdbcIdempotencyStore implements IdempotencyStore {
+
+	@Autowired
+	private JdbcTemplate jdbcTemplate;
+
+	private final long timeToLiveMs;
+	private final long claimTimeoutMs;
+
+	public JdbcIdempotencyStore(
+		@Value("${payments.idempotency.time-to-live-seconds:86400}") long timeToLiveSeconds,
+		@Value("${payments.idempotency.claim-timeout-seconds:60}") long claimTimeoutSeconds
+	) {
+		this.timeToLiveMs = TimeUnit.SECONDS.toMillis(timeToLiveSeconds);
+		this.claimTimeoutMs = TimeUnit.SECONDS.toMillis(claimTimeoutSeconds);
+	}
+
+	@Override
+	public IdempotentResponse get(String idempotencyKey) {
+		List<IdempotentResponse> responses = jdbcTemplate.query(
+			"SELECT fingerprint, status, body FROM idempotency_keys WHERE idempotency_key = ? AND created_at > ? " +
+			"AND (status <> ? OR created_at > ?)",
+			(rs, row) -> new IdempotentResponse(rs.getString("fingerprint"), rs.getInt("status"), rs.getString("body")),
+			idempotencyKey, expiredBefore(), IdempotentResponse.IN_PROGRESS, abandonedBefore()
+		);
+		return responses.isEmpty() ? null : responses.get(0);
+	}
+
+	@Override
+	public boolean claim(String idempotencyKey, String fingerprint) {
+		try {
+			jdbcTemplate.update(
+				"INSERT INTO idempotency_keys (idempotency_key, fingerprint, status, body, created_at) VALUES (?, ?, ?, NULL, ?)",
+				idempotencyKey, fingerprint, IdempotentResponse.IN_PROGRESS, new Timestamp(System.currentTimeMillis())
+			);
+			return true;
+		}
+		catch(DuplicateKeyException err) {
+			// Claimed or answered elsewhere - unless the row expired or its claim was abandoned
+			return jdbcTemplate.update(
+				"UPDATE idempotency_keys SET fingerprint = ?, status = ?, body = NULL, created_at = ? " +
+				"WHERE idempotency_key = ? AND (created_at <= ? OR (status = ? AND created_at <= ?))",
+				fingerprint, IdempotentResponse.IN_PROGRESS, new Timestamp(System.currentTimeMillis()), 
+				idempotencyKey, expiredBefore(), IdempotentResponse.IN_PROGRESS, abandonedBefore()
+			) == 1;
+		}
+	}
+
+	@Override
+	public void put(String idempotencyKey, IdempotentResponse response) {
+		jdbcTemplate.update(
+			"UPDATE idempotency_keys SET status = ?, body = ?, created_at = ? " +
+			"WHERE idempotency_key = ? AND fingerprint = ? AND status = ?",
+			response.getStatus(), response.getBody(), new Timestamp(System.currentTimeMillis()), 
+			idempotencyKey, response.getFingerprint(), IdempotentResponse.IN_PROGRESS
+		);
+	}
+
+	@Override
+	public void release(String idempotencyKey) {
+		jdbcTemplate.update(
+			"DELETE FROM idempotency_keys WHERE idempotency_key = ? AND status = ?", 
+			idempotencyKey, IdempotentResponse.IN_PROGRESS
+		);
+	}
+
+	@Scheduled(fixedDelayString = "${payments.idempotency.purge-interval-ms:600000}")
+	public int purgeExpired() {
+		return jdbcTemplate.update("DELETE FROM idempotency_keys WHERE created_at <= ?", expiredBefore());
+	}
+
+	private Timestamp expiredBefore() {
+		return new Timestamp(System.currentTimeMillis() - timeToLiveMs);
+	}
+
+	private Timestamp abandonedBefore() {
+		return new Timestamp(System.currentTimeMillis() - claimTimeoutMs);
+	}
+}
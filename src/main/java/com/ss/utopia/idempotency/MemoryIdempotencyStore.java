@@ -0,0 +1,61 @@
+package com.ss.utopia.idempotency;
+
+import java.util.concurrent.TimeUnit;
+
+import com.github.benmanes.caffeine.cache.Cache;
+import com.github.benmanes.caffeine.cache.Caffeine;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+import io.micrometer.core.instrument.binder.cache.CaffeineCacheMetrics;
+
+// Bounded and local to this instance - replays never reach the database,
+// but a retry routed to another instance is not recognized.
+@Component
+@ConditionalOnProperty(name = "payments.idempotency.store", havingValue = "memory", matchIfMissing = true)
+public class MemoryIdempotencyStore implements IdempotencyStore, MeterBinder {
+
+	private final Cache<String, IdempotentResponse> responses;
+
+	public MemoryIdempotencyStore(
+		@Value("${payments.idempotency.maximum-size:100000}") long maximumSize,
+		@Value("${payments.idempotency.time-to-live-seconds:86400}") long timeToLiveSeconds
+	) {
+		responses = Caffeine.newBuilder()
+			.maximumSize(maximumSize)
+			.expireAfterWrite(timeToLiveSeconds, TimeUnit.SECONDS)
+			.recordStats()
+			.build();
+	}
+
+	@Override
+	public IdempotentResponse get(String idempotencyKey) {
+		return responses.getIfPresent(idempotencyKey);
+	}
+
+	@Override
+	public boolean claim(String idempotencyKey, String fingerprint) {
+		return responses.asMap().putIfAbsent(
+			idempotencyKey, new IdempotentResponse(fingerprint, IdempotentResponse.IN_PROGRESS, null)
+		) == null;
+	}
+
+	@Override
+	public void put(String idempotencyKey, IdempotentResponse response) {
+		responses.put(idempotencyKey, response);
+	}
+
+	@Override
+	public void release(String idempotencyKey) {
+		responses.asMap().computeIfPresent(idempotencyKey, (key, response) -> response.isInProgress() ? null : response);
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		CaffeineCacheMetrics.monitor(registry, responses, "payments.idempotency");
+	}
+}
@@ -0,0 +1,172 @@
+package com.ss.utopia.idempotency;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Base64;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.locks.ReentrantLock;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ss.utopia.exceptions.PaymentIdempotencyKeyInProgressException;
+import com.ss.utopia.exceptions.PaymentIdempotencyKeyInvalidException;
+import com.ss.utopia.exceptions.PaymentIdempotencyKeyReusedException;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// Idempotency-Key support for POST /payments. The first successful response
+// for a key is stored and replayed to retries within the store's TTL. A request
+// first claims its key in the store, so only one request per key runs across all
+// instances sharing it; a retry arriving while the claim is held is rejected as
+// in progress. On this instance the lookup and claim are ordered on one of a fixed
+// set of lock stripes, but the request itself runs outside it, so unrelated keys on
+// the same stripe never wait for another key's insert. Failed requests release the
+// claim and are not stored - a retry runs again.
+@Component
+public class PaymentIdempotency implements MeterBinder {
+
+	public static final String IDEMPOTENCY_KEY_HEADER = "Idempotency-Key";
+	public static final String REPLAYED_HEADER = "Idempotent-Replayed";
+	static final int MAX_KEY_LENGTH = 255;
+
+	@Autowired
+	private IdempotencyStore idempotencyStore;
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private final ReentrantLock[] stripes;
+
+	private Counter replayedCounter;
+	private Counter reusedCounter;
+	private Counter inProgressCounter;
+
+	public PaymentIdempotency(@Value("${payments.idempotency.lock-stripes:64}") int lockStripes) {
+		stripes = new ReentrantLock[Math.max(1, lockStripes)];
+		for(int i = 0; i < stripes.length; i++) {
+			stripes[i] = new ReentrantLock();
+		}
+	}
+
+	public ResponseEntity<Object> execute(String idempotencyKey, Map<String, String> request, Callable<ResponseEntity<Object>> action) 
+	throws Exception {
+		if(idempotencyKey.isEmpty() || idempotencyKey.length() > MAX_KEY_LENGTH) {
+			throw new PaymentIdempotencyKeyInvalidException(
+				"The " + IDEMPOTENCY_KEY_HEADER + " header must hold between 1 and " + MAX_KEY_LENGTH + " characters."
+			);
+		}
+		String fingerprint = fingerprint(request);
+
+		IdempotentResponse storedResponse;
+		boolean claimed;
+		ReentrantLock stripe = stripes[(idempotencyKey.hashCode() & Integer.MAX_VALUE) % stripes.length];
+		stripe.lock();
+		try {
+			storedResponse = idempotencyStore.get(idempotencyKey);
+			claimed = storedResponse == null && idempotencyStore.claim(idempotencyKey, fingerprint);
+			if(storedResponse == null && !claimed) {
+				// Claimed by another request between the lookup and the claim
+				storedResponse = idempotencyStore.get(idempotencyKey);
+			}
+		}
+		finally {
+			stripe.unlock();
+		}
+
+		// A repeat arriving while this runs finds the claim and is answered with 409
+		if(claimed) {
+			return run(idempotencyKey, fingerprint, action);
+		}
+		return replay(idempotencyKey, fingerprint, storedResponse);
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		replayedCounter = Counter.builder("payments.idempotency.replayed")
+			.description("Requests answered with the stored response for their Idempotency-Key")
+			.register(registry);
+		reusedCounter = Counter.builder("payments.idempotency.reused")
+			.description("Requests rejected for reusing an Idempotency-Key with a different body")
+			.register(registry);
+		inProgressCounter = Counter.builder("payments.idempotency.in-progress")
+			.description("Requests rejected while another request with the same Idempotency-Key was running")
+			.register(registry);
+	}
+
+	private ResponseEntity<Object> run(String idempotencyKey, String fingerprint, Callable<ResponseEntity<Object>> action) 
+	throws Exception {
+		boolean stored = false;
+		try {
+			ResponseEntity<Object> response = action.call();
+			if(response.getStatusCode().is2xxSuccessful()) {
+				idempotencyStore.put(idempotencyKey, new IdempotentResponse(
+					fingerprint, response.getStatusCodeValue(), objectMapper.writeValueAsString(response.getBody())
+				));
+				stored = true;
+			}
+			return response;
+		}
+		finally {
+			if(!stored) {
+				idempotencyStore.release(idempotencyKey);
+			}
+		}
+	}
+
+	private ResponseEntity<Object> replay(String idempotencyKey, String fingerprint, IdempotentResponse storedResponse) 
+	throws PaymentIdempotencyKeyReusedException, PaymentIdempotencyKeyInProgressException {
+		if(storedResponse != null && !storedResponse.getFingerprint().equals(fingerprint)) {
+			if(reusedCounter != null) {
+				reusedCounter.increment();
+			}
+			throw new PaymentIdempotencyKeyReusedException(
+				"The " + IDEMPOTENCY_KEY_HEADER + ": " + idempotencyKey + " was already used with a different request."
+			);
+		}
+		if(storedResponse == null || storedResponse.isInProgress()) {
+			if(inProgressCounter != null) {
+				inProgressCounter.increment();
+			}
+			throw new PaymentIdempotencyKeyInProgressException(
+				"A request with " + IDEMPOTENCY_KEY_HEADER + ": " + idempotencyKey + " is still in progress."
+			);
+		}
+		if(replayedCounter != null) {
+			replayedCounter.increment();
+		}
+		return ResponseEntity.status(HttpStatus.valueOf(storedResponse.getStatus()))
+			.contentType(MediaType.APPLICATION_JSON)
+			.header(REPLAYED_HEADER, "true")
+			.body(storedResponse.getBody());
+	}
+
+	// Independent of the order the client sent the fields in
+	static String fingerprint(Map<String, String> request) {
+		try {
+			MessageDigest digest = MessageDigest.getInstance("SHA-256");
+			for(Map.Entry<String, String> entry : new TreeMap<>(request).entrySet()) {
+				digest.update(entry.getKey().getBytes(StandardCharsets.UTF_8));
+				digest.update((byte) 0);
+				if(entry.getValue() != null) {
+					digest.update(entry.getValue().getBytes(StandardCharsets.UTF_8));
+				}
+				digest.update((byte) 0);
+			}
+			return Base64.getEncoder().encodeToString(digest.digest());
+		}
+		catch(NoSuchAlgorithmException err) {
+			throw new IllegalStateException(err);
+		}
+	}
+}
@@ -0,0 +1,305 @@
+package com.ss.utopia.indexes;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Predicate;
+import java.util.stream.Stream;
+
+import com.ss.utopia.filters.PaymentFilters;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+import com.ss.utopia.readmodels.PaymentReadModel;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Transactional;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// Trigram inverted index over the id, booking UUID, stripe UUID and status of
+// every payment, used when payments.search.mode=index. A search term of three
+// or more characters only has to be checked against the payments holding all
+// of its trigrams. Shorter terms fall back to a scan of the indexed payments.
+// Rebuilt and refreshed as described in PaymentReadModel.
+@Component
+public class PaymentSearchIndex extends PaymentReadModel implements MeterBinder {
+
+	static final int GRAM_LENGTH = 3;
+	private static final String SEARCH_MODE_INDEX = "index";
+	private static final int REFRESH_PAGE_SIZE = 1000;
+
+	// Rough per-entry heap costs for the memory gauge
+	private static final long BYTES_PER_PAYMENT = 240L;
+	private static final long BYTES_PER_TRIGRAM = 88L;
+	private static final long BYTES_PER_POSTING = 4L;
+
+	private Map<Integer, Payment> paymentsById = new HashMap<>();
+	private Map<Long, PostingList> postingsByTrigram = new HashMap<>();
+
+	// Removed since the last rebuild, so an older refresh page can not bring them back
+	private Set<Integer> removedPaymentIds = new HashSet<>();
+
+	public PaymentSearchIndex(
+		@Value("${payments.search.mode:database}") String searchMode,
+		@Value("${payments.search.index.refresh-overlap-ms:60000}") long refreshOverlapMs
+	) {
+		super(SEARCH_MODE_INDEX.equals(searchMode), REFRESH_PAGE_SIZE, refreshOverlapMs);
+	}
+
+	public void put(Payment payment) {
+		if(!isEnabled()) {
+			return;
+		}
+		Payment indexedPayment = payment.copy();
+		apply(() -> putNow(indexedPayment));
+	}
+
+	public void updateStatus(Integer paymentId, PaymentStatus paymentStatus) {
+		apply(() -> {
+			Payment currentPayment = paymentsById.get(paymentId);
+			if(currentPayment != null) {
+				Payment indexedPayment = currentPayment.copy();
+				// The new version is not known here, so the held one stays until a refresh reads the row
+				indexedPayment.setPaymentStatus(paymentStatus);
+				removeNow(paymentId);
+				addTrigrams(postingsByTrigram, indexedPayment);
+				paymentsById.put(paymentId, indexedPayment);
+			}
+		});
+	}
+
+	public void remove(Integer paymentId) {
+		apply(() -> {
+			removeNow(paymentId);
+			removedPaymentIds.add(paymentId);
+		});
+	}
+
+	// Same results as PaymentFilters.apply over every payment, ordered by id
+	public List<Payment> search(Map<String, String> filterMap) {
+		Predicate<Payment> predicate = PaymentFilters.compile(filterMap);
+		List<Payment> payments = new ArrayList<>();
+
+		return withReadLock(() -> {
+			int[] candidateIds = findCandidateIds(filterMap);
+			if(candidateIds == null) {
+				for(Payment payment : paymentsById.values()) {
+					if(predicate.test(payment)) {
+						payments.add(payment);
+					}
+				}
+				payments.sort(Comparator.comparing(Payment::getPaymentId));
+				return payments;
+			}
+			for(int paymentId : candidateIds) {
+				Payment payment = paymentsById.get(paymentId);
+				if(payment != null && predicate.test(payment)) {
+					payments.add(payment);
+				}
+			}
+			return payments;
+		});
+	}
+
+	@Override
+	@EventListener(ApplicationReadyEvent.class)
+	@Scheduled(
+		initialDelayString = "${payments.search.index.rebuild-interval-ms:3600000}",
+		fixedDelayString = "${payments.search.index.rebuild-interval-ms:3600000}"
+	)
+	@Transactional(readOnly = true)
+	public void rebuild() {
+		super.rebuild();
+	}
+
+	@Override
+	@Scheduled(fixedDelayString = "${payments.search.index.refresh-interval-ms:5000}")
+	public void refresh() {
+		super.refresh();
+	}
+
+	public int size() {
+		return paymentsById.size();
+	}
+
+	public int trigramCount() {
+		return postingsByTrigram.size();
+	}
+
+	public long postingCount() {
+		return withReadLock(() -> {
+			long postings = 0;
+			for(PostingList postingList : postingsByTrigram.values()) {
+				postings += postingList.size();
+			}
+			return postings;
+		});
+	}
+
+	public long estimatedMemoryBytes() {
+		return withReadLock(() -> {
+			long postingBytes = 0;
+			for(PostingList postingList : postingsByTrigram.values()) {
+				postingBytes += postingList.capacity() * BYTES_PER_POSTING;
+			}
+			return paymentsById.size() * BYTES_PER_PAYMENT + postingsByTrigram.size() * BYTES_PER_TRIGRAM + postingBytes;
+		});
+	}
+
+	@Override
+	protected Runnable read() {
+		Map<Integer, Payment> rebuiltPayments = new HashMap<>();
+		Map<Long, PostingList> rebuiltPostings = new HashMap<>();
+		try(Stream<Payment> payments = paymentRepository.streamAll()) {
+			payments.forEach(payment -> {
+				Payment indexedPayment = payment.copy();
+				rebuiltPayments.put(indexedPayment.getPaymentId(), indexedPayment);
+				addTrigrams(rebuiltPostings, indexedPayment);
+				paymentRepository.detach(payment);
+			});
+		}
+		return () -> {
+			paymentsById = rebuiltPayments;
+			postingsByTrigram = rebuiltPostings;
+			removedPaymentIds = new HashSet<>();
+		};
+	}
+
+	@Override
+	protected void refreshed(Payment payment) {
+		putNow(payment);
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("payments.search.index.payments", this, PaymentSearchIndex::size)
+			.description("Payments held by the search index")
+			.register(registry);
+		Gauge.builder("payments.search.index.trigrams", this, PaymentSearchIndex::trigramCount)
+			.description("Distinct trigrams in the search index")
+			.register(registry);
+		Gauge.builder("payments.search.index.postings", this, PaymentSearchIndex::postingCount)
+			.description("Payment ids across all posting lists")
+			.register(registry);
+		Gauge.builder("payments.search.index.memory", this, PaymentSearchIndex::estimatedMemoryBytes)
+			.description("Estimated heap held by the search index")
+			.baseUnit("bytes")
+			.register(registry);
+	}
+
+	// null when no term is long enough to narrow the search - every payment is a candidate
+	private int[] findCandidateIds(Map<String, String> filterMap) {
+		if(filterMap.get("paymentId") != null) {
+			return new int[] { Integer.parseInt(filterMap.get("paymentId")) };
+		}
+
+		List<String> terms = new ArrayList<>();
+		if(filterMap.get("paymentBookingUuid") != null) {
+			terms.add(filterMap.get("paymentBookingUuid").toLowerCase(Locale.getDefault()));
+		}
+		if(filterMap.get("paymentStripeUuid") != null) {
+			terms.add(filterMap.get("paymentStripeUuid").toLowerCase(Locale.getDefault()));
+		}
+		if(filterMap.get("searchTerms") != null) {
+			for(String searchTerm : PaymentFilters.splitSearchTerms(filterMap.get("searchTerms"))) {
+				terms.add(searchTerm);
+			}
+		}
+
+		List<PostingList> postingLists = new ArrayList<>();
+		for(String term : terms) {
+			for(int start = 0; start + GRAM_LENGTH <= term.length(); start++) {
+				PostingList postingList = postingsByTrigram.get(trigramOf(term, start));
+				if(postingList == null) {
+					return new int[0];
+				}
+				postingLists.add(postingList);
+			}
+		}
+		if(postingLists.isEmpty()) {
+			return null;
+		}
+
+		// Intersect from the shortest list so the working set only shrinks
+		postingLists.sort(Comparator.comparingInt(PostingList::size));
+		int[] candidateIds = postingLists.get(0).toArray();
+		for(int i = 1; i < postingLists.size() && candidateIds.length > 0; i++) {
+			candidateIds = postingLists.get(i).retainAll(candidateIds);
+		}
+		return candidateIds;
+	}
+
+	// Keeps the indexed payment when it is at least as new, or was removed - a refresh
+	// page read before a change committed must not undo it
+	private void putNow(Payment payment) {
+		Integer paymentId = payment.getPaymentId();
+		Payment currentPayment = paymentsById.get(paymentId);
+		if(removedPaymentIds.contains(paymentId)
+			|| (currentPayment != null && versionOf(currentPayment) >= versionOf(payment))) {
+			return;
+		}
+		removeNow(paymentId);
+		addTrigrams(postingsByTrigram, payment);
+		paymentsById.put(paymentId, payment);
+	}
+
+	private void removeNow(Integer paymentId) {
+		Payment indexedPayment = paymentsById.remove(paymentId);
+		if(indexedPayment == null) {
+			return;
+		}
+		for(String field : indexedFields(indexedPayment)) {
+			for(int start = 0; start + GRAM_LENGTH <= field.length(); start++) {
+				Long trigram = trigramOf(field, start);
+				PostingList postingList = postingsByTrigram.get(trigram);
+				if(postingList != null) {
+					postingList.remove(paymentId);
+					if(postingList.size() == 0) {
+						postingsByTrigram.remove(trigram);
+					}
+				}
+			}
+		}
+	}
+
+	private static void addTrigrams(Map<Long, PostingList> postings, Payment payment) {
+		for(String field : indexedFields(payment)) {
+			for(int start = 0; start + GRAM_LENGTH <= field.length(); start++) {
+				postings.computeIfAbsent(trigramOf(field, start), i -> new PostingList()).add(payment.getPaymentId());
+			}
+		}
+	}
+
+	private static List<String> indexedFields(Payment payment) {
+		List<String> fields = new ArrayList<>(4);
+		fields.add(payment.getPaymentId().toString());
+		for(String field : new String[] { payment.getPaymentBookingUuid(), payment.getPaymentStripeUuid() }) {
+			if(field != null) {
+				fields.add(field.toLowerCase(Locale.getDefault()));
+			}
+		}
+		if(payment.getPaymentStatus() != null) {
+			fields.add(payment.getPaymentStatus().name().toLowerCase(Locale.getDefault()));
+		}
+		return fields;
+	}
+
+	private static Long trigramOf(String text, int start) {
+		return ((long) text.charAt(start) << 32) | ((long) text.charAt(start + 1) << 16) | text.charAt(start + 2);
+	}
+
+	private static int versionOf(Payment payment) {
+		return payment.getPaymentVersion() != null ? payment.getPaymentVersion() : 0;
+	}
+}
@@ -0,0 +1,74 @@
+package com.ss.utopia.indexes;
+
+import java.util.Arrays;
+
+// A sorted, growable int[] of payment ids. New payments get increasing ids,
+// so adds are almost always appends.
+class PostingList {
+
+	private int[] paymentIds = new int[4];
+	private int size;
+
+	void add(int paymentId) {
+		if(size == 0 || paymentIds[size - 1] < paymentId) {
+			ensureCapacity();
+			paymentIds[size++] = paymentId;
+			return;
+		}
+		int position = Arrays.binarySearch(paymentIds, 0, size, paymentId);
+		if(position >= 0) {
+			return;
+		}
+		int insertAt = -position - 1;
+		ensureCapacity();
+		System.arraycopy(paymentIds, insertAt, paymentIds, insertAt + 1, size - insertAt);
+		paymentIds[insertAt] = paymentId;
+		size++;
+	}
+
+	void remove(int paymentId) {
+		int position = Arrays.binarySearch(paymentIds, 0, size, paymentId);
+		if(position >= 0) {
+			System.arraycopy(paymentIds, position + 1, paymentIds, position, size - position - 1);
+			size--;
+		}
+	}
+
+	int size() {
+		return size;
+	}
+
+	int capacity() {
+		return paymentIds.length;
+	}
+
+	int[] toArray() {
+		return Arrays.copyOf(paymentIds, size);
+	}
+
+	// Keeps the ids of sortedIds that are also in this list
+	int[] retainAll(int[] sortedIds) {
+		int[] retained = new int[Math.min(sortedIds.length, size)];
+		int count = 0;
+		int i = 0;
+		int j = 0;
+		while(i < sortedIds.length && j < size) {
+			if(sortedIds[i] < paymentIds[j]) {
+				i++;
+			} else if(sortedIds[i] > paymentIds[j]) {
+				j++;
+			} else {
+				retained[count++] = sortedIds[i];
+				i++;
+				j++;
+			}
+		}
+		return Arrays.copyOf(retained, count);
+	}
+
+	private void ensureCapacity() {
+		if(size == paymentIds.length) {
+			paymentIds = Arrays.copyOf(paymentIds, size + (size >> 1) + 1);
+		}
+	}
+}
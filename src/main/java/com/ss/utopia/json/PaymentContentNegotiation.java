@@ -0,0 +1,23 @@
+package com.ss.utopia.json;
+
+import org.springframework.context.annotation.Configuration;
+import org.springframework.http.MediaType;
+import org.springframework.web.servlet.config.annotation.ContentNegotiationConfigurer;
+import org.springframework.web.servlet.config.annotation.WebMvcConfigurer;
+
+// jackson-dataformat-xml stays on the classpath for clients that ask for XML,
+// but a request without an Accept header gets JSON. MediaType.ALL keeps the
+// endpoints producing something else (the NDJSON export) reachable without one.
+// Spring Boot already orders the XML converter after the JSON one, so an Accept
+// of */* also gets JSON.
+@Configuration
+public class PaymentContentNegotiation implements WebMvcConfigurer {
+
+	@Override
+	public void configureContentNegotiation(ContentNegotiationConfigurer configurer) {
+		configurer
+			.favorParameter(false)
+			.ignoreAcceptHeader(false)
+			.defaultContentType(MediaType.APPLICATION_JSON, MediaType.ALL);
+	}
+}
@@ -0,0 +1,86 @@
+package com.ss.utopia.json;
+
+import java.io.IOException;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.SerializableString;
+import com.fasterxml.jackson.core.io.SerializedString;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.ser.std.StdSerializer;
+import com.ss.utopia.models.ErrorMessage;
+import com.ss.utopia.models.Payment;
+
+import org.springframework.boot.jackson.JsonComponent;
+
+// Hand-written serializers for the types every response is made of. They write
+// the same fields, in the same order, as Jackson's bean serializer, but without
+// reflective getter calls, and with field names encoded once up front.
+// Registered with Spring's ObjectMapper (JSON and XML) through @JsonComponent,
+// and available to plain ObjectMappers through module().
+@JsonComponent
+public class PaymentJsonSerializers {
+
+	private static final SerializableString PAYMENT_ID = new SerializedString("paymentId");
+	private static final SerializableString PAYMENT_BOOKING_UUID = new SerializedString("paymentBookingUuid");
+	private static final SerializableString PAYMENT_STRIPE_UUID = new SerializedString("paymentStripeUuid");
+	private static final SerializableString PAYMENT_STATUS = new SerializedString("paymentStatus");
+	private static final SerializableString PAYMENT_VERSION = new SerializedString("paymentVersion");
+	private static final SerializableString ERROR = new SerializedString("error");
+
+	public static SimpleModule module() {
+		return new SimpleModule("PaymentJsonSerializers")
+			.addSerializer(Payment.class, new PaymentSerializer())
+			.addSerializer(ErrorMessage.class, new ErrorMessageSerializer());
+	}
+
+	public static class PaymentSerializer extends StdSerializer<Payment> {
+
+		private static final long serialVersionUID = 1L;
+
+		public PaymentSerializer() {
+			super(Payment.class);
+		}
+
+		@Override
+		public void serialize(Payment payment, JsonGenerator generator, SerializerProvider provider) throws IOException {
+			generator.writeStartObject(payment);
+			generator.writeFieldName(PAYMENT_ID);
+			writeInteger(generator, payment.getPaymentId());
+			generator.writeFieldName(PAYMENT_BOOKING_UUID);
+			generator.writeString(payment.getPaymentBookingUuid());
+			generator.writeFieldName(PAYMENT_STRIPE_UUID);
+			generator.writeString(payment.getPaymentStripeUuid());
+			generator.writeFieldName(PAYMENT_STATUS);
+			generator.writeString(payment.getPaymentStatus() != null ? payment.getPaymentStatus().name() : null);
+			generator.writeFieldName(PAYMENT_VERSION);
+			writeInteger(generator, payment.getPaymentVersion());
+			generator.writeEndObject();
+		}
+
+		private static void writeInteger(JsonGenerator generator, Integer value) throws IOException {
+			if(value != null) {
+				generator.writeNumber(value.intValue());
+			} else {
+				generator.writeNull();
+			}
+		}
+	}
+
+	public static class ErrorMessageSerializer extends StdSerializer<ErrorMessage> {
+
+		private static final long serialVersionUID = 1L;
+
+		public ErrorMessageSerializer() {
+			super(ErrorMessage.class);
+		}
+
+		@Override
+		public void serialize(ErrorMessage errorMessage, JsonGenerator generator, SerializerProvider provider) throws IOException {
+			generator.writeStartObject(errorMessage);
+			generator.writeFieldName(ERROR);
+			generator.writeString(errorMessage.getError());
+			generator.writeEndObject();
+		}
+	}
+}
@@ -0,0 +1,168 @@
+package com.ss.utopia.metrics;
+
+import java.util.Collection;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+
+import com.ss.utopia.models.PaymentPage;
+
+import org.aspectj.lang.JoinPoint;
+import org.aspectj.lang.ProceedingJoinPoint;
+import org.aspectj.lang.annotation.Around;
+import org.aspectj.lang.annotation.Aspect;
+import org.aspectj.lang.annotation.Before;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// Timers for every PaymentService method and PaymentRepository query, result
+// sizes for the service methods returning payments, and a counter per
+// PaymentController exception handler. Controller endpoints are already timed
+// by Spring as http.server.requests, which includes JSON serialization, so
+// comparing the three shows where a slow request spent its time.
+// Percentiles and histograms are configured under management.metrics.distribution.
+// Repository calls slower than payments.repository.slow-query-ms are also logged
+// with their arguments.
+@Aspect
+@Component
+public class PaymentMetricsAspect implements MeterBinder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PaymentMetricsAspect.class);
+	private static final String NO_EXCEPTION = "none";
+	private static final int MAX_LOGGED_ARGUMENT_LENGTH = 100;
+
+	// Meters are looked up once per tag combination instead of on every call
+	private final ConcurrentMap<String, Timer> timers = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, DistributionSummary> resultSizes = new ConcurrentHashMap<>();
+	private final ConcurrentMap<String, Counter> handledErrors = new ConcurrentHashMap<>();
+
+	private final long slowQueryNanos;
+
+	private MeterRegistry registry;
+
+	public PaymentMetricsAspect(@Value("${payments.repository.slow-query-ms:1000}") long slowQueryMs) {
+		this.slowQueryNanos = TimeUnit.MILLISECONDS.toNanos(slowQueryMs);
+	}
+
+	@Around("execution(public * com.ss.utopia.services.PaymentService.*(..))")
+	public Object timeService(ProceedingJoinPoint joinPoint) throws Throwable {
+		String method = joinPoint.getSignature().getName();
+		Object result = time("payments.service", method, joinPoint);
+		recordResultSize(method, result);
+		return result;
+	}
+
+	@Around("execution(* com.ss.utopia.repositories.PaymentRepository+.*(..))")
+	public Object timeRepository(ProceedingJoinPoint joinPoint) throws Throwable {
+		String method = joinPoint.getSignature().getName();
+		long start = System.nanoTime();
+		try {
+			return time("payments.repository", method, joinPoint);
+		}
+		finally {
+			long elapsed = System.nanoTime() - start;
+			if(elapsed >= slowQueryNanos) {
+				LOGGER.warn("Slow query: PaymentRepository.{}({}) took {} ms",
+					method, describeArguments(joinPoint.getArgs()), TimeUnit.NANOSECONDS.toMillis(elapsed));
+			}
+		}
+	}
+
+	@Before("within(com.ss.utopia.PaymentController) && @annotation(org.springframework.web.bind.annotation.ExceptionHandler)")
+	public void countHandledError(JoinPoint joinPoint) {
+		if(registry == null) {
+			return;
+		}
+		String handler = joinPoint.getSignature().getName();
+		Object[] args = joinPoint.getArgs();
+		String exception = args.length > 0 && args[0] instanceof Throwable
+			? args[0].getClass().getSimpleName()
+			: NO_EXCEPTION;
+		handledErrors.computeIfAbsent(handler + ":" + exception, i -> Counter.builder("payments.controller.errors")
+			.description("Exceptions mapped to an error response by PaymentController")
+			.tag("handler", handler)
+			.tag("exception", exception)
+			.register(registry)
+		).increment();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		this.registry = registry;
+	}
+
+	private Object time(String name, String method, ProceedingJoinPoint joinPoint) throws Throwable {
+		if(registry == null) {
+			return joinPoint.proceed();
+		}
+		long start = registry.config().clock().monotonicTime();
+		String exception = NO_EXCEPTION;
+		try {
+			return joinPoint.proceed();
+		}
+		catch(Throwable err) {
+			exception = err.getClass().getSimpleName();
+			throw err;
+		}
+		finally {
+			long elapsed = registry.config().clock().monotonicTime() - start;
+			timer(name, method, exception).record(elapsed, TimeUnit.NANOSECONDS);
+		}
+	}
+
+	private Timer timer(String name, String method, String exception) {
+		return timers.computeIfAbsent(name + ":" + method + ":" + exception, i -> Timer.builder(name)
+			.description("Time spent in " + name.substring(name.lastIndexOf('.') + 1) + " methods")
+			.tag("method", method)
+			.tag("exception", exception)
+			.register(registry)
+		);
+	}
+
+	// Collections are logged by size and specifications by type, so a log line stays short
+	private static String describeArguments(Object[] args) {
+		String[] described = new String[args.length];
+		for(int i = 0; i < args.length; i++) {
+			if(args[i] instanceof Collection) {
+				described[i] = ((Collection<?>) args[i]).size() + " values";
+			} else if(args[i] instanceof Specification) {
+				described[i] = "Specification";
+			} else {
+				String argument = String.valueOf(args[i]);
+				described[i] = argument.length() > MAX_LOGGED_ARGUMENT_LENGTH
+					? argument.substring(0, MAX_LOGGED_ARGUMENT_LENGTH) + "..."
+					: argument;
+			}
+		}
+		return String.join(", ", described);
+	}
+
+	private void recordResultSize(String method, Object result) {
+		if(registry == null) {
+			return;
+		}
+		int size;
+		if(result instanceof Collection) {
+			size = ((Collection<?>) result).size();
+		} else if(result instanceof PaymentPage && ((PaymentPage) result).getPayments() != null) {
+			size = ((PaymentPage) result).getPayments().size();
+		} else {
+			return;
+		}
+		resultSizes.computeIfAbsent(method, i -> DistributionSummary.builder("payments.service.results")
+			.description("Payments returned by a service call")
+			.baseUnit("payments")
+			.tag("method", method)
+			.register(registry)
+		).record(size);
+	}
+}
@@ -1,17 +1,37 @@
 package com.ss.utopia.models;
 
+import java.time.Instant;
+
 import javax.persistence.Column;
+import javax.persistence.Convert;
 import javax.persistence.Entity;
 import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
 import javax.persistence.Id;
+import javax.persistence.Index;
+import javax.persistence.SequenceGenerator;
 import javax.persistence.Table;
+import javax.persistence.Version;
+
+import com.ss.utopia.converters.PaymentStatusConverter;
 
 @Entity
-@Table(name = "payments")
+@Table(
+  name = "payments",
+  indexes = {
+    @Index(name = Payment.STRIPE_UUID_INDEX, columnList = "stripe_uuid", unique = true),
+    @Index(name = "ix_payments_booking_uuid", columnList = "booking_uuid"),
+    @Index(name = "ix_payments_status", columnList = "status"),
+    @Index(name = "ix_payments_updated_at", columnList = "updated_at")
+  }
+)
 public class Payment {
 
+  public static final String STRIPE_UUID_INDEX = "ux_payments_stripe_uuid";
+
   @Id
-  @GeneratedValue
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "payment_id_generator")
+  @SequenceGenerator(name = "payment_id_generator", sequenceName = "payment_id_sequence", allocationSize = 50)
   @Column(name = "id")
   private Integer paymentId;
 
@@ -22,7 +42,22 @@ public class Payment {
   private String paymentStripeUuid;
 
   @Column(name = "status")
-  private String paymentStatus;
+  @Convert(converter = PaymentStatusConverter.class)
+  private PaymentStatus paymentStatus;
+
+  // Optimistic lock - checked and incremented by every update and delete
+  @Version
+  @Column(name = "version")
+  private Integer paymentVersion;
+
+  // Stamped by the database on every insert and update, only queried by the read models' refresh
+  @Column(
+    name = "updated_at",
+    insertable = false,
+    updatable = false,
+    columnDefinition = "TIMESTAMP(3) DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3)"
+  )
+  private Instant paymentUpdatedAt;
 
   public Payment() {}
 
@@ -30,7 +65,7 @@ public class Payment {
     Integer paymentId,
     String paymentBookingUuid,
     String paymentStripeUuid,
-    String paymentStatus
+    PaymentStatus paymentStatus
   ) {
     this.paymentId = paymentId;
     this.paymentBookingUuid = paymentBookingUuid;
@@ -41,13 +76,20 @@ public class Payment {
   public Payment(
     String paymentBookingUuid,
     String paymentStripeUuid,
-    String paymentStatus
+    PaymentStatus paymentStatus
   ) {
     this.paymentBookingUuid = paymentBookingUuid;
     this.paymentStripeUuid = paymentStripeUuid;
     this.paymentStatus = paymentStatus;
   }
 
+  // A detached copy of the API fields, for the read models and subscribers to hold on to
+  public Payment copy() {
+    Payment copiedPayment = new Payment(paymentId, paymentBookingUuid, paymentStripeUuid, paymentStatus);
+    copiedPayment.setPaymentVersion(paymentVersion);
+    return copiedPayment;
+  }
+
 
   public Integer getPaymentId() {
     return this.paymentId;
@@ -73,11 +115,19 @@ public class Payment {
     this.paymentStripeUuid = paymentStripeUuid;
   }
 
-  public String getPaymentStatus() {
+  public PaymentStatus getPaymentStatus() {
     return this.paymentStatus;
   }
 
-  public void setPaymentStatus(String paymentStatus) {
+  public void setPaymentStatus(PaymentStatus paymentStatus) {
     this.paymentStatus = paymentStatus;
   }
+
+  public Integer getPaymentVersion() {
+    return this.paymentVersion;
+  }
+
+  public void setPaymentVersion(Integer paymentVersion) {
+    this.paymentVersion = paymentVersion;
+  }
 }
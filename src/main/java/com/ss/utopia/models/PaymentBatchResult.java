@@ -0,0 +1,50 @@
+package com.ss.utopia.models;
+
+public class PaymentBatchResult {
+
+  private Integer index;
+  private Integer status;
+  private Payment payment;
+  private String error;
+
+  public PaymentBatchResult() {}
+
+  public PaymentBatchResult(Integer index, Integer status, Payment payment, String error) {
+    this.index = index;
+    this.status = status;
+    this.payment = payment;
+    this.error = error;
+  }
+
+  public Integer getIndex() {
+    return this.index;
+  }
+
+  public void setIndex(Integer index) {
+    this.index = index;
+  }
+
+  public Integer getStatus() {
+    return this.status;
+  }
+
+  public void setStatus(Integer status) {
+    this.status = status;
+  }
+
+  public Payment getPayment() {
+    return this.payment;
+  }
+
+  public void setPayment(Payment payment) {
+    this.payment = payment;
+  }
+
+  public String getError() {
+    return this.error;
+  }
+
+  public void setError(String error) {
+    this.error = error;
+  }
+}
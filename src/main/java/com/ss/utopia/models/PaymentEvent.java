@@ -0,0 +1,129 @@
+package com.ss.utopia.models;
+
+import java.time.Instant;
+
+import javax.persistence.Column;
+import javax.persistence.Convert;
+import javax.persistence.Entity;
+import javax.persistence.EnumType;
+import javax.persistence.Enumerated;
+import javax.persistence.GeneratedValue;
+import javax.persistence.GenerationType;
+import javax.persistence.Id;
+import javax.persistence.SequenceGenerator;
+import javax.persistence.Table;
+
+import com.ss.utopia.converters.PaymentStatusConverter;
+
+// A change to a payment, written to the outbox in the same transaction as the
+// change itself and deleted once published. Ids are unique but only ordered per
+// instance - consumers order the events of one payment by paymentVersion.
+@Entity
+@Table(name = "payment_outbox")
+public class PaymentEvent {
+
+  @Id
+  @GeneratedValue(strategy = GenerationType.SEQUENCE, generator = "payment_event_id_generator")
+  @SequenceGenerator(name = "payment_event_id_generator", sequenceName = "payment_event_id_sequence", allocationSize = 50)
+  @Column(name = "id")
+  private Long eventId;
+
+  @Column(name = "event_type", nullable = false)
+  @Enumerated(EnumType.STRING)
+  private PaymentEventType eventType;
+
+  @Column(name = "payment_id", nullable = false)
+  private Integer paymentId;
+
+  @Column(name = "booking_uuid")
+  private String paymentBookingUuid;
+
+  @Column(name = "stripe_uuid")
+  private String paymentStripeUuid;
+
+  @Column(name = "status")
+  @Convert(converter = PaymentStatusConverter.class)
+  private PaymentStatus paymentStatus;
+
+  @Column(name = "version")
+  private Integer paymentVersion;
+
+  @Column(name = "created_at", nullable = false)
+  private Instant createdAt;
+
+  public PaymentEvent() {}
+
+  public PaymentEvent(PaymentEventType eventType, Payment payment) {
+    this.eventType = eventType;
+    this.paymentId = payment.getPaymentId();
+    this.paymentBookingUuid = payment.getPaymentBookingUuid();
+    this.paymentStripeUuid = payment.getPaymentStripeUuid();
+    this.paymentStatus = payment.getPaymentStatus();
+    this.paymentVersion = payment.getPaymentVersion();
+    this.createdAt = Instant.now();
+  }
+
+  public Long getEventId() {
+    return this.eventId;
+  }
+
+  public void setEventId(Long eventId) {
+    this.eventId = eventId;
+  }
+
+  public PaymentEventType getEventType() {
+    return this.eventType;
+  }
+
+  public void setEventType(PaymentEventType eventType) {
+    this.eventType = eventType;
+  }
+
+  public Integer getPaymentId() {
+    return this.paymentId;
+  }
+
+  public void setPaymentId(Integer paymentId) {
+    this.paymentId = paymentId;
+  }
+
+  public String getPaymentBookingUuid() {
+    return this.paymentBookingUuid;
+  }
+
+  public void setPaymentBookingUuid(String paymentBookingUuid) {
+    this.paymentBookingUuid = paymentBookingUuid;
+  }
+
+  public String getPaymentStripeUuid() {
+    return this.paymentStripeUuid;
+  }
+
+  public void setPaymentStripeUuid(String paymentStripeUuid) {
+    this.paymentStripeUuid = paymentStripeUuid;
+  }
+
+  public PaymentStatus getPaymentStatus() {
+    return this.paymentStatus;
+  }
+
+  public void setPaymentStatus(PaymentStatus paymentStatus) {
+    this.paymentStatus = paymentStatus;
+  }
+
+  public Integer getPaymentVersion() {
+    return this.paymentVersion;
+  }
+
+  public void setPaymentVersion(Integer paymentVersion) {
+    this.paymentVersion = paymentVersion;
+  }
+
+  public Instant getCreatedAt() {
+    return this.createdAt;
+  }
+
+  public void setCreatedAt(Instant createdAt) {
+    this.createdAt = createdAt;
+  }
+}
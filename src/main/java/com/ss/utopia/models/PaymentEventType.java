@@ -0,0 +1,9 @@
+package com.ss.utopia.models;
+
+// Stored by name in payment_outbox.event_type
+public enum PaymentEventType {
+  CREATED,
+  UPDATED,
+  STATUS_CHANGED,
+  DELETED
+}
@@ -0,0 +1,32 @@
+package com.ss.utopia.models;
+
+import java.util.List;
+
+public class PaymentPage {
+
+  private List<Payment> payments;
+  private String nextCursor;
+
+  public PaymentPage() {}
+
+  public PaymentPage(List<Payment> payments, String nextCursor) {
+    this.payments = payments;
+    this.nextCursor = nextCursor;
+  }
+
+  public List<Payment> getPayments() {
+    return this.payments;
+  }
+
+  public void setPayments(List<Payment> payments) {
+    this.payments = payments;
+  }
+
+  public String getNextCursor() {
+    return this.nextCursor;
+  }
+
+  public void setNextCursor(String nextCursor) {
+    this.nextCursor = nextCursor;
+  }
+}
@@ -0,0 +1,32 @@
+package com.ss.utopia.models;
+
+import java.util.Map;
+
+public class PaymentStats {
+
+  private Long totalCount;
+  private Map<PaymentStatus, Long> statusCounts;
+
+  public PaymentStats() {}
+
+  public PaymentStats(Long totalCount, Map<PaymentStatus, Long> statusCounts) {
+    this.totalCount = totalCount;
+    this.statusCounts = statusCounts;
+  }
+
+  public Long getTotalCount() {
+    return this.totalCount;
+  }
+
+  public void setTotalCount(Long totalCount) {
+    this.totalCount = totalCount;
+  }
+
+  public Map<PaymentStatus, Long> getStatusCounts() {
+    return this.statusCounts;
+  }
+
+  public void setStatusCounts(Map<PaymentStatus, Long> statusCounts) {
+    this.statusCounts = statusCounts;
+  }
+}
@@ -0,0 +1,49 @@
+package com.ss.utopia.models;
+
+// Persisted as its code by PaymentStatusConverter, serialized by name.
+// Codes are stored in the payments table and must never be reused.
+public enum PaymentStatus {
+
+  PENDING(0),
+  CONFIRMED(1),
+  APPROVED(2),
+  REJECTED(3);
+
+  private static final PaymentStatus[] BY_CODE = new PaymentStatus[values().length];
+
+  static {
+    for(PaymentStatus paymentStatus : values()) {
+      BY_CODE[paymentStatus.code] = paymentStatus;
+    }
+  }
+
+  private final byte code;
+
+  PaymentStatus(int code) {
+    this.code = (byte) code;
+  }
+
+  public byte getCode() {
+    return code;
+  }
+
+  public static PaymentStatus fromCode(byte code) {
+    if(code < 0 || code >= BY_CODE.length || BY_CODE[code] == null) {
+      throw new IllegalArgumentException("Unknown Payment Status code: " + code);
+    }
+    return BY_CODE[code];
+  }
+
+  // null when paymentStatus is not the exact name of a status
+  public static PaymentStatus fromName(String paymentStatus) {
+    if(paymentStatus == null) {
+      return null;
+    }
+    for(PaymentStatus status : values()) {
+      if(status.name().equals(paymentStatus)) {
+        return status;
+      }
+    }
+    return null;
+  }
+}
@@ -0,0 +1,31 @@
+package com.ss.utopia.models;
+
+// One row of PaymentRepository.countByStatus
+public class PaymentStatusCount {
+
+  private PaymentStatus paymentStatus;
+  private Long paymentCount;
+
+  public PaymentStatusCount() {}
+
+  public PaymentStatusCount(PaymentStatus paymentStatus, Long paymentCount) {
+    this.paymentStatus = paymentStatus;
+    this.paymentCount = paymentCount;
+  }
+
+  public PaymentStatus getPaymentStatus() {
+    return this.paymentStatus;
+  }
+
+  public void setPaymentStatus(PaymentStatus paymentStatus) {
+    this.paymentStatus = paymentStatus;
+  }
+
+  public Long getPaymentCount() {
+    return this.paymentCount;
+  }
+
+  public void setPaymentCount(Long paymentCount) {
+    this.paymentCount = paymentCount;
+  }
+}
@@ -0,0 +1,42 @@
+package com.ss.utopia.models;
+
+import java.util.List;
+
+public class PaymentStatusUpdate {
+
+  private List<Integer> paymentIds;
+  private String fromStatus;
+  private String paymentStatus;
+
+  public PaymentStatusUpdate() {}
+
+  public PaymentStatusUpdate(List<Integer> paymentIds, String fromStatus, String paymentStatus) {
+    this.paymentIds = paymentIds;
+    this.fromStatus = fromStatus;
+    this.paymentStatus = paymentStatus;
+  }
+
+  public List<Integer> getPaymentIds() {
+    return this.paymentIds;
+  }
+
+  public void setPaymentIds(List<Integer> paymentIds) {
+    this.paymentIds = paymentIds;
+  }
+
+  public String getFromStatus() {
+    return this.fromStatus;
+  }
+
+  public void setFromStatus(String fromStatus) {
+    this.fromStatus = fromStatus;
+  }
+
+  public String getPaymentStatus() {
+    return this.paymentStatus;
+  }
+
+  public void setPaymentStatus(String paymentStatus) {
+    this.paymentStatus = paymentStatus;
+  }
+}
@@ -0,0 +1,32 @@
+package com.ss.utopia.models;
+
+import java.util.List;
+
+public class PaymentStatusUpdateResult {
+
+  private Integer updatedCount;
+  private List<Integer> missingPaymentIds;
+
+  public PaymentStatusUpdateResult() {}
+
+  public PaymentStatusUpdateResult(Integer updatedCount, List<Integer> missingPaymentIds) {
+    this.updatedCount = updatedCount;
+    this.missingPaymentIds = missingPaymentIds;
+  }
+
+  public Integer getUpdatedCount() {
+    return this.updatedCount;
+  }
+
+  public void setUpdatedCount(Integer updatedCount) {
+    this.updatedCount = updatedCount;
+  }
+
+  public List<Integer> getMissingPaymentIds() {
+    return this.missingPaymentIds;
+  }
+
+  public void setMissingPaymentIds(List<Integer> missingPaymentIds) {
+    this.missingPaymentIds = missingPaymentIds;
+  }
+}
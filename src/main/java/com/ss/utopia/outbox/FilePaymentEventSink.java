@@ -0,0 +1,55 @@
+package com.ss.utopia.outbox;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ss.utopia.models.PaymentEvent;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.stereotype.Component;
+
+// Appends each event as one JSON line to a local file and forces it to disk
+// before the batch is acknowledged. Meant for local development and tests.
+@Component
+@ConditionalOnProperty(name = "payments.outbox.sink", havingValue = "file")
+public class FilePaymentEventSink implements PaymentEventSink {
+
+	@Autowired
+	private ObjectMapper objectMapper;
+
+	private final Path path;
+
+	public FilePaymentEventSink(@Value("${payments.outbox.file.path:payment-events.ndjson}") String path) {
+		this.path = Paths.get(path);
+	}
+
+	@Override
+	public void publish(List<PaymentEvent> events) {
+		StringBuilder lines = new StringBuilder();
+		try {
+			for(PaymentEvent event : events) {
+				lines.append(objectMapper.writeValueAsString(event)).append('\n');
+			}
+			try(FileChannel channel = FileChannel.open(path, StandardOpenOption.CREATE, StandardOpenOption.WRITE, StandardOpenOption.APPEND)) {
+				ByteBuffer buffer = ByteBuffer.wrap(lines.toString().getBytes(StandardCharsets.UTF_8));
+				while(buffer.hasRemaining()) {
+					channel.write(buffer);
+				}
+				channel.force(false);
+			}
+		}
+		catch(IOException err) {
+			throw new UncheckedIOException(err);
+		}
+	}
+}
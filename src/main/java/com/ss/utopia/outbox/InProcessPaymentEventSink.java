@@ -0,0 +1,45 @@
+package com.ss.utopia.outbox;
+
+import java.util.List;
+
+import javax.annotation.PostConstruct;
+
+import com.ss.utopia.models.PaymentEvent;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.autoconfigure.condition.ConditionalOnProperty;
+import org.springframework.context.ApplicationEventPublisher;
+import org.springframework.stereotype.Component;
+
+// Republishes each event as a Spring application event, for @EventListeners in
+// this instance and for tests. Events nobody listens to are dropped.
+@Component
+@ConditionalOnProperty(name = "payments.outbox.sink", havingValue = "in-process", matchIfMissing = true)
+public class InProcessPaymentEventSink implements PaymentEventSink {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(InProcessPaymentEventSink.class);
+
+	@Autowired
+	private ApplicationEventPublisher applicationEventPublisher;
+
+	@Value("${payments.outbox.enabled:false}")
+	private boolean outboxEnabled;
+
+	@PostConstruct
+	public void warnIfEnabled() {
+		if(outboxEnabled) {
+			LOGGER.warn("payments.outbox.sink=in-process only reaches @EventListeners in this instance, " +
+				"events are deleted from the outbox once published even if nothing listens");
+		}
+	}
+
+	@Override
+	public void publish(List<PaymentEvent> events) {
+		for(PaymentEvent event : events) {
+			applicationEventPublisher.publishEvent(event);
+		}
+	}
+}
@@ -0,0 +1,14 @@
+package com.ss.utopia.outbox;
+
+import java.util.List;
+
+import com.ss.utopia.models.PaymentEvent;
+
+// Where PaymentOutboxPublisher ships events, chosen by payments.outbox.sink. A batch
+// is deleted from the outbox only once publish returns, so a sink that throws - or an
+// instance that dies mid-batch - has the batch published again: consumers must
+// tolerate duplicates, e.g. by ignoring a paymentVersion they have already seen.
+public interface PaymentEventSink {
+
+	void publish(List<PaymentEvent> events);
+}
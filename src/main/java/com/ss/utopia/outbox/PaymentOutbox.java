@@ -0,0 +1,65 @@
+package com.ss.utopia.outbox;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentEvent;
+import com.ss.utopia.models.PaymentEventType;
+import com.ss.utopia.repositories.PaymentEventRepository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+// Records payment changes as PaymentEvents in the payment_outbox table. Every
+// method must join the transaction making the change, so an event is stored
+// exactly when its change commits. PaymentOutboxPublisher ships them from there.
+@Component
+public class PaymentOutbox {
+
+	@Autowired
+	private PaymentEventRepository paymentEventRepository;
+
+	private final boolean enabled;
+
+	public PaymentOutbox(@Value("${payments.outbox.enabled:false}") boolean enabled) {
+		this.enabled = enabled;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	@Transactional(propagation = Propagation.MANDATORY)
+	public void record(PaymentEventType eventType, Payment payment) {
+		if(enabled) {
+			paymentEventRepository.save(new PaymentEvent(eventType, payment));
+		}
+	}
+
+	// Ids come from a pooled sequence, so Hibernate batches these inserts
+	@Transactional(propagation = Propagation.MANDATORY)
+	public void recordAll(PaymentEventType eventType, Collection<Payment> payments) {
+		if(!enabled || payments.isEmpty()) {
+			return;
+		}
+		List<PaymentEvent> events = new ArrayList<>(payments.size());
+		for(Payment payment : payments) {
+			events.add(new PaymentEvent(eventType, payment));
+		}
+		paymentEventRepository.saveAll(events);
+	}
+
+	// A delete is one more change, so it is recorded one version past the deleted
+	// row and consumers de-duplicating by version never mistake it for the last update
+	@Transactional(propagation = Propagation.MANDATORY)
+	public void recordDeleted(Payment payment) {
+		Payment deletedPayment = payment.copy();
+		deletedPayment.setPaymentVersion(payment.getPaymentVersion() + 1);
+		record(PaymentEventType.DELETED, deletedPayment);
+	}
+}
@@ -0,0 +1,115 @@
+package com.ss.utopia.outbox;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import com.ss.utopia.models.PaymentEvent;
+import com.ss.utopia.repositories.PaymentEventRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.support.TransactionTemplate;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// Drains the outbox in id order, payments.outbox.batch-size events at a time.
+// Each batch is locked, handed to the PaymentEventSink and deleted in one
+// transaction, and batches follow each other until the outbox is empty. A
+// failing sink leaves the batch in place to be retried on the next run.
+@Component
+public class PaymentOutboxPublisher implements MeterBinder {
+
+	private static final Logger LOGGER = LoggerFactory.getLogger(PaymentOutboxPublisher.class);
+
+	@Autowired
+	private PaymentEventRepository paymentEventRepository;
+
+	@Autowired
+	private PaymentEventSink paymentEventSink;
+
+	private final TransactionTemplate transactionTemplate;
+	private final boolean enabled;
+	private final int batchSize;
+
+	private Counter publishedCounter;
+	private Counter failedCounter;
+	private Timer batchTimer;
+
+	public PaymentOutboxPublisher(
+		PlatformTransactionManager transactionManager,
+		@Value("${payments.outbox.enabled:false}") boolean enabled,
+		@Value("${payments.outbox.batch-size:500}") int batchSize
+	) {
+		this.transactionTemplate = new TransactionTemplate(transactionManager);
+		this.enabled = enabled;
+		this.batchSize = Math.max(1, batchSize);
+	}
+
+	@Scheduled(fixedDelayString = "${payments.outbox.publish-interval-ms:1000}")
+	public int publishPending() {
+		if(!enabled) {
+			return 0;
+		}
+		int published = 0;
+		try {
+			int batch;
+			do {
+				batch = publishBatch();
+				published += batch;
+			} while(batch == batchSize);
+		}
+		catch(RuntimeException err) {
+			if(failedCounter != null) {
+				failedCounter.increment();
+			}
+			LOGGER.warn("Publishing payment events failed, retrying on the next run", err);
+		}
+		return published;
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		publishedCounter = Counter.builder("payments.outbox.published")
+			.description("Payment events handed to the sink and removed from the outbox")
+			.register(registry);
+		failedCounter = Counter.builder("payments.outbox.failed")
+			.description("Outbox batches left in place because publishing failed")
+			.register(registry);
+		batchTimer = Timer.builder("payments.outbox.batch")
+			.description("Time to lock, publish and delete one outbox batch")
+			.register(registry);
+	}
+
+	private int publishBatch() {
+		long start = System.nanoTime();
+		Integer published = transactionTemplate.execute(status -> {
+			List<PaymentEvent> events = paymentEventRepository.findPending(PageRequest.of(0, batchSize));
+			if(events.isEmpty()) {
+				return 0;
+			}
+			paymentEventSink.publish(events);
+
+			List<Long> eventIds = new ArrayList<>(events.size());
+			for(PaymentEvent event : events) {
+				eventIds.add(event.getEventId());
+			}
+			paymentEventRepository.deleteWithIds(eventIds);
+			return events.size();
+		});
+		if(batchTimer != null && published != null && published > 0) {
+			batchTimer.record(System.nanoTime() - start, TimeUnit.NANOSECONDS);
+			publishedCounter.increment(published);
+		}
+		return published != null ? published : 0;
+	}
+}
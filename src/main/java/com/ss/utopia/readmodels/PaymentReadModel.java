@@ -0,0 +1,144 @@
+package com.ss.utopia.readmodels;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+
+import com.ss.utopia.datasources.PaymentTransactions;
+import com.ss.utopia.filters.PaymentSpecifications;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.repositories.PaymentRepository;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.data.jpa.domain.Specification;
+
+// In-memory copy of every payment behind a search mode - PaymentSearchIndex and
+// PaymentSnapshot. Changes made through this instance are applied once they
+// commit. A rebuild reads the whole table into a new copy and swaps it in,
+// replaying the changes that committed while it was reading. A refresh picks up
+// payments inserted or updated by other instances from the updated_at marker,
+// re-reading from refresh-overlap-ms before it, since updated_at is stamped when
+// a row is written, not when its transaction commits. Other instances' deletes
+// are only dropped by the next rebuild. Subclasses schedule both.
+public abstract class PaymentReadModel {
+
+	@Autowired
+	protected PaymentRepository paymentRepository;
+
+	private final boolean enabled;
+	private final int pageSize;
+	private final long refreshOverlapMs;
+	private final ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	// Changes made while a rebuild is reading the table, replayed onto the rebuilt copy
+	private volatile List<Runnable> pendingChanges;
+
+	// Latest updated_at seen before the last rebuild or refresh read the table
+	private volatile Instant changeMarker;
+	private volatile boolean loaded;
+
+	protected PaymentReadModel(boolean enabled, int pageSize, long refreshOverlapMs) {
+		this.enabled = enabled;
+		this.pageSize = pageSize;
+		this.refreshOverlapMs = refreshOverlapMs;
+	}
+
+	public boolean isEnabled() {
+		return enabled;
+	}
+
+	// False until the first rebuild finishes - searches before then would only see part of the table
+	public boolean isLoaded() {
+		return loaded;
+	}
+
+	public void rebuild() {
+		if(!enabled) {
+			return;
+		}
+		withWriteLock(() -> pendingChanges = new ArrayList<>());
+		try {
+			Instant latestUpdatedAt = paymentRepository.findLatestUpdatedAt();
+			Runnable install = read();
+			withWriteLock(() -> {
+				install.run();
+				pendingChanges.forEach(Runnable::run);
+			});
+			changeMarker = latestUpdatedAt;
+			loaded = true;
+		}
+		finally {
+			withWriteLock(() -> pendingChanges = null);
+		}
+	}
+
+	public void refresh() {
+		if(!enabled || !loaded || pendingChanges != null) {
+			return;
+		}
+		Instant latestUpdatedAt = paymentRepository.findLatestUpdatedAt();
+		Instant since = changeMarker;
+		load(
+			since != null ? PaymentSpecifications.updatedSince(since.minusMillis(refreshOverlapMs)) : null,
+			page -> withWriteLock(() -> page.forEach(payment -> refreshed(payment.copy())))
+		);
+		if(latestUpdatedAt != null) {
+			changeMarker = latestUpdatedAt;
+		}
+	}
+
+	// Reads every payment into a new copy, returning the swap to run under the write lock
+	protected abstract Runnable read();
+
+	// A row read by refresh - held only when it is newer than the copy's
+	protected abstract void refreshed(Payment payment);
+
+	// Applies a change once its transaction commits, and again after a rebuild that was reading meanwhile
+	protected void apply(Runnable change) {
+		if(!enabled) {
+			return;
+		}
+		PaymentTransactions.afterCommit(() -> withWriteLock(() -> {
+			change.run();
+			if(pendingChanges != null) {
+				pendingChanges.add(change);
+			}
+		}));
+	}
+
+	// Hands every payment matching the specification to the consumer, a keyset page at a time
+	protected void load(Specification<Payment> specification, Consumer<List<Payment>> pageConsumer) {
+		List<Payment> payments = paymentRepository.findPage(specification, null, pageSize);
+		while(!payments.isEmpty()) {
+			pageConsumer.accept(payments);
+			if(payments.size() < pageSize) {
+				return;
+			}
+			payments = paymentRepository.findPage(specification, payments.get(payments.size() - 1).getPaymentId(), pageSize);
+		}
+	}
+
+	protected <T> T withReadLock(Supplier<T> action) {
+		lock.readLock().lock();
+		try {
+			return action.get();
+		}
+		finally {
+			lock.readLock().unlock();
+		}
+	}
+
+	protected void withWriteLock(Runnable action) {
+		lock.writeLock().lock();
+		try {
+			action.run();
+		}
+		finally {
+			lock.writeLock().unlock();
+		}
+	}
+}
@@ -0,0 +1,31 @@
+package com.ss.utopia.repositories;
+
+import java.util.Collection;
+import java.util.List;
+
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
+
+import com.ss.utopia.models.PaymentEvent;
+
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
+import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
+import org.springframework.stereotype.Repository;
+
+@Repository
+public interface PaymentEventRepository extends JpaRepository<PaymentEvent, Long> {
+
+  // FOR UPDATE SKIP LOCKED on MySQL 8 - publishers on other instances take the next batch instead of waiting
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @QueryHints(@QueryHint(name = "javax.persistence.lock.timeout", value = "-2"))
+  @Query(value = "SELECT e FROM PaymentEvent e ORDER BY e.eventId")
+  List<PaymentEvent> findPending(Pageable pageable);
+
+  @Modifying
+  @Query(value = "DELETE FROM PaymentEvent e WHERE e.eventId IN ?1")
+  int deleteWithIds(Collection<Long> eventIds);
+}
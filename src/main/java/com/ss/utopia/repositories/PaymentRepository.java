@@ -1,23 +1,111 @@
 package com.ss.utopia.repositories;
 
+import static org.hibernate.cfg.AvailableSettings.JPA_LOCK_TIMEOUT;
+import static org.hibernate.jpa.QueryHints.HINT_CACHEABLE;
+import static org.hibernate.jpa.QueryHints.HINT_FETCH_SIZE;
+import static org.hibernate.jpa.QueryHints.HINT_READONLY;
+import static org.hibernate.jpa.QueryHints.SPEC_HINT_TIMEOUT;
+
+import java.time.Instant;
+import java.util.Collection;
 import java.util.List;
 import java.util.Optional;
+import java.util.stream.Stream;
+
+import javax.persistence.LockModeType;
+import javax.persistence.QueryHint;
 
 import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+import com.ss.utopia.models.PaymentStatusCount;
 
 import org.springframework.data.jpa.repository.JpaRepository;
+import org.springframework.data.jpa.repository.JpaSpecificationExecutor;
+import org.springframework.data.jpa.repository.Lock;
+import org.springframework.data.jpa.repository.Modifying;
 import org.springframework.data.jpa.repository.Query;
+import org.springframework.data.jpa.repository.QueryHints;
 import org.springframework.stereotype.Repository;
+import org.springframework.transaction.annotation.Transactional;
 
+// Read-only by default, so that a replica configured through PaymentDataSourceConfig serves these queries
 @Repository
-public interface PaymentRepository extends JpaRepository<Payment, Integer> {
+@Transactional(readOnly = true)
+public interface PaymentRepository extends JpaRepository<Payment, Integer>, JpaSpecificationExecutor<Payment>, PaymentRepositoryCustom {
 
-  @Query(value = "SELECT * FROM payments WHERE booking_uuid = ?1", nativeQuery = true)
+  // JPQL rather than native SQL so the binary-uuid converter is applied to the parameters
+  @Query(value = "SELECT p FROM Payment p WHERE p.paymentBookingUuid = ?1")
   Optional<Payment> findByBookingUuid(String bookingUuid);
 
-  @Query(value = "SELECT * FROM payments WHERE stripe_uuid = ?1", nativeQuery = true)
+  @Query(value = "SELECT p FROM Payment p WHERE p.paymentStripeUuid = ?1")
   Optional<Payment> findByStripeUuid(String stripeUuid);
 
-  @Query(value = "SELECT * FROM payments WHERE status = ?1", nativeQuery = true)
-  List<Payment> findAllWithStatus(String status);
+  @Query(value = "SELECT p FROM Payment p WHERE p.paymentStripeUuid IN ?1")
+  List<Payment> findAllWithStripeUuids(Collection<String> stripeUuids);
+
+  @Query(value = "SELECT p FROM Payment p WHERE p.paymentStatus = ?1")
+  List<Payment> findAllWithStatus(PaymentStatus status);
+
+  @Query(value = "SELECT p.paymentId FROM Payment p WHERE p.paymentStatus = ?1 ORDER BY p.paymentId")
+  List<Integer> findAllIdsWithStatus(PaymentStatus status);
+
+  // One row per status present in the table, counted by the database over ix_payments_status
+  @Query(value = "SELECT new com.ss.utopia.models.PaymentStatusCount(p.paymentStatus, COUNT(p)) FROM Payment p GROUP BY p.paymentStatus")
+  List<PaymentStatusCount> countByStatus();
+
+  @Query(value = "SELECT p.paymentId FROM Payment p WHERE p.paymentId IN ?1")
+  List<Integer> findAllExistingIds(Collection<Integer> paymentIds);
+
+  @Transactional
+  @Modifying(clearAutomatically = true)
+  @Query(value = "UPDATE Payment p SET p.paymentStatus = ?2, p.paymentVersion = p.paymentVersion + 1 WHERE p.paymentId IN ?1")
+  int updateStatusWithIds(Collection<Integer> paymentIds, PaymentStatus status);
+
+  // Only the payments still in fromStatus - the rows actually changed are counted
+  @Transactional
+  @Modifying(clearAutomatically = true)
+  @Query(value = "UPDATE Payment p SET p.paymentStatus = ?3, p.paymentVersion = p.paymentVersion + 1 " +
+    "WHERE p.paymentId IN ?1 AND p.paymentStatus = ?2")
+  int updateStatusWithIdsAndStatus(Collection<Integer> paymentIds, PaymentStatus fromStatus, PaymentStatus status);
+
+  @Query(value = "SELECT p.paymentVersion FROM Payment p WHERE p.paymentId = ?1")
+  Optional<Integer> findVersionById(Integer paymentId);
+
+  @Query(value = "SELECT MAX(p.paymentUpdatedAt) FROM Payment p")
+  Instant findLatestUpdatedAt();
+
+  // SELECT ... FOR UPDATE - holds the row until the calling transaction ends. Waits for a
+  // row locked elsewhere at most 5s, as does innodb_lock_wait_timeout on the MySQL session.
+  @Lock(LockModeType.PESSIMISTIC_WRITE)
+  @QueryHints(@QueryHint(name = JPA_LOCK_TIMEOUT, value = "5000"))
+  @Query(value = "SELECT p FROM Payment p WHERE p.paymentId = ?1")
+  Optional<Payment> findLockedById(Integer paymentId);
+
+  // Optimistic locking in one statement - 0 when the payment is missing or its version has moved on
+  @Transactional
+  @Modifying(clearAutomatically = true, flushAutomatically = true)
+  @Query(value = "UPDATE Payment p SET p.paymentBookingUuid = ?2, p.paymentStripeUuid = ?3, p.paymentStatus = ?4, " +
+    "p.paymentVersion = p.paymentVersion + 1 WHERE p.paymentId = ?1 AND p.paymentVersion = ?5")
+  int updateWithVersion(Integer paymentId, String bookingUuid, String stripeUuid, PaymentStatus status, Integer paymentVersion);
+
+  @Transactional
+  @Modifying(clearAutomatically = true, flushAutomatically = true)
+  @Query(value = "DELETE FROM Payment p WHERE p.paymentId = ?1")
+  int deleteWithId(Integer paymentId);
+
+  @Transactional
+  @Modifying(clearAutomatically = true, flushAutomatically = true)
+  @Query(value = "DELETE FROM Payment p WHERE p.paymentId = ?1 AND p.paymentVersion = ?2")
+  int deleteWithVersion(Integer paymentId, Integer paymentVersion);
+
+  // Must be consumed inside a transaction and closed once read. Exempt from the
+  // javax.persistence.query.timeout default, /payments/export reads the whole table through it.
+  @QueryHints({
+    @QueryHint(name = HINT_FETCH_SIZE, value = "1000"),
+    @QueryHint(name = HINT_READONLY, value = "true"),
+    @QueryHint(name = HINT_CACHEABLE, value = "false"),
+    @QueryHint(name = SPEC_HINT_TIMEOUT, value = "0")
+  })
+  @Query(value = "SELECT p FROM Payment p ORDER BY p.paymentId")
+  Stream<Payment> streamAll();
 }
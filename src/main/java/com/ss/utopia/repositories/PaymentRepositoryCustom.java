@@ -0,0 +1,14 @@
+package com.ss.utopia.repositories;
+
+import java.util.List;
+
+import com.ss.utopia.models.Payment;
+
+import org.springframework.data.jpa.domain.Specification;
+
+public interface PaymentRepositoryCustom {
+
+  List<Payment> findPage(Specification<Payment> specification, Integer afterPaymentId, int limit);
+
+  void detach(Payment payment);
+}
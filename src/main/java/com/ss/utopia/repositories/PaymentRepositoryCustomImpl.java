@@ -0,0 +1,56 @@
+package com.ss.utopia.repositories;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.persistence.EntityManager;
+import javax.persistence.PersistenceContext;
+import javax.persistence.criteria.CriteriaBuilder;
+import javax.persistence.criteria.CriteriaQuery;
+import javax.persistence.criteria.Predicate;
+import javax.persistence.criteria.Root;
+
+import com.ss.utopia.models.Payment;
+
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.transaction.annotation.Transactional;
+
+public class PaymentRepositoryCustomImpl implements PaymentRepositoryCustom {
+
+  @PersistenceContext
+  private EntityManager entityManager;
+
+  // Keyset pagination - seeks past the last seen primary key instead of using
+  // OFFSET, so every page costs the same regardless of how deep it is.
+  @Override
+  @Transactional(readOnly = true)
+  public List<Payment> findPage(Specification<Payment> specification, Integer afterPaymentId, int limit) {
+    CriteriaBuilder cb = entityManager.getCriteriaBuilder();
+    CriteriaQuery<Payment> query = cb.createQuery(Payment.class);
+    Root<Payment> root = query.from(Payment.class);
+
+    List<Predicate> predicates = new ArrayList<>();
+    if(specification != null) {
+      Predicate predicate = specification.toPredicate(root, query, cb);
+      if(predicate != null) {
+        predicates.add(predicate);
+      }
+    }
+    if(afterPaymentId != null) {
+      predicates.add(cb.greaterThan(root.get("paymentId"), afterPaymentId));
+    }
+
+    query.select(root)
+      .where(predicates.toArray(new Predicate[0]))
+      .orderBy(cb.asc(root.get("paymentId")));
+
+    return entityManager.createQuery(query)
+      .setMaxResults(limit)
+      .getResultList();
+  }
+
+  @Override
+  public void detach(Payment payment) {
+    entityManager.detach(payment);
+  }
+}
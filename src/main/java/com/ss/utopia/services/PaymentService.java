@@ -1,35 +1,155 @@
 package com.ss.utopia.services;
 
 import java.util.Map;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.EnumMap;
+import java.util.HashSet;
 import java.util.List;
+import java.util.Locale;
 import java.util.Optional;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import org.hibernate.exception.ConstraintViolationException;
 import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.http.HttpStatus;
 import org.springframework.stereotype.Service;
+import org.springframework.transaction.annotation.Transactional;
 
+import com.ss.utopia.caches.PaymentCache;
+import com.ss.utopia.caches.PaymentLookupCoalescer;
+import com.ss.utopia.converters.UuidBinaryConverter;
+import com.ss.utopia.datasources.PaymentRecentWrites;
+import com.ss.utopia.datasources.PaymentRoutingDataSource;
+import com.ss.utopia.datasources.PaymentRoutingDataSource.PrimaryReads;
 import com.ss.utopia.exceptions.PaymentAlreadyExistsException;
+import com.ss.utopia.exceptions.PaymentBatchTooLargeException;
+import com.ss.utopia.exceptions.PaymentCursorInvalidException;
 import com.ss.utopia.exceptions.PaymentNotFoundException;
+import com.ss.utopia.exceptions.PaymentResultTooLargeException;
 import com.ss.utopia.exceptions.PaymentStatusNotFoundException;
+import com.ss.utopia.exceptions.PaymentUuidInvalidException;
+import com.ss.utopia.exceptions.PaymentVersionConflictException;
+import com.ss.utopia.filters.PaymentCursors;
 import com.ss.utopia.filters.PaymentFilters;
+import com.ss.utopia.filters.PaymentSpecifications;
+import com.ss.utopia.indexes.PaymentSearchIndex;
 import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentBatchResult;
+import com.ss.utopia.models.PaymentEventType;
+import com.ss.utopia.models.PaymentPage;
+import com.ss.utopia.models.PaymentStats;
+import com.ss.utopia.models.PaymentStatus;
+import com.ss.utopia.models.PaymentStatusCount;
+import com.ss.utopia.models.PaymentStatusUpdateResult;
+import com.ss.utopia.outbox.PaymentOutbox;
 import com.ss.utopia.repositories.PaymentRepository;
+import com.ss.utopia.snapshots.PaymentSnapshot;
+import com.ss.utopia.subscriptions.PaymentSubscriptions;
 
 @Service
 public class PaymentService {
 
-	private final String[] validPaymentStatuses = { "PENDING", "CONFIRMED", "APPROVED", "REJECTED" };
+	private static final String SEARCH_MODE_MEMORY = "memory";
+	private static final String SEARCH_MODE_INDEX = "index";
+	private static final String SEARCH_MODE_SNAPSHOT = "snapshot";
+	private static final String UUID_STORAGE_BINARY = "binary";
+	private static final String INVALID_UUID_MESSAGE = "Payment Booking and Stripe IDs must be canonical UUIDs.";
+	private static final int MEMORY_SEARCH_PAGE_SIZE = 1000;
 
 	@Autowired
 	private PaymentRepository paymentRepository;
 
+	@Autowired
+	private PaymentCache paymentCache;
+
+	@Autowired
+	private PaymentLookupCoalescer paymentLookupCoalescer;
+
+	@Autowired
+	private PaymentSearchIndex paymentSearchIndex;
+
+	@Autowired
+	private PaymentSnapshot paymentSnapshot;
+
+	@Autowired
+	private PaymentRecentWrites paymentRecentWrites;
+
+	@Autowired
+	private PaymentOutbox paymentOutbox;
+
+	@Autowired
+	private PaymentSubscriptions paymentSubscriptions;
+
+	@Value("${payments.search.mode:database}")
+	private String searchMode;
+
+	@Value("${payments.uuid-storage:string}")
+	private String uuidStorage;
+
+	@Value("${payments.page.default-size:100}")
+	private Integer defaultPageSize;
 
-	public List<Payment> findAll() {
-		return paymentRepository.findAll();
+	@Value("${payments.page.max-size:1000}")
+	private Integer maxPageSize;
+
+	@Value("${payments.batch.max-size:10000}")
+	private Integer maxBatchSize;
+
+	@Value("${payments.batch.update-chunk-size:1000}")
+	private Integer updateChunkSize;
+
+	@Value("${payments.results.max-size:10000}")
+	private Integer maxResultSize;
+
+
+	public List<Payment> findAll() throws PaymentResultTooLargeException {
+		return checkResultSize(paymentRepository.findPage(null, null, maxResultSize + 1));
+	}
+
+	// Streams every payment to the consumer, detaching each one once it has been
+	// handed over so the persistence context does not grow with the table.
+	@Transactional(readOnly = true)
+	public void exportAll(Consumer<Payment> consumer) {
+		try(Stream<Payment> payments = paymentRepository.streamAll()) {
+			payments.forEach(payment -> {
+				consumer.accept(payment);
+				paymentRepository.detach(payment);
+			});
+		}
 	}
 
 	public Payment findById(Integer id) throws PaymentNotFoundException {
-		Optional<Payment> optionalPayment = paymentRepository.findById(id);
+		Payment cachedPayment = paymentCache.getById(id);
+		if(cachedPayment != null) {
+			return cachedPayment;
+		}
+
+		long loadStamp = paymentCache.loadStamp();
+		Optional<Payment> optionalPayment = paymentLookupCoalescer.load(PaymentLookupCoalescer.LOOKUP_ID, id, loadStamp, () -> {
+			try(PrimaryReads primaryReads = paymentRecentWrites.readsForId(id)) {
+				return paymentRepository.findById(id);
+			}
+		});
+		if(!optionalPayment.isPresent()) {
+			throw new PaymentNotFoundException("No Payment with ID: " + id + " exist!");
+		}
+		cache(optionalPayment.get(), loadStamp);
+		return optionalPayment.get();
+	}
+
+	// The committed row from the primary, past the cache - the starting point of a subscription
+	public Payment findCurrentById(Integer id) throws PaymentNotFoundException {
+		Optional<Payment> optionalPayment;
+		try(PrimaryReads primaryReads = PaymentRoutingDataSource.primaryReads()) {
+			optionalPayment = paymentRepository.findById(id);
+		}
 		if(!optionalPayment.isPresent()) {
 			throw new PaymentNotFoundException("No Payment with ID: " + id + " exist!");
 		}
@@ -37,95 +157,422 @@ public class PaymentService {
 	}
 
 	public Payment findByBookingUuid(String paymentBookingUuid) throws PaymentNotFoundException {
-		Optional<Payment> optionalPayment = paymentRepository.findByBookingUuid(paymentBookingUuid);
+		Payment cachedPayment = paymentCache.getByBookingUuid(paymentBookingUuid);
+		if(cachedPayment != null) {
+			return cachedPayment;
+		}
+
+		long loadStamp = paymentCache.loadStamp();
+		Optional<Payment> optionalPayment = !isStorableUuid(paymentBookingUuid)
+			? Optional.empty()
+			: paymentLookupCoalescer.load(PaymentLookupCoalescer.LOOKUP_BOOKING, paymentBookingUuid, loadStamp, () -> {
+				try(PrimaryReads primaryReads = paymentRecentWrites.readsForBookingUuid(paymentBookingUuid)) {
+					return paymentRepository.findByBookingUuid(paymentBookingUuid);
+				}
+			});
 		if(!optionalPayment.isPresent()) {
 			throw new PaymentNotFoundException("No Payment with Booking ID: " + paymentBookingUuid + " exist!");
 		}
+		cache(optionalPayment.get(), loadStamp);
 		return optionalPayment.get();
 	}
 
 	public Payment findByStripeUuid(String paymentStripeUuid) throws PaymentNotFoundException {
-		Optional<Payment> optionalPayment = paymentRepository.findByStripeUuid(paymentStripeUuid);
+		Payment cachedPayment = paymentCache.getByStripeUuid(paymentStripeUuid);
+		if(cachedPayment != null) {
+			return cachedPayment;
+		}
+
+		long loadStamp = paymentCache.loadStamp();
+		Optional<Payment> optionalPayment = !isStorableUuid(paymentStripeUuid)
+			? Optional.empty()
+			: paymentLookupCoalescer.load(PaymentLookupCoalescer.LOOKUP_STRIPE, paymentStripeUuid, loadStamp, () -> {
+				try(PrimaryReads primaryReads = paymentRecentWrites.readsForStripeUuid(paymentStripeUuid)) {
+					return paymentRepository.findByStripeUuid(paymentStripeUuid);
+				}
+			});
 		if(!optionalPayment.isPresent()) {
 			throw new PaymentNotFoundException("No Payment with Passport ID: " + paymentStripeUuid + " exist!");
 		}
+		cache(optionalPayment.get(), loadStamp);
 		return optionalPayment.get();
 	}
 
-	public List<Payment> findBySearchAndFilter(Map<String, String> filterMap) {
-		List<Payment> payments = findAll();
-		if(!filterMap.keySet().isEmpty()) {
-			payments = PaymentFilters.apply(payments, filterMap);
+	// A replica read of a payment this instance just wrote may predate the write - return it, but do not cache it
+	private void cache(Payment payment, long loadStamp) {
+		if(!paymentRecentWrites.isRecentlyWritten(payment)) {
+			paymentCache.put(payment, loadStamp);
+		}
+	}
+
+	public List<Payment> findBySearchAndFilter(Map<String, String> filterMap) throws PaymentResultTooLargeException {
+		return checkResultSize(search(filterMap, null, maxResultSize + 1));
+	}
+
+	// Matches with an id above afterPaymentId, in id order and at most limit of them
+	private List<Payment> search(Map<String, String> filterMap, Integer afterPaymentId, int limit) {
+
+		// In-memory fallback - filters keyset pages in the JVM, so only one page and the matches are held
+		if(SEARCH_MODE_MEMORY.equals(searchMode)) {
+			List<Payment> matches = new ArrayList<>();
+			List<Payment> payments = paymentRepository.findPage(null, afterPaymentId, MEMORY_SEARCH_PAGE_SIZE);
+			while(!payments.isEmpty()) {
+				List<Payment> pageMatches = filterMap.keySet().isEmpty() ? payments : PaymentFilters.apply(payments, filterMap);
+				for(Payment payment : pageMatches) {
+					matches.add(payment);
+					if(matches.size() == limit) {
+						return matches;
+					}
+				}
+				if(payments.size() < MEMORY_SEARCH_PAGE_SIZE) {
+					break;
+				}
+				payments = paymentRepository.findPage(null, payments.get(payments.size() - 1).getPaymentId(), MEMORY_SEARCH_PAGE_SIZE);
+			}
+			return matches;
+		}
+		// The database answers until the index or snapshot has finished loading, rather than a partial copy
+		boolean indexLoaded = SEARCH_MODE_INDEX.equals(searchMode) && paymentSearchIndex.isLoaded();
+		boolean snapshotLoaded = SEARCH_MODE_SNAPSHOT.equals(searchMode) && paymentSnapshot.isLoaded();
+		if(indexLoaded || snapshotLoaded) {
+			List<Payment> payments = indexLoaded
+				? paymentSearchIndex.search(filterMap)
+				: paymentSnapshot.search(filterMap);
+			return payments.stream()
+				.filter(i -> afterPaymentId == null || i.getPaymentId() > afterPaymentId)
+				.limit(limit)
+				.collect(Collectors.toList());
+		}
+		return paymentRepository.findPage(PaymentSpecifications.apply(filterMap, isBinaryUuidStorage()), afterPaymentId, limit);
+	}
+
+	// Rejects a result the caller should have paged through, before it is serialized
+	private List<Payment> checkResultSize(List<Payment> payments) throws PaymentResultTooLargeException {
+		if(payments.size() > maxResultSize) {
+			throw new PaymentResultTooLargeException(
+				"More than " + maxResultSize + " payments match, page through them with limit and after or narrow the search."
+			);
 		}
 		return payments;
 	}
 
+	public PaymentPage findPage(Map<String, String> filterMap, Integer pageSize, String cursor) 
+	throws PaymentCursorInvalidException {
+		Integer afterPaymentId = PaymentCursors.decode(cursor);
+		int limit = pageSize != null
+			? Math.max(1, Math.min(pageSize, maxPageSize))
+			: defaultPageSize;
+
+		// Read one row past the page to know whether another page follows
+		List<Payment> payments = search(filterMap, afterPaymentId, limit + 1);
+
+		if(payments.size() <= limit) {
+			return new PaymentPage(payments, null);
+		}
+		payments = payments.subList(0, limit);
+		return new PaymentPage(payments, PaymentCursors.encode(payments.get(limit - 1).getPaymentId()));
+	}
+
+	// Counts per status from a single GROUP BY, cached for payments.stats.time-to-live-ms
+	public PaymentStats findStats() {
+		return paymentCache.getStats(this::countByStatus);
+	}
+
+	private PaymentStats countByStatus() {
+		Map<PaymentStatus, Long> statusCounts = new EnumMap<>(PaymentStatus.class);
+		for(PaymentStatus paymentStatus : PaymentStatus.values()) {
+			statusCounts.put(paymentStatus, 0L);
+		}
+		long totalCount = 0;
+		for(PaymentStatusCount statusCount : paymentRepository.countByStatus()) {
+			statusCounts.put(statusCount.getPaymentStatus(), statusCount.getPaymentCount());
+			totalCount += statusCount.getPaymentCount();
+		}
+		return new PaymentStats(totalCount, statusCounts);
+	}
+
+	@Transactional(rollbackFor = Exception.class)
 	public Payment insert(String paymentBookingUuid, String paymentStripeUuid, String paymentStatus)
-		throws PaymentAlreadyExistsException, PaymentStatusNotFoundException {
+		throws PaymentAlreadyExistsException, PaymentStatusNotFoundException, PaymentUuidInvalidException {
 
 		// Validate Payment Status
-		if(Boolean.FALSE.equals(validatePaymentStatus(paymentStatus))) {
-			throw new PaymentStatusNotFoundException(
-				"\"" + paymentStatus + "\" is not a valid Payment Status. Acceptable Payment Statuses are: \"" +
-				Arrays.toString(validPaymentStatuses) + "\""
+		PaymentStatus validPaymentStatus = validatePaymentStatus(paymentStatus);
+		validatePaymentUuids(paymentBookingUuid, paymentStripeUuid);
+
+		// The unique Stripe UUID index rejects duplicates - no need to look first
+		Payment newPayment = saveUniqueStripeUuid(new Payment(paymentBookingUuid, paymentStripeUuid, validPaymentStatus));
+		paymentOutbox.record(PaymentEventType.CREATED, newPayment);
+		paymentRecentWrites.record(newPayment);
+		paymentCache.evict(newPayment);
+		paymentSearchIndex.put(newPayment);
+		paymentSnapshot.put(newPayment);
+		return newPayment;
+	}
+
+	@Transactional
+	public List<PaymentBatchResult> insertAll(List<Map<String, String>> paymentMaps) 
+	throws PaymentBatchTooLargeException {
+		if(paymentMaps.size() > maxBatchSize) {
+			throw new PaymentBatchTooLargeException(
+				"A Payment batch may hold at most " + maxBatchSize + " payments, received " + paymentMaps.size() + "."
 			);
 		}
 
-		// Verify a Payment with this Stripe Uuid does not already exist
-		try {
-			findByStripeUuid(paymentStripeUuid);
-			throw new PaymentAlreadyExistsException(
-				"A Payment with the Stripe UUID: " + 
-				paymentStripeUuid + " already exists."
-			);
-		} 
-		catch(PaymentNotFoundException err) {
-			return paymentRepository.save(
-				new Payment(paymentBookingUuid, paymentStripeUuid, paymentStatus)
+		PaymentBatchResult[] results = new PaymentBatchResult[paymentMaps.size()];
+
+		// Validate every Payment Status up front
+		Set<String> paymentStripeUuids = new HashSet<>();
+		for(int i = 0; i < paymentMaps.size(); i++) {
+			String paymentStatus = paymentMaps.get(i).get("paymentStatus");
+			if(PaymentStatus.fromName(paymentStatus) == null) {
+				results[i] = new PaymentBatchResult(i, HttpStatus.BAD_REQUEST.value(), null, buildInvalidPaymentStatusMessage(paymentStatus));
+			} else if(!isStorableUuid(paymentMaps.get(i).get("paymentBookingUuid")) || !isStorableUuid(paymentMaps.get(i).get("paymentStripeUuid"))) {
+				results[i] = new PaymentBatchResult(i, HttpStatus.BAD_REQUEST.value(), null, INVALID_UUID_MESSAGE);
+			} else {
+				paymentStripeUuids.add(paymentMaps.get(i).get("paymentStripeUuid"));
+			}
+		}
+
+		// Verify no Payment with these Stripe UUIDs already exists - one query for the whole batch
+		Set<String> takenStripeUuids = new HashSet<>();
+		if(!paymentStripeUuids.isEmpty()) {
+			for(Payment existingPayment : paymentRepository.findAllWithStripeUuids(paymentStripeUuids)) {
+				takenStripeUuids.add(existingPayment.getPaymentStripeUuid());
+			}
+		}
+
+		List<Integer> newPaymentIndexes = new ArrayList<>();
+		List<Payment> newPayments = new ArrayList<>();
+		for(int i = 0; i < paymentMaps.size(); i++) {
+			if(results[i] != null) {
+				continue;
+			}
+			Map<String, String> paymentMap = paymentMaps.get(i);
+			String paymentStripeUuid = paymentMap.get("paymentStripeUuid");
+
+			// Stripe UUIDs must also be unique within the batch itself
+			if(!takenStripeUuids.add(paymentStripeUuid)) {
+				results[i] = new PaymentBatchResult(
+					i, HttpStatus.CONFLICT.value(), null, 
+					"A Payment with the Stripe UUID: " + paymentStripeUuid + " already exists."
+				);
+				continue;
+			}
+			newPaymentIndexes.add(i);
+			newPayments.add(new Payment(
+				paymentMap.get("paymentBookingUuid"), paymentStripeUuid, PaymentStatus.fromName(paymentMap.get("paymentStatus"))
+			));
+		}
+
+		// Ids come from a pooled sequence, so Hibernate can batch these inserts
+		List<Payment> savedPayments = paymentRepository.saveAll(newPayments);
+		paymentOutbox.recordAll(PaymentEventType.CREATED, savedPayments);
+		for(int i = 0; i < savedPayments.size(); i++) {
+			Payment savedPayment = savedPayments.get(i);
+			paymentRecentWrites.record(savedPayment);
+			paymentCache.evict(savedPayment);
+			paymentSearchIndex.put(savedPayment);
+			paymentSnapshot.put(savedPayment);
+			results[newPaymentIndexes.get(i)] = new PaymentBatchResult(
+				newPaymentIndexes.get(i), HttpStatus.CREATED.value(), savedPayment, null
 			);
 		}
+		return Arrays.asList(results);
 	}
 
-	public Payment update(Integer paymentId, String paymentBookingUuid, String paymentStripeUuid, String paymentStatus)
-		throws PaymentAlreadyExistsException, PaymentNotFoundException, PaymentStatusNotFoundException {	
+	// paymentVersion - the version the caller last read, or null to update whatever version is current.
+	// Existence and version are checked by the UPDATE itself, the row is only read again when it fails.
+	@Transactional(rollbackFor = Exception.class)
+	public Payment update(Integer paymentId, String paymentBookingUuid, String paymentStripeUuid, String paymentStatus, Integer paymentVersion)
+		throws PaymentAlreadyExistsException, PaymentNotFoundException, PaymentStatusNotFoundException, PaymentUuidInvalidException, 
+		PaymentVersionConflictException {	
 
 		// Validate Payment Status
-		if(Boolean.FALSE.equals(validatePaymentStatus(paymentStatus))) {
-			throw new PaymentStatusNotFoundException(
-				"\"" + paymentStatus + "\" is not a valid Payment Status. Acceptable Payment Statuses are: \"" +
-				Arrays.toString(validPaymentStatuses) + "\""
+		PaymentStatus validPaymentStatus = validatePaymentStatus(paymentStatus);
+		validatePaymentUuids(paymentBookingUuid, paymentStripeUuid);
+
+		Integer expectedVersion = paymentVersion;
+		if(expectedVersion == null) {
+			expectedVersion = paymentRepository.findVersionById(paymentId)
+				.orElseThrow(() -> new PaymentNotFoundException("No Payment with ID: " + paymentId + " exist!"));
+		}
+
+		// If changing the Stripe UUID, the unique Stripe UUID index rejects duplicates
+		Integer currentVersion = expectedVersion;
+		int updatedCount = uniqueStripeUuid(paymentStripeUuid, () -> paymentRepository.updateWithVersion(
+			paymentId, paymentBookingUuid, paymentStripeUuid, validPaymentStatus, currentVersion
+		));
+		if(updatedCount == 0) {
+			throwModificationFailure(paymentId, expectedVersion);
+		}
+
+		Payment updatedPayment = new Payment(paymentId, paymentBookingUuid, paymentStripeUuid, validPaymentStatus);
+		updatedPayment.setPaymentVersion(expectedVersion + 1);
+		paymentOutbox.record(PaymentEventType.UPDATED, updatedPayment);
+		paymentRecentWrites.record(updatedPayment);
+		paymentCache.evict(updatedPayment);
+		paymentSearchIndex.put(updatedPayment);
+		paymentSnapshot.put(updatedPayment);
+		paymentSubscriptions.publish(updatedPayment);
+		return updatedPayment;
+	}
+
+	// Moves many payments to a new status with set-based UPDATEs - either the
+	// given paymentIds, or when none are given every payment with fromStatus.
+	@Transactional
+	public PaymentStatusUpdateResult updateStatuses(List<Integer> paymentIds, String fromStatus, String paymentStatus)
+		throws PaymentStatusNotFoundException {
+
+		// Validate Payment Status
+		PaymentStatus validPaymentStatus = validatePaymentStatus(paymentStatus);
+
+		// The fromStatus UPDATE re-checks the status, a payment moved on since its id was selected is left alone
+		PaymentStatus validFromStatus = paymentIds == null ? validatePaymentStatus(fromStatus) : null;
+
+		List<Integer> targetPaymentIds;
+		List<Integer> missingPaymentIds = new ArrayList<>();
+		if(paymentIds != null) {
+			Set<Integer> existingPaymentIds = new HashSet<>();
+			for(List<Integer> chunk : chunk(new ArrayList<>(new HashSet<>(paymentIds)))) {
+				existingPaymentIds.addAll(paymentRepository.findAllExistingIds(chunk));
+			}
+			targetPaymentIds = new ArrayList<>(existingPaymentIds);
+			for(Integer paymentId : paymentIds) {
+				if(!existingPaymentIds.contains(paymentId)) {
+					missingPaymentIds.add(paymentId);
+				}
+			}
+		} else {
+			targetPaymentIds = paymentRepository.findAllIdsWithStatus(validFromStatus);
+		}
+
+		int updatedCount = 0;
+		for(List<Integer> chunk : chunk(targetPaymentIds)) {
+			int chunkUpdatedCount = validFromStatus != null
+				? paymentRepository.updateStatusWithIdsAndStatus(chunk, validFromStatus, validPaymentStatus)
+				: paymentRepository.updateStatusWithIds(chunk, validPaymentStatus);
+			updatedCount += chunkUpdatedCount;
+
+			// Skipped or deleted rows mean the chunk must be read back to know which payments changed
+			List<Integer> updatedPaymentIds = chunk;
+			if(chunkUpdatedCount < chunk.size() || paymentOutbox.isEnabled() || paymentSubscriptions.hasSubscribers(chunk)) {
+				List<Payment> updatedPayments = paymentRepository.findAllById(chunk).stream()
+					.filter(i -> i.getPaymentStatus() == validPaymentStatus)
+					.collect(Collectors.toList());
+				updatedPaymentIds = updatedPayments.stream()
+					.map(Payment::getPaymentId)
+					.collect(Collectors.toList());
+				paymentOutbox.recordAll(PaymentEventType.STATUS_CHANGED, updatedPayments);
+				paymentSubscriptions.publishAll(updatedPayments);
+			}
+			for(Integer paymentId : updatedPaymentIds) {
+				paymentRecentWrites.record(paymentId);
+				paymentCache.evictById(paymentId);
+				paymentSearchIndex.updateStatus(paymentId, validPaymentStatus);
+				paymentSnapshot.updateStatus(paymentId, validPaymentStatus);
+			}
+		}
+		return new PaymentStatusUpdateResult(updatedCount, missingPaymentIds);
+	}
+
+	// paymentVersion - the version the caller last read, or null to delete whatever version is current
+	@Transactional(rollbackFor = Exception.class)
+	public String delete(Integer id, Integer paymentVersion) 
+	throws IllegalArgumentException, PaymentNotFoundException, PaymentVersionConflictException {
+		// Locked, so the DELETED event carries the version that was actually deleted
+		Payment payment = paymentRepository.findLockedById(id)
+			.orElseThrow(() -> new PaymentNotFoundException("No Payment with ID: " + id + " exist!"));
+		if(paymentVersion != null && !paymentVersion.equals(payment.getPaymentVersion())) {
+			throw new PaymentVersionConflictException(
+				"Payment with ID: " + id + " was modified since version " + paymentVersion + " was read."
 			);
 		}
+		paymentRepository.deleteWithId(id);
+		paymentOutbox.recordDeleted(payment);
+		paymentRecentWrites.record(id);
+		paymentCache.evictById(id);
+		paymentSearchIndex.remove(id);
+		paymentSnapshot.remove(id);
+		paymentSubscriptions.publishDeleted(id);
+		return "Payment with ID: " + id + " was deleted.";
+	}
+
+	// Why a versioned write touched no row - the Payment is gone, or another write got there first
+	private void throwModificationFailure(Integer paymentId, Integer paymentVersion) 
+	throws PaymentNotFoundException, PaymentVersionConflictException {
+		if(!paymentRepository.existsById(paymentId)) {
+			throw new PaymentNotFoundException("No Payment with ID: " + paymentId + " exist!");
+		}
+		throw new PaymentVersionConflictException(
+			"Payment with ID: " + paymentId + " was modified since version " + paymentVersion + " was read."
+		);
+	}
 
-		// Verify the Payment exists
-		Payment currentPayment = findById(paymentId);
+	private Payment saveUniqueStripeUuid(Payment payment) throws PaymentAlreadyExistsException {
+		return uniqueStripeUuid(payment.getPaymentStripeUuid(), () -> paymentRepository.saveAndFlush(payment));
+	}
 
-		// If changing the Stripe UUID, verify a Payment with this Stripe UUID does not already exist
-		if(!currentPayment.getPaymentStripeUuid().equals(paymentStripeUuid)) {
-			try {
-				findByStripeUuid(paymentStripeUuid);
+	private <T> T uniqueStripeUuid(String paymentStripeUuid, Supplier<T> write) throws PaymentAlreadyExistsException {
+		try {
+			return write.get();
+		} 
+		catch(DataIntegrityViolationException err) {
+			if(isStripeUuidViolation(err)) {
 				throw new PaymentAlreadyExistsException(
 					"A Payment with the Stripe UUID: " + 
 					paymentStripeUuid + " already exists."
 				);
-			} 
-			catch(PaymentNotFoundException err) {/* Do nothing - payment not found means we're good to go */}
+			}
+			throw err;
 		}
-		return paymentRepository.save(new Payment(paymentId, paymentBookingUuid, paymentStripeUuid, paymentStatus));
-	}
-
-	public String delete(Integer id) throws IllegalArgumentException, PaymentNotFoundException {
-		findById(id);
-		paymentRepository.deleteById(id);
-		return "Payment with ID: " + id + " was deleted.";
 	}
 
-	private Boolean validatePaymentStatus(String paymentStatus) {
-		for(String validStatus : validPaymentStatuses) {
-			if(validStatus.equals(paymentStatus)) {
+	private boolean isStripeUuidViolation(DataIntegrityViolationException err) {
+		for(Throwable cause = err; cause != null; cause = cause.getCause()) {
+			String violation = cause instanceof ConstraintViolationException
+				? ((ConstraintViolationException) cause).getConstraintName()
+				: cause.getMessage();
+			if(violation != null && violation.toLowerCase(Locale.ROOT).contains(Payment.STRIPE_UUID_INDEX)) {
 				return true;
 			}
 		}
 		return false;
 	}
+
+	private <T> List<List<T>> chunk(List<T> items) {
+		List<List<T>> chunks = new ArrayList<>();
+		for(int i = 0; i < items.size(); i += updateChunkSize) {
+			chunks.add(items.subList(i, Math.min(i + updateChunkSize, items.size())));
+		}
+		return chunks;
+	}
+
+	private String buildInvalidPaymentStatusMessage(String paymentStatus) {
+		return "\"" + paymentStatus + "\" is not a valid Payment Status. Acceptable Payment Statuses are: \"" +
+			Arrays.toString(PaymentStatus.values()) + "\"";
+	}
+
+	private boolean isBinaryUuidStorage() {
+		return UUID_STORAGE_BINARY.equals(uuidStorage);
+	}
+
+	// Binary columns only hold UUIDs - anything else could never have been stored
+	private boolean isStorableUuid(String uuid) {
+		return !isBinaryUuidStorage() || UuidBinaryConverter.isCanonical(uuid);
+	}
+
+	private void validatePaymentUuids(String paymentBookingUuid, String paymentStripeUuid) 
+	throws PaymentUuidInvalidException {
+		if(!isStorableUuid(paymentBookingUuid) || !isStorableUuid(paymentStripeUuid)) {
+			throw new PaymentUuidInvalidException(INVALID_UUID_MESSAGE);
+		}
+	}
+
+	private PaymentStatus validatePaymentStatus(String paymentStatus) throws PaymentStatusNotFoundException {
+		PaymentStatus validPaymentStatus = PaymentStatus.fromName(paymentStatus);
+		if(validPaymentStatus == null) {
+			throw new PaymentStatusNotFoundException(buildInvalidPaymentStatusMessage(paymentStatus));
+		}
+		return validPaymentStatus;
+	}
 }
@@ -0,0 +1,75 @@
+package com.ss.utopia.snapshots;
+
+import java.util.Arrays;
+
+// Open addressing int -> int map, so the row lookup by payment id does not box
+// an Integer key and value per payment.
+class IntIntMap {
+
+	private static final int EMPTY = Integer.MIN_VALUE;
+	static final int MISSING = -1;
+
+	private int[] keys;
+	private int[] values;
+	private int size;
+
+	IntIntMap(int expectedSize) {
+		int capacity = Integer.highestOneBit(Math.max(4, expectedSize * 2) - 1) << 1;
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+	}
+
+	int get(int key) {
+		int mask = keys.length - 1;
+		for(int slot = mix(key) & mask; keys[slot] != EMPTY; slot = (slot + 1) & mask) {
+			if(keys[slot] == key) {
+				return values[slot];
+			}
+		}
+		return MISSING;
+	}
+
+	void put(int key, int value) {
+		if((size + 1) * 2 > keys.length) {
+			resize(keys.length * 2);
+		}
+		int mask = keys.length - 1;
+		int slot = mix(key) & mask;
+		while(keys[slot] != EMPTY && keys[slot] != key) {
+			slot = (slot + 1) & mask;
+		}
+		if(keys[slot] == EMPTY) {
+			size++;
+		}
+		keys[slot] = key;
+		values[slot] = value;
+	}
+
+	int size() {
+		return size;
+	}
+
+	long capacity() {
+		return keys.length;
+	}
+
+	private void resize(int capacity) {
+		int[] oldKeys = keys;
+		int[] oldValues = values;
+		keys = new int[capacity];
+		values = new int[capacity];
+		Arrays.fill(keys, EMPTY);
+		size = 0;
+		for(int i = 0; i < oldKeys.length; i++) {
+			if(oldKeys[i] != EMPTY) {
+				put(oldKeys[i], oldValues[i]);
+			}
+		}
+	}
+
+	private static int mix(int key) {
+		int hash = key * 0x9E3779B9;
+		return hash ^ (hash >>> 16);
+	}
+}
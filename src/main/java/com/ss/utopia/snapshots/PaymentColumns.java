@@ -0,0 +1,125 @@
+package com.ss.utopia.snapshots;
+
+import java.util.Arrays;
+
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+
+// Payments laid out column by column - ids and versions in int[]s, PaymentStatus
+// codes in a byte[] and UUIDs packed into long pairs. Not thread safe, PaymentSnapshot
+// guards every access.
+public class PaymentColumns {
+
+	public static final byte DELETED = -1;
+
+	private int[] paymentIds;
+	private byte[] statusCodes;
+	private int[] versions;
+	private final UuidColumn bookingUuids;
+	private final UuidColumn stripeUuids;
+	private final IntIntMap rowsByPaymentId;
+	private int rowCount;
+	private int deletedCount;
+
+	public PaymentColumns(int capacity) {
+		paymentIds = new int[capacity];
+		statusCodes = new byte[capacity];
+		versions = new int[capacity];
+		bookingUuids = new UuidColumn(capacity);
+		stripeUuids = new UuidColumn(capacity);
+		rowsByPaymentId = new IntIntMap(capacity);
+	}
+
+	public int getRowCount() {
+		return rowCount;
+	}
+
+	public int getLiveRowCount() {
+		return rowCount - deletedCount;
+	}
+
+	public int getDeletedCount() {
+		return deletedCount;
+	}
+
+	public int getPaymentId(int row) {
+		return paymentIds[row];
+	}
+
+	public byte getStatusCode(int row) {
+		return statusCodes[row];
+	}
+
+	public UuidColumn getBookingUuids() {
+		return bookingUuids;
+	}
+
+	public UuidColumn getStripeUuids() {
+		return stripeUuids;
+	}
+
+	public Payment materialize(int row) {
+		Payment payment = new Payment(
+			paymentIds[row],
+			bookingUuids.get(row),
+			stripeUuids.get(row),
+			PaymentStatus.fromCode(statusCodes[row])
+		);
+		payment.setPaymentVersion(versions[row]);
+		return payment;
+	}
+
+	// Keeps the held row when it is at least as new, or was deleted - a refresh page
+	// read before a change committed must not undo it
+	public void put(Payment payment) {
+		int version = payment.getPaymentVersion() != null ? payment.getPaymentVersion() : 0;
+		int row = rowsByPaymentId.get(payment.getPaymentId());
+		if(row != IntIntMap.MISSING && (statusCodes[row] == DELETED || versions[row] >= version)) {
+			return;
+		}
+		if(row == IntIntMap.MISSING) {
+			row = rowCount++;
+			ensureCapacity(rowCount);
+			paymentIds[row] = payment.getPaymentId();
+			rowsByPaymentId.put(payment.getPaymentId(), row);
+		}
+		bookingUuids.set(row, payment.getPaymentBookingUuid());
+		stripeUuids.set(row, payment.getPaymentStripeUuid());
+		statusCodes[row] = payment.getPaymentStatus().getCode();
+		versions[row] = version;
+	}
+
+	// The new version is not known here, so the held one stays until a refresh reads the row
+	public void updateStatus(int paymentId, PaymentStatus paymentStatus) {
+		int row = rowsByPaymentId.get(paymentId);
+		if(row != IntIntMap.MISSING && statusCodes[row] != DELETED) {
+			statusCodes[row] = paymentStatus.getCode();
+		}
+	}
+
+	// Deleted rows stay as tombstones until the snapshot is rebuilt
+	public void remove(int paymentId) {
+		int row = rowsByPaymentId.get(paymentId);
+		if(row != IntIntMap.MISSING && statusCodes[row] != DELETED) {
+			statusCodes[row] = DELETED;
+			bookingUuids.clear(row);
+			stripeUuids.clear(row);
+			deletedCount++;
+		}
+	}
+
+	public long estimatedMemoryBytes() {
+		return paymentIds.length * 4L + statusCodes.length + versions.length * 4L
+			+ bookingUuids.estimatedMemoryBytes() + stripeUuids.estimatedMemoryBytes()
+			+ rowsByPaymentId.capacity() * 8L;
+	}
+
+	private void ensureCapacity(int rows) {
+		if(rows > paymentIds.length) {
+			int capacity = Math.max(rows, paymentIds.length + (paymentIds.length >> 1) + 1);
+			paymentIds = Arrays.copyOf(paymentIds, capacity);
+			statusCodes = Arrays.copyOf(statusCodes, capacity);
+			versions = Arrays.copyOf(versions, capacity);
+		}
+	}
+}
@@ -0,0 +1,116 @@
+package com.ss.utopia.snapshots;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+import com.ss.utopia.filters.PaymentFilters;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+import com.ss.utopia.readmodels.PaymentReadModel;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.boot.context.event.ApplicationReadyEvent;
+import org.springframework.context.event.EventListener;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// Columnar read model of every payment, used when payments.search.mode=snapshot.
+// Searches scan the primitive columns and only build Payment objects for the
+// matching rows. Loaded on startup in keyset pages, then kept current as
+// described in PaymentReadModel.
+@Component
+public class PaymentSnapshot extends PaymentReadModel implements MeterBinder {
+
+	private static final String SEARCH_MODE_SNAPSHOT = "snapshot";
+
+	private PaymentColumns columns = new PaymentColumns(16);
+
+	public PaymentSnapshot(
+		@Value("${payments.search.mode:database}") String searchMode,
+		@Value("${payments.snapshot.page-size:10000}") int pageSize,
+		@Value("${payments.snapshot.refresh-overlap-ms:60000}") long refreshOverlapMs
+	) {
+		super(SEARCH_MODE_SNAPSHOT.equals(searchMode), pageSize, refreshOverlapMs);
+	}
+
+	public void put(Payment payment) {
+		if(!isEnabled()) {
+			return;
+		}
+		Payment snapshotPayment = payment.copy();
+		apply(() -> columns.put(snapshotPayment));
+	}
+
+	public void updateStatus(Integer paymentId, PaymentStatus paymentStatus) {
+		apply(() -> columns.updateStatus(paymentId, paymentStatus));
+	}
+
+	public void remove(Integer paymentId) {
+		apply(() -> columns.remove(paymentId));
+	}
+
+	// Same results as PaymentFilters.apply over every payment, ordered by id
+	public List<Payment> search(Map<String, String> filterMap) {
+		return withReadLock(() -> {
+			int[] rows = PaymentFilters.scan(columns, filterMap);
+			List<Payment> payments = new ArrayList<>(rows.length);
+			for(int row : rows) {
+				payments.add(columns.materialize(row));
+			}
+			payments.sort((a, b) -> Integer.compare(a.getPaymentId(), b.getPaymentId()));
+			return payments;
+		});
+	}
+
+	@Override
+	@EventListener(ApplicationReadyEvent.class)
+	@Scheduled(
+		initialDelayString = "${payments.snapshot.rebuild-interval-ms:3600000}",
+		fixedDelayString = "${payments.snapshot.rebuild-interval-ms:3600000}"
+	)
+	public void rebuild() {
+		super.rebuild();
+	}
+
+	@Override
+	@Scheduled(fixedDelayString = "${payments.snapshot.refresh-interval-ms:5000}")
+	public void refresh() {
+		super.refresh();
+	}
+
+	public int size() {
+		return columns.getLiveRowCount();
+	}
+
+	public long estimatedMemoryBytes() {
+		return withReadLock(() -> columns.estimatedMemoryBytes());
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("payments.snapshot.payments", this, PaymentSnapshot::size)
+			.description("Payments held by the columnar snapshot")
+			.register(registry);
+		Gauge.builder("payments.snapshot.memory", this, PaymentSnapshot::estimatedMemoryBytes)
+			.description("Estimated heap held by the columnar snapshot")
+			.baseUnit("bytes")
+			.register(registry);
+	}
+
+	@Override
+	protected Runnable read() {
+		PaymentColumns rebuiltColumns = new PaymentColumns(Math.max(16, (int) paymentRepository.count()));
+		load(null, page -> page.forEach(rebuiltColumns::put));
+		return () -> columns = rebuiltColumns;
+	}
+
+	@Override
+	protected void refreshed(Payment payment) {
+		columns.put(payment);
+	}
+}
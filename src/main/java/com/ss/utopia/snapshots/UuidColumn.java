@@ -0,0 +1,122 @@
+package com.ss.utopia.snapshots;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.UUID;
+
+import com.ss.utopia.converters.UuidBinaryConverter;
+import com.ss.utopia.filters.PaymentFilters;
+
+// One UUID field of every snapshot row, packed as two longs per row. Values
+// that are not lower-case canonical UUIDs are kept as Strings on the side.
+public class UuidColumn {
+
+	private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+	private static final int UUID_LENGTH = 36;
+
+	// Nibble read for each character of the canonical form, -1 for the dashes
+	private static final int[] NIBBLE_AT = new int[UUID_LENGTH];
+
+	static {
+		int nibble = 0;
+		for(int position = 0; position < UUID_LENGTH; position++) {
+			boolean isDash = position == 8 || position == 13 || position == 18 || position == 23;
+			NIBBLE_AT[position] = isDash ? -1 : nibble++;
+		}
+	}
+
+	private long[] packedUuids;
+	private final BitSet rawRows = new BitSet();
+	private final Map<Integer, String> rawUuids = new HashMap<>();
+
+	UuidColumn(int capacity) {
+		packedUuids = new long[capacity * 2];
+	}
+
+	// null when uuid has to be kept as a String
+	public static long[] pack(String uuid) {
+		if(!UuidBinaryConverter.isCanonical(uuid)) {
+			return null;
+		}
+		UUID parsedUuid = UUID.fromString(uuid);
+		long[] packedUuid = { parsedUuid.getMostSignificantBits(), parsedUuid.getLeastSignificantBits() };
+		return new UUID(packedUuid[0], packedUuid[1]).toString().equals(uuid) ? packedUuid : null;
+	}
+
+	public String get(int row) {
+		if(rawRows.get(row)) {
+			return rawUuids.get(row);
+		}
+		return new UUID(packedUuids[row * 2], packedUuids[row * 2 + 1]).toString();
+	}
+
+	// packedValue is pack(value), passed in so it is only parsed once per scan
+	public boolean equalsAt(int row, long[] packedValue, String value) {
+		if(rawRows.get(row)) {
+			return value != null && value.equals(rawUuids.get(row));
+		}
+		return packedValue != null && packedUuids[row * 2] == packedValue[0] && packedUuids[row * 2 + 1] == packedValue[1];
+	}
+
+	// Matches the lower-cased term against the hex digits without building the String
+	public boolean containsAt(int row, String lowerTerm) {
+		if(rawRows.get(row)) {
+			String rawUuid = rawUuids.get(row);
+			return rawUuid != null && PaymentFilters.containsIgnoreCase(rawUuid, lowerTerm);
+		}
+		long mostSigBits = packedUuids[row * 2];
+		long leastSigBits = packedUuids[row * 2 + 1];
+		int termLength = lowerTerm.length();
+		for(int start = 0; start + termLength <= UUID_LENGTH; start++) {
+			int matched = 0;
+			while(matched < termLength && charAt(mostSigBits, leastSigBits, start + matched) == lowerTerm.charAt(matched)) {
+				matched++;
+			}
+			if(matched == termLength) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	void set(int row, String uuid) {
+		ensureCapacity(row + 1);
+		long[] packedUuid = pack(uuid);
+		if(packedUuid == null) {
+			rawRows.set(row);
+			rawUuids.put(row, uuid);
+			packedUuids[row * 2] = 0;
+			packedUuids[row * 2 + 1] = 0;
+		} else {
+			rawRows.clear(row);
+			rawUuids.remove(row);
+			packedUuids[row * 2] = packedUuid[0];
+			packedUuids[row * 2 + 1] = packedUuid[1];
+		}
+	}
+
+	void clear(int row) {
+		set(row, null);
+	}
+
+	long estimatedMemoryBytes() {
+		return packedUuids.length * 8L + rawUuids.size() * 96L;
+	}
+
+	private void ensureCapacity(int rows) {
+		if(rows * 2 > packedUuids.length) {
+			packedUuids = Arrays.copyOf(packedUuids, Math.max(rows * 2, packedUuids.length + (packedUuids.length >> 1) + 2));
+		}
+	}
+
+	private static char charAt(long mostSigBits, long leastSigBits, int position) {
+		int nibble = NIBBLE_AT[position];
+		if(nibble < 0) {
+			return '-';
+		}
+		long bits = nibble < 16 ? mostSigBits : leastSigBits;
+		return HEX_DIGITS[(int) (bits >>> (60 - 4 * (nibble & 15))) & 0xF];
+	}
+}
@@ -0,0 +1,314 @@
+package com.ss.utopia.subscriptions;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import javax.annotation.PreDestroy;
+
+import com.ss.utopia.datasources.PaymentRoutingDataSource;
+import com.ss.utopia.datasources.PaymentRoutingDataSource.PrimaryReads;
+import com.ss.utopia.datasources.PaymentTransactions;
+import com.ss.utopia.exceptions.PaymentNotFoundException;
+import com.ss.utopia.exceptions.PaymentRequestRejectedException;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.repositories.PaymentRepository;
+
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.http.MediaType;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Component;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter;
+import org.springframework.web.servlet.mvc.method.annotation.SseEmitter.SseEventBuilder;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.binder.MeterBinder;
+
+// Server-Sent Event subscriptions to single payments. PaymentService hands over
+// every payment it changes once the change commits, and each subscriber to that
+// payment gets it as a "payment" event, or a "deleted" event that ends the stream.
+// Events are queued in a small per-subscriber buffer and written by a few
+// dispatcher threads, so a slow client never holds up the writer - when its
+// buffer is full the oldest event is dropped, the newest state always arrives.
+// Changes committed by other instances are found by a batched re-check of every
+// subscribed id each recheck-interval-ms. A subscriber is only sent a version
+// newer than the last one it was sent, whichever path delivered it first.
+@Component
+public class PaymentSubscriptions implements MeterBinder {
+
+	public static final String PAYMENT_EVENT = "payment";
+	public static final String DELETED_EVENT = "deleted";
+	private static final String REJECTED_MESSAGE = "Too many payment subscriptions, please retry.";
+	private static final int RECHECK_CHUNK_SIZE = 1000;
+	private static final Logger LOGGER = LoggerFactory.getLogger(PaymentSubscriptions.class);
+
+	@Autowired
+	private PaymentRepository paymentRepository;
+
+	private final ConcurrentMap<Integer, Set<Subscriber>> subscribersById = new ConcurrentHashMap<>();
+	private final AtomicInteger subscriberCount = new AtomicInteger();
+	private final ExecutorService dispatcher;
+	private final int maxSubscribers;
+	private final int bufferSize;
+	private final long timeoutMs;
+
+	private Counter sentCounter;
+	private Counter droppedCounter;
+
+	public PaymentSubscriptions(
+		@Value("${payments.subscriptions.max-subscribers:10000}") int maxSubscribers,
+		@Value("${payments.subscriptions.buffer-size:8}") int bufferSize,
+		@Value("${payments.subscriptions.timeout-ms:300000}") long timeoutMs,
+		@Value("${payments.subscriptions.dispatch-threads:2}") int dispatchThreads
+	) {
+		this.maxSubscribers = maxSubscribers;
+		this.bufferSize = Math.max(1, bufferSize);
+		this.timeoutMs = timeoutMs;
+		AtomicInteger threadCount = new AtomicInteger();
+		this.dispatcher = Executors.newFixedThreadPool(Math.max(1, dispatchThreads), runnable -> {
+			Thread thread = new Thread(runnable, "payment-subscriptions-" + threadCount.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		});
+	}
+
+	@FunctionalInterface
+	public interface CurrentPayment {
+		Payment read() throws PaymentNotFoundException;
+	}
+
+	// Registers before reading the payment, so a change committed in between is
+	// either already in the row that is read or published to this subscriber.
+	// currentPayment should read the database, not a cache.
+	public SseEmitter subscribe(Integer paymentId, CurrentPayment currentPayment)
+	throws PaymentNotFoundException, PaymentRequestRejectedException {
+		if(subscriberCount.incrementAndGet() > maxSubscribers) {
+			subscriberCount.decrementAndGet();
+			throw new PaymentRequestRejectedException(REJECTED_MESSAGE);
+		}
+		Subscriber subscriber = new Subscriber(paymentId, new SseEmitter(timeoutMs));
+		subscriber.emitter.onCompletion(() -> remove(subscriber));
+		subscriber.emitter.onTimeout(() -> remove(subscriber));
+		subscriber.emitter.onError(err -> remove(subscriber));
+		subscribersById.computeIfAbsent(paymentId, i -> ConcurrentHashMap.newKeySet()).add(subscriber);
+
+		try {
+			subscriber.offer(currentPayment.read().copy());
+		}
+		catch(PaymentNotFoundException | RuntimeException err) {
+			remove(subscriber);
+			throw err;
+		}
+		return subscriber.emitter;
+	}
+
+	// One query per chunk of subscribed ids, however many clients wait on them
+	@Scheduled(fixedDelayString = "${payments.subscriptions.recheck-interval-ms:2000}")
+	public void recheck() {
+		if(subscriberCount.get() == 0) {
+			return;
+		}
+		List<Integer> paymentIds = new ArrayList<>(subscribersById.keySet());
+		for(int start = 0; start < paymentIds.size(); start += RECHECK_CHUNK_SIZE) {
+			List<Integer> chunk = paymentIds.subList(start, Math.min(start + RECHECK_CHUNK_SIZE, paymentIds.size()));
+			try {
+				recheck(chunk);
+			}
+			catch(RuntimeException err) {
+				// The other chunks' subscribers still get this interval's changes
+				LOGGER.warn("Re-checking {} subscribed payments failed", chunk.size(), err);
+			}
+		}
+	}
+
+	// Read from the primary - a lagging replica would report a just-inserted payment as deleted
+	private void recheck(List<Integer> paymentIds) {
+		List<Payment> payments;
+		try(PrimaryReads primaryReads = PaymentRoutingDataSource.primaryReads()) {
+			payments = paymentRepository.findAllById(paymentIds);
+		}
+		Set<Integer> deletedIds = new HashSet<>(paymentIds);
+		for(Payment payment : payments) {
+			deletedIds.remove(payment.getPaymentId());
+			Payment currentPayment = payment.copy();
+			for(Subscriber subscriber : subscribersOf(currentPayment.getPaymentId())) {
+				subscriber.offer(currentPayment);
+			}
+		}
+		for(Integer paymentId : deletedIds) {
+			for(Subscriber subscriber : subscribersOf(paymentId)) {
+				subscriber.offerDeleted();
+			}
+		}
+	}
+
+	public boolean hasSubscribers(Collection<Integer> paymentIds) {
+		if(subscriberCount.get() == 0) {
+			return false;
+		}
+		for(Integer paymentId : paymentIds) {
+			if(subscribersById.containsKey(paymentId)) {
+				return true;
+			}
+		}
+		return false;
+	}
+
+	public void publish(Payment payment) {
+		if(subscriberCount.get() == 0) {
+			return;
+		}
+		Payment publishedPayment = payment.copy();
+		PaymentTransactions.afterCommit(() -> {
+			for(Subscriber subscriber : subscribersOf(publishedPayment.getPaymentId())) {
+				subscriber.offer(publishedPayment);
+			}
+		});
+	}
+
+	public void publishAll(Collection<Payment> payments) {
+		for(Payment payment : payments) {
+			publish(payment);
+		}
+	}
+
+	public void publishDeleted(Integer paymentId) {
+		if(subscriberCount.get() == 0) {
+			return;
+		}
+		PaymentTransactions.afterCommit(() -> {
+			for(Subscriber subscriber : subscribersOf(paymentId)) {
+				subscriber.offerDeleted();
+			}
+		});
+	}
+
+	public int getSubscriberCount() {
+		return subscriberCount.get();
+	}
+
+	@Override
+	public void bindTo(MeterRegistry registry) {
+		Gauge.builder("payments.subscriptions.active", this, PaymentSubscriptions::getSubscriberCount)
+			.description("Open payment event streams")
+			.register(registry);
+		sentCounter = Counter.builder("payments.subscriptions.sent")
+			.description("Payment events written to subscribers")
+			.register(registry);
+		droppedCounter = Counter.builder("payments.subscriptions.dropped")
+			.description("Payment events dropped from a full subscriber buffer")
+			.register(registry);
+	}
+
+	@PreDestroy
+	public void shutdown() {
+		dispatcher.shutdownNow();
+		for(Set<Subscriber> subscribers : subscribersById.values()) {
+			for(Subscriber subscriber : subscribers) {
+				subscriber.emitter.complete();
+			}
+		}
+	}
+
+	private Set<Subscriber> subscribersOf(Integer paymentId) {
+		Set<Subscriber> subscribers = subscribersById.get(paymentId);
+		return subscribers != null ? subscribers : Collections.<Subscriber>emptySet();
+	}
+
+	private void remove(Subscriber subscriber) {
+		Set<Subscriber> subscribers = subscribersById.get(subscriber.paymentId);
+		if(subscribers != null && subscribers.remove(subscriber)) {
+			subscriberCount.decrementAndGet();
+			subscribersById.computeIfPresent(subscriber.paymentId, (id, i) -> i.isEmpty() ? null : i);
+		}
+	}
+
+	private final class Subscriber {
+
+		private final Integer paymentId;
+		private final SseEmitter emitter;
+		private final ArrayBlockingQueue<SseEventBuilder> buffer = new ArrayBlockingQueue<>(bufferSize);
+		private final AtomicBoolean draining = new AtomicBoolean();
+		private volatile boolean closing;
+		private boolean offered;
+		private Integer offeredVersion;
+
+		private Subscriber(Integer paymentId, SseEmitter emitter) {
+			this.paymentId = paymentId;
+			this.emitter = emitter;
+		}
+
+		// Skips a version this subscriber already has - the re-check sees local changes too
+		private synchronized void offer(Payment payment) {
+			Integer paymentVersion = payment.getPaymentVersion();
+			if(closing || (offered && paymentVersion != null && offeredVersion != null && paymentVersion <= offeredVersion)) {
+				return;
+			}
+			offered = true;
+			offeredVersion = paymentVersion;
+			enqueue(SseEmitter.event().name(PAYMENT_EVENT).data(payment, MediaType.APPLICATION_JSON), false);
+		}
+
+		private synchronized void offerDeleted() {
+			if(!closing) {
+				enqueue(SseEmitter.event().name(DELETED_EVENT).data(paymentId, MediaType.APPLICATION_JSON), true);
+			}
+		}
+
+		private void enqueue(SseEventBuilder event, boolean last) {
+			while(!buffer.offer(event)) {
+				if(buffer.poll() != null && droppedCounter != null) {
+					droppedCounter.increment();
+				}
+			}
+			closing |= last;
+			if(draining.compareAndSet(false, true)) {
+				dispatcher.execute(this::drain);
+			}
+		}
+
+		private void drain() {
+			try {
+				SseEventBuilder event;
+				while((event = buffer.poll()) != null) {
+					emitter.send(event);
+					if(sentCounter != null) {
+						sentCounter.increment();
+					}
+				}
+				if(closing) {
+					emitter.complete();
+					remove(this);
+				}
+			}
+			catch(IOException | IllegalStateException err) {
+				// The client went away - completing releases the async request
+				emitter.complete();
+				remove(this);
+			}
+			finally {
+				draining.set(false);
+			}
+			if(!buffer.isEmpty() && draining.compareAndSet(false, true)) {
+				dispatcher.execute(this::drain);
+			}
+		}
+	}
+}
@@ -0,0 +1,24 @@
+-- Converts the booking and stripe UUID columns from VARCHAR(255) to BINARY(16).
+-- Only applied with the binary-uuid profile. Requires MySQL 8 (UUID_TO_BIN) and
+-- every stored value to be a canonical UUID.
+ALTER TABLE payments
+  ADD COLUMN booking_uuid_bin BINARY(16),
+  ADD COLUMN stripe_uuid_bin BINARY(16);
+
+UPDATE payments
+SET booking_uuid_bin = UUID_TO_BIN(booking_uuid),
+  stripe_uuid_bin = UUID_TO_BIN(stripe_uuid);
+
+DROP INDEX ux_payments_stripe_uuid ON payments;
+DROP INDEX ix_payments_booking_uuid ON payments;
+
+ALTER TABLE payments
+  DROP COLUMN booking_uuid,
+  DROP COLUMN stripe_uuid;
+
+ALTER TABLE payments
+  RENAME COLUMN booking_uuid_bin TO booking_uuid,
+  RENAME COLUMN stripe_uuid_bin TO stripe_uuid;
+
+CREATE UNIQUE INDEX ux_payments_stripe_uuid ON payments (stripe_uuid);
+CREATE INDEX ix_payments_booking_uuid ON payments (booking_uuid);
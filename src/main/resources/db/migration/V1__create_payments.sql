@@ -0,0 +1,21 @@
+-- Baseline schema, matching what spring.jpa.hibernate.ddl-auto=update created
+-- before migrations were introduced. Safe to run against an existing database.
+CREATE TABLE IF NOT EXISTS payments (
+  id INT NOT NULL,
+  booking_uuid VARCHAR(255),
+  stripe_uuid VARCHAR(255),
+  status VARCHAR(255),
+  PRIMARY KEY (id)
+);
+
+-- Pooled id generator for Payment.paymentId (allocation size 50)
+CREATE TABLE IF NOT EXISTS payment_id_sequence (
+  next_val BIGINT
+);
+
+INSERT INTO payment_id_sequence (next_val)
+SELECT 1 FROM DUAL
+WHERE NOT EXISTS (SELECT * FROM payment_id_sequence);
+
+UPDATE payment_id_sequence
+SET next_val = GREATEST(next_val, (SELECT COALESCE(MAX(id), 0) + 51 FROM payments));
@@ -0,0 +1,5 @@
+-- Stripe UUIDs are unique per payment, PaymentService relies on this constraint
+-- instead of checking for an existing payment before every insert and update.
+CREATE UNIQUE INDEX ux_payments_stripe_uuid ON payments (stripe_uuid);
+CREATE INDEX ix_payments_booking_uuid ON payments (booking_uuid);
+CREATE INDEX ix_payments_status ON payments (status);
@@ -0,0 +1,24 @@
+-- Replaces the VARCHAR status with the TINYINT code of PaymentStatus.
+-- Any status outside PENDING, CONFIRMED, APPROVED and REJECTED is left without a code
+-- and fails the NOT NULL below, before the VARCHAR column is dropped. MySQL DDL is not
+-- transactional, so the old column must only go once every row has been converted.
+ALTER TABLE payments ADD COLUMN status_code TINYINT;
+
+UPDATE payments
+SET status_code = CASE status
+  WHEN 'PENDING' THEN 0
+  WHEN 'CONFIRMED' THEN 1
+  WHEN 'APPROVED' THEN 2
+  WHEN 'REJECTED' THEN 3
+END;
+
+-- Strict mode, so a NULL code is an error instead of silently becoming 0 (PENDING)
+SET @saved_sql_mode = @@SESSION.sql_mode;
+SET SESSION sql_mode = CONCAT_WS(',', NULLIF(@@SESSION.sql_mode, ''), 'STRICT_ALL_TABLES');
+ALTER TABLE payments MODIFY COLUMN status_code TINYINT NOT NULL;
+SET SESSION sql_mode = @saved_sql_mode;
+
+DROP INDEX ix_payments_status ON payments;
+ALTER TABLE payments DROP COLUMN status;
+ALTER TABLE payments CHANGE COLUMN status_code status TINYINT NOT NULL;
+CREATE INDEX ix_payments_status ON payments (status);
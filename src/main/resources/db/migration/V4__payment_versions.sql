@@ -0,0 +1,2 @@
+-- Optimistic locking: every update and delete checks and bumps Payment.paymentVersion
+ALTER TABLE payments ADD COLUMN version INT NOT NULL DEFAULT 0;
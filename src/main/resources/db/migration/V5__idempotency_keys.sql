@@ -0,0 +1,11 @@
+-- Responses to POST /payments by Idempotency-Key, used when payments.idempotency.store=jdbc
+CREATE TABLE idempotency_keys (
+  idempotency_key VARCHAR(255) NOT NULL,
+  fingerprint VARCHAR(64) NOT NULL,
+  status SMALLINT NOT NULL,
+  body TEXT,
+  created_at TIMESTAMP NOT NULL,
+  PRIMARY KEY (idempotency_key)
+);
+
+CREATE INDEX ix_idempotency_keys_created_at ON idempotency_keys (created_at);
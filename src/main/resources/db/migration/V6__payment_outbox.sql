@@ -0,0 +1,19 @@
+-- Transactional outbox - one row per payment change, deleted once published
+CREATE TABLE payment_outbox (
+  id BIGINT NOT NULL,
+  event_type VARCHAR(32) NOT NULL,
+  payment_id INT NOT NULL,
+  booking_uuid VARCHAR(255),
+  stripe_uuid VARCHAR(255),
+  status TINYINT,
+  version INT,
+  created_at TIMESTAMP(3) NOT NULL,
+  PRIMARY KEY (id)
+);
+
+-- Pooled id generator for PaymentEvent.eventId (allocation size 50)
+CREATE TABLE payment_event_id_sequence (
+  next_val BIGINT
+);
+
+INSERT INTO payment_event_id_sequence (next_val) VALUES (1);
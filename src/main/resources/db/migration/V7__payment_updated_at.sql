@@ -0,0 +1,6 @@
+-- Change marker for the in-memory read models - MySQL stamps every insert and
+-- update, so other instances can pick up the rows changed since their last refresh
+ALTER TABLE payments
+  ADD COLUMN updated_at TIMESTAMP(3) NOT NULL DEFAULT CURRENT_TIMESTAMP(3) ON UPDATE CURRENT_TIMESTAMP(3);
+
+CREATE INDEX ix_payments_updated_at ON payments (updated_at);
@@ -0,0 +1,123 @@
+package com.ss.utopia;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import javax.persistence.EntityManager;
+
+import com.ss.utopia.converters.UuidBinaryConverter;
+import com.ss.utopia.filters.PaymentSpecifications;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.repositories.PaymentRepository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+
+@DataJpaTest(properties = {
+  "spring.flyway.enabled=false",
+  "spring.jpa.hibernate.ddl-auto=create-drop",
+  "spring.jpa.mapping-resources=META-INF/orm-binary-uuid.xml"
+})
+class PaymentBinaryUuidRepositoryTest {
+
+  private final UuidBinaryConverter converter = new UuidBinaryConverter();
+
+  @Autowired
+  private PaymentRepository paymentRepository;
+
+  @Autowired
+  private EntityManager entityManager;
+
+  private Payment testPayment;
+
+  @BeforeEach
+  void setup() throws Exception {
+    paymentRepository.deleteAll();
+    for(Payment payment : MOCKPaymentRepository.getTestPaymentList()) {
+      paymentRepository.save(new Payment(
+        payment.getPaymentBookingUuid(),
+        payment.getPaymentStripeUuid(),
+        payment.getPaymentStatus()
+      ));
+    }
+    testPayment = MOCKPaymentRepository.getTestPayment();
+    entityManager.flush();
+    entityManager.clear();
+  }
+
+  // UuidBinaryConverter
+  //=======================================================================
+  @Test
+  void test_converter_RoundTripsCanonicalUuid() throws Exception {
+    byte[] bytes = converter.convertToDatabaseColumn(testPayment.getPaymentStripeUuid());
+    assertEquals(16, bytes.length);
+    assertEquals(testPayment.getPaymentStripeUuid(), converter.convertToEntityAttribute(bytes));
+    assertArrayEquals(bytes, converter.convertToDatabaseColumn(testPayment.getPaymentStripeUuid().toUpperCase()));
+  }
+
+  @Test
+  void test_converter_isCanonical() throws Exception {
+    assertTrue(UuidBinaryConverter.isCanonical(testPayment.getPaymentBookingUuid()));
+    assertFalse(UuidBinaryConverter.isCanonical("NotAValidUuid"));
+    assertFalse(UuidBinaryConverter.isCanonical("1-2-3-4-5"));
+    assertFalse(UuidBinaryConverter.isCanonical(null));
+  }
+
+  @Test
+  void test_converter_UppercaseUuid_IsNotCanonical() throws Exception {
+    String uppercaseUuid = testPayment.getPaymentStripeUuid().toUpperCase();
+    // Reads back lowercase, so it would not match the string that was written
+    assertEquals(testPayment.getPaymentStripeUuid(), converter.convertToEntityAttribute(converter.convertToDatabaseColumn(uppercaseUuid)));
+    assertFalse(UuidBinaryConverter.isCanonical(uppercaseUuid));
+  }
+
+  // Stored as 16 bytes
+  //=======================================================================
+  @Test
+  void test_save_StoresSixteenBytes() throws Exception {
+    Object storedUuid = entityManager.createNativeQuery("SELECT stripe_uuid FROM payments WHERE booking_uuid = ?1")
+      .setParameter(1, converter.convertToDatabaseColumn(testPayment.getPaymentBookingUuid()))
+      .getSingleResult();
+    assertArrayEquals(converter.convertToDatabaseColumn(testPayment.getPaymentStripeUuid()), (byte[]) storedUuid);
+  }
+
+  // Lookups
+  //=======================================================================
+  @Test
+  void test_findByBookingAndStripeUuid_ReturnCanonicalStrings() throws Exception {
+    Payment byBookingUuid = paymentRepository.findByBookingUuid(testPayment.getPaymentBookingUuid()).get();
+    assertEquals(testPayment.getPaymentStripeUuid(), byBookingUuid.getPaymentStripeUuid());
+
+    Payment byStripeUuid = paymentRepository.findByStripeUuid(testPayment.getPaymentStripeUuid()).get();
+    assertEquals(byBookingUuid.getPaymentId(), byStripeUuid.getPaymentId());
+    assertEquals(testPayment.getPaymentBookingUuid(), byStripeUuid.getPaymentBookingUuid());
+  }
+
+  @Test
+  void test_findAllWithStripeUuids() throws Exception {
+    List<String> stripeUuids = Arrays.asList(
+      MOCKPaymentRepository.getTestPaymentList().get(0).getPaymentStripeUuid(),
+      MOCKPaymentRepository.getTestPaymentList().get(1).getPaymentStripeUuid()
+    );
+    assertEquals(2, paymentRepository.findAllWithStripeUuids(stripeUuids).size());
+  }
+
+  @Test
+  void test_findAll_WithUuidFilters() throws Exception {
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("paymentStripeUuid", testPayment.getPaymentStripeUuid());
+    assertEquals(1, paymentRepository.findAll(PaymentSpecifications.apply(filterMap, true)).size());
+
+    filterMap.put("paymentStripeUuid", "NotAValidUuid");
+    assertTrue(paymentRepository.findAll(PaymentSpecifications.apply(filterMap, true)).isEmpty());
+  }
+}
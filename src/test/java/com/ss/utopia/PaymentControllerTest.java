@@ -1,7 +1,17 @@
 package com.ss.utopia;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyMap;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
+import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.asyncDispatch;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.delete;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.get;
 import static org.springframework.test.web.servlet.request.MockMvcRequestBuilders.post;
@@ -10,14 +20,31 @@ import static org.springframework.test.web.servlet.result.MockMvcResultMatchers.
 
 import java.util.Map;
 import java.util.Arrays;
+import java.util.EnumMap;
 import java.util.HashMap;
+import java.util.List;
+import java.util.function.Consumer;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
 import com.ss.utopia.exceptions.PaymentAlreadyExistsException;
+import com.ss.utopia.exceptions.PaymentCursorInvalidException;
 import com.ss.utopia.exceptions.PaymentNotFoundException;
+import com.ss.utopia.exceptions.PaymentResultTooLargeException;
 import com.ss.utopia.exceptions.PaymentStatusNotFoundException;
+import com.ss.utopia.exceptions.PaymentVersionConflictException;
+import com.ss.utopia.executors.PaymentExecutor;
+import com.ss.utopia.idempotency.MemoryIdempotencyStore;
+import com.ss.utopia.idempotency.PaymentIdempotency;
 import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+import com.ss.utopia.models.PaymentBatchResult;
+import com.ss.utopia.models.PaymentStatusUpdate;
+import com.ss.utopia.models.PaymentStatusUpdateResult;
+import com.ss.utopia.models.PaymentPage;
+import com.ss.utopia.models.PaymentStats;
+import com.ss.utopia.repositories.PaymentRepository;
 import com.ss.utopia.services.PaymentService;
+import com.ss.utopia.subscriptions.PaymentSubscriptions;
 
 import org.junit.jupiter.api.BeforeEach;
 import org.junit.jupiter.api.Test;
@@ -25,15 +52,19 @@ import org.mockito.Mockito;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.autoconfigure.web.servlet.WebMvcTest;
 import org.springframework.boot.test.mock.mockito.MockBean;
+import org.springframework.context.annotation.Import;
 import org.springframework.test.context.ActiveProfiles;
 import org.springframework.http.HttpHeaders;
 import org.springframework.http.MediaType;
 import org.springframework.test.web.servlet.MockMvc;
 import org.springframework.test.web.servlet.MvcResult;
+import org.springframework.test.web.servlet.RequestBuilder;
+import org.springframework.test.web.servlet.ResultActions;
 import org.springframework.test.web.servlet.setup.MockMvcBuilders;
 import org.springframework.web.context.WebApplicationContext;
 
-@WebMvcTest(controllers = PaymentController.class)
+@WebMvcTest(controllers = PaymentController.class, properties = "payments.subscriptions.recheck-interval-ms=3600000")
+@Import({ PaymentExecutor.class, PaymentIdempotency.class, MemoryIdempotencyStore.class, PaymentSubscriptions.class })
 @ActiveProfiles("Payment Controller Test")
 class PaymentControllerTest {
 
@@ -43,6 +74,12 @@ class PaymentControllerTest {
   @MockBean
   private PaymentService service;
 
+  @MockBean
+  private PaymentRepository paymentRepository;
+
+  @Autowired
+  private PaymentSubscriptions subscriptions;
+
   @Autowired
   private WebApplicationContext webApplicationContext;
 
@@ -59,6 +96,17 @@ class PaymentControllerTest {
   }
 
 
+  // Completes the async dispatch of handlers that returned a CompletableFuture,
+  // so expectations see the final response
+  private ResultActions perform(RequestBuilder request) throws Exception {
+    ResultActions actions = mvc.perform(request);
+    MvcResult result = actions.andReturn();
+    return result.getRequest().isAsyncStarted()
+      ? mvc.perform(asyncDispatch(result))
+      : actions;
+  }
+
+
   // validateModel
   //=======================================================================
   @Test
@@ -66,7 +114,7 @@ class PaymentControllerTest {
     assertEquals(Integer.valueOf(1), MOCKPaymentService.getTestPayment().getPaymentId());
     assertEquals("fa0ff7db-c2da-40bd-ba21-1d7e81faa24a", MOCKPaymentService.getTestPayment().getPaymentBookingUuid());
     assertEquals("a2bf6dd9-b296-4e03-b1ee-55acfd1c196d", MOCKPaymentService.getTestPayment().getPaymentStripeUuid());
-    assertEquals("CONFIRMED", MOCKPaymentService.getTestPayment().getPaymentStatus());
+    assertEquals(PaymentStatus.CONFIRMED, MOCKPaymentService.getTestPayment().getPaymentStatus());
   }
 
 
@@ -76,8 +124,7 @@ class PaymentControllerTest {
   void test_healthCheck_thenStatus200() throws Exception {
     when(service.findAll()).thenReturn(MOCKPaymentService.findAllWithResults());
 
-    MvcResult response = mvc
-      .perform(get(SERVICE_PATH_PAYMENTS + "/health")
+    MvcResult response = perform(get(SERVICE_PATH_PAYMENTS + "/health")
       .headers(headers)
       )
       .andExpect(status().is(200))
@@ -93,8 +140,7 @@ class PaymentControllerTest {
   void test_findAllPayments_withValidPayments_thenStatus200() throws Exception {
     when(service.findAll()).thenReturn(MOCKPaymentService.findAllWithResults());
 
-    MvcResult response = mvc
-      .perform(get(SERVICE_PATH_PAYMENTS)
+    MvcResult response = perform(get(SERVICE_PATH_PAYMENTS)
       .headers(headers)
       )
       .andExpect(status().is(200))
@@ -107,8 +153,7 @@ class PaymentControllerTest {
   void test_findAllPayments_withNoValidPayments_thenStatus204() throws Exception {
     when(service.findAll()).thenReturn(MOCKPaymentService.findAllWithNoResults());
 
-    MvcResult response = mvc
-      .perform(get(SERVICE_PATH_PAYMENTS)
+    MvcResult response = perform(get(SERVICE_PATH_PAYMENTS)
       .headers(headers)
       )
       .andExpect(status().is(204))
@@ -117,6 +162,95 @@ class PaymentControllerTest {
     assertEquals("", response.getResponse().getContentAsString());
   }
 
+  @Test
+  void test_findAllPayments_withTooManyPayments_thenStatus400() throws Exception {
+    when(service.findAll()).thenThrow(new PaymentResultTooLargeException("More than 10000 payments match."));
+
+    perform(get(SERVICE_PATH_PAYMENTS)
+      .headers(headers)
+      )
+      .andExpect(status().is(400))
+      .andReturn();
+  }
+
+
+  @Test
+  void test_findAllPayments_withPageSize_thenStatus200() throws Exception {
+    PaymentPage page = new PaymentPage(MOCKPaymentService.getTestPaymentList().subList(0, 2), "NextCursor");
+    when(service.findPage(anyMap(), eq(2), isNull())).thenReturn(page);
+
+    MvcResult response = perform(get(SERVICE_PATH_PAYMENTS + "?limit=2")
+      .headers(headers)
+      )
+      .andExpect(status().is(200))
+      .andReturn();
+
+    assertEquals(mapper.writeValueAsString(page), response.getResponse().getContentAsString());
+  }
+
+  @Test
+  void test_findAllPayments_withInvalidCursor_thenStatus400() throws Exception {
+    when(service.findPage(anyMap(), isNull(), eq("NotACursor"))).thenThrow(new PaymentCursorInvalidException());
+
+    perform(get(SERVICE_PATH_PAYMENTS + "?after=NotACursor")
+      .headers(headers)
+      )
+      .andExpect(status().is(400))
+      .andReturn();
+  }
+
+
+  // export
+  //=======================================================================
+  @Test
+  @SuppressWarnings("unchecked")
+  void test_export_thenStatus200WithNdjson() throws Exception {
+    doAnswer(invocation -> {
+      Consumer<Payment> consumer = invocation.getArgument(0);
+      MOCKPaymentService.getTestPaymentList().forEach(consumer);
+      return null;
+    }).when(service).exportAll(any(Consumer.class));
+
+    MvcResult asyncResponse = mvc
+      .perform(get(SERVICE_PATH_PAYMENTS + "/export"))
+      .andReturn();
+    assertEquals(1800000L, asyncResponse.getRequest().getAsyncContext().getTimeout());
+    MvcResult response = mvc
+      .perform(asyncDispatch(asyncResponse))
+      .andExpect(status().is(200))
+      .andReturn();
+
+    StringBuilder expected = new StringBuilder();
+    for(Payment payment : MOCKPaymentService.getTestPaymentList()) {
+      expected.append(mapper.writeValueAsString(payment)).append('\n');
+    }
+    assertEquals(expected.toString(), response.getResponse().getContentAsString());
+  }
+
+
+  // findStats
+  //=======================================================================
+  @Test
+  void test_findStats_thenStatus200() throws Exception {
+    Map<PaymentStatus, Long> statusCounts = new EnumMap<>(PaymentStatus.class);
+    statusCounts.put(PaymentStatus.PENDING, 4L);
+    statusCounts.put(PaymentStatus.CONFIRMED, 4L);
+    statusCounts.put(PaymentStatus.APPROVED, 0L);
+    statusCounts.put(PaymentStatus.REJECTED, 1L);
+    when(service.findStats()).thenReturn(new PaymentStats(9L, statusCounts));
+
+    MvcResult response = perform(get(SERVICE_PATH_PAYMENTS + "/stats")
+      .headers(headers)
+      )
+      .andExpect(status().is(200))
+      .andReturn();
+
+    assertEquals(
+      "{\"totalCount\":9,\"statusCounts\":{\"PENDING\":4,\"CONFIRMED\":4,\"APPROVED\":0,\"REJECTED\":1}}",
+      response.getResponse().getContentAsString()
+    );
+  }
+
 
   // findById
   //=======================================================================
@@ -124,8 +258,7 @@ class PaymentControllerTest {
   void test_findById_withValidPayment_thenStatus200() throws Exception {
     when(service.findById(1)).thenReturn(MOCKPaymentService.findById(1));
 
-    MvcResult response = mvc
-      .perform(get(SERVICE_PATH_PAYMENTS + "/1")
+    MvcResult response = perform(get(SERVICE_PATH_PAYMENTS + "/1")
       .headers(headers)
       )
       .andExpect(status().is(200))
@@ -134,12 +267,46 @@ class PaymentControllerTest {
     assertEquals(mapper.writeValueAsString(MOCKPaymentService.getTestPayment()), response.getResponse().getContentAsString());
   }
 
+  @Test
+  void test_findById_KeepsShortAsyncTimeout() throws Exception {
+    when(service.findById(1)).thenReturn(MOCKPaymentService.findById(1));
+
+    MvcResult asyncResponse = mvc
+      .perform(get(SERVICE_PATH_PAYMENTS + "/1"))
+      .andReturn();
+    assertEquals(30000L, asyncResponse.getRequest().getAsyncContext().getTimeout());
+  }
+
+  @Test
+  void test_findById_withoutAcceptHeader_thenJson() throws Exception {
+    when(service.findById(1)).thenReturn(MOCKPaymentService.findById(1));
+
+    MvcResult response = perform(get(SERVICE_PATH_PAYMENTS + "/1"))
+      .andExpect(status().is(200))
+      .andReturn();
+
+    assertTrue(MediaType.APPLICATION_JSON.isCompatibleWith(MediaType.parseMediaType(response.getResponse().getContentType())));
+    assertEquals(mapper.writeValueAsString(MOCKPaymentService.getTestPayment()), response.getResponse().getContentAsString());
+  }
+
+  @Test
+  void test_findById_withXmlAcceptHeader_thenXml() throws Exception {
+    when(service.findById(1)).thenReturn(MOCKPaymentService.findById(1));
+
+    MvcResult response = perform(get(SERVICE_PATH_PAYMENTS + "/1")
+      .accept(MediaType.APPLICATION_XML)
+      )
+      .andExpect(status().is(200))
+      .andReturn();
+
+    assertTrue(response.getResponse().getContentAsString().startsWith("<Payment><paymentId>1</paymentId>"));
+  }
+
   @Test
   void test_findById_withInvalidPayment_thenStatus404() throws Exception {
     when(service.findById(-1)).thenThrow(new PaymentNotFoundException());
 
-    mvc
-      .perform(get(SERVICE_PATH_PAYMENTS + "/-1")
+    perform(get(SERVICE_PATH_PAYMENTS + "/-1")
       .headers(headers)
       )
       .andExpect(status().is(404))
@@ -148,8 +315,7 @@ class PaymentControllerTest {
 
   @Test
   void test_findById_withBadParams_thenStatus400() throws Exception {
-    mvc
-      .perform(get(SERVICE_PATH_PAYMENTS + "/NotAnInteger")
+    perform(get(SERVICE_PATH_PAYMENTS + "/NotAnInteger")
       .headers(headers)
       )
       .andExpect(status().is(400))
@@ -164,8 +330,7 @@ class PaymentControllerTest {
     String bookingUuid = MOCKPaymentService.getTestPayment().getPaymentBookingUuid();
     when(service.findByBookingUuid(bookingUuid)).thenReturn(MOCKPaymentService.getTestPayment());
 
-    MvcResult response = mvc
-      .perform(get(SERVICE_PATH_PAYMENTS + "/booking/" + bookingUuid)
+    MvcResult response = perform(get(SERVICE_PATH_PAYMENTS + "/booking/" + bookingUuid)
       .headers(headers)
       )
       .andExpect(status().is(200))
@@ -179,8 +344,7 @@ class PaymentControllerTest {
     String bookingUuid = "NotValidUuid";
     when(service.findByBookingUuid(bookingUuid)).thenThrow(new PaymentNotFoundException());
 
-    mvc
-      .perform(get(SERVICE_PATH_PAYMENTS + "/booking/" + bookingUuid)
+    perform(get(SERVICE_PATH_PAYMENTS + "/booking/" + bookingUuid)
       .headers(headers)
       )
       .andExpect(status().is(404))
@@ -195,8 +359,7 @@ class PaymentControllerTest {
     String stripeUuid = MOCKPaymentService.getTestPayment().getPaymentStripeUuid();
     when(service.findByStripeUuid(stripeUuid)).thenReturn(MOCKPaymentService.getTestPayment());
 
-    MvcResult response = mvc
-      .perform(get(SERVICE_PATH_PAYMENTS + "/stripe/" + stripeUuid)
+    MvcResult response = perform(get(SERVICE_PATH_PAYMENTS + "/stripe/" + stripeUuid)
       .headers(headers)
       )
       .andExpect(status().is(200))
@@ -210,8 +373,7 @@ class PaymentControllerTest {
     String stripeUuid = "NotValidUuid";
     when(service.findByStripeUuid(stripeUuid)).thenThrow(new PaymentNotFoundException());
 
-    mvc
-      .perform(get(SERVICE_PATH_PAYMENTS + "/stripe/" + stripeUuid)
+    perform(get(SERVICE_PATH_PAYMENTS + "/stripe/" + stripeUuid)
       .headers(headers)
       )
       .andExpect(status().is(404))
@@ -219,6 +381,47 @@ class PaymentControllerTest {
   }
 
 
+  // subscribe
+  //=======================================================================
+  @Test
+  void test_subscribeById_withValidPayment_thenStreamsChanges() throws Exception {
+    Payment payment = MOCKPaymentService.getTestPayment();
+    when(service.findCurrentById(1)).thenReturn(payment);
+
+    MvcResult response = perform(get(SERVICE_PATH_PAYMENTS + "/1/events"))
+      .andExpect(status().is(200))
+      .andReturn();
+    awaitContent(response, "\"CONFIRMED\"");
+
+    Payment updatedPayment = new Payment(1, payment.getPaymentBookingUuid(), payment.getPaymentStripeUuid(), PaymentStatus.REJECTED);
+    subscriptions.publish(updatedPayment);
+    awaitContent(response, "\"REJECTED\"");
+
+    subscriptions.publishDeleted(1);
+    awaitContent(response, "event:deleted");
+    assertEquals(0, subscriptions.getSubscriberCount());
+  }
+
+  @Test
+  void test_subscribeByStripeUuid_withInvalidPayment_thenStatus404() throws Exception {
+    String stripeUuid = "NotValidUuid";
+    when(service.findByStripeUuid(stripeUuid)).thenThrow(new PaymentNotFoundException());
+
+    perform(get(SERVICE_PATH_PAYMENTS + "/stripe/" + stripeUuid + "/events"))
+      .andExpect(status().is(404));
+    assertEquals(0, subscriptions.getSubscriberCount());
+  }
+
+  // Events are written by the dispatcher threads, so wait for them to arrive
+  private void awaitContent(MvcResult response, String expected) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while(!response.getResponse().getContentAsString().contains(expected)) {
+      assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for " + expected);
+      Thread.sleep(10);
+    }
+  }
+
+
   // findBySearchAndFilter
   //=======================================================================
   @Test
@@ -230,8 +433,7 @@ class PaymentControllerTest {
 
     when(service.findBySearchAndFilter(filterMap)).thenReturn(MOCKPaymentService.findAllWithResults());
 
-    MvcResult response = mvc
-      .perform(post(SERVICE_PATH_PAYMENTS + "/search")
+    MvcResult response = perform(post(SERVICE_PATH_PAYMENTS + "/search")
       .headers(headers)
       .content(mapper.writeValueAsString(filterMap))
       )
@@ -250,8 +452,7 @@ class PaymentControllerTest {
 
     when(service.findBySearchAndFilter(filterMap)).thenReturn(MOCKPaymentService.findAllWithNoResults());
 
-    MvcResult response = mvc
-      .perform(post(SERVICE_PATH_PAYMENTS + "/search")
+    MvcResult response = perform(post(SERVICE_PATH_PAYMENTS + "/search")
       .headers(headers)
       .content(mapper.writeValueAsString(filterMap))
       )
@@ -263,8 +464,7 @@ class PaymentControllerTest {
 
   @Test
   void test_findBySearchAndFilter_withInvalidParams_thenStatus400() throws Exception {
-    mvc
-      .perform(post(SERVICE_PATH_PAYMENTS + "/search")
+    perform(post(SERVICE_PATH_PAYMENTS + "/search")
       .headers(headers)
       .content("NotAJSONObject")
       )
@@ -281,16 +481,15 @@ class PaymentControllerTest {
     Map<String, String> filterMap = new HashMap<>();
     filterMap.put("paymentBookingUuid", testPayment.getPaymentBookingUuid());
     filterMap.put("paymentStripeUuid", testPayment.getPaymentStripeUuid());
-    filterMap.put("paymentStatus", testPayment.getPaymentStatus());
+    filterMap.put("paymentStatus", testPayment.getPaymentStatus().name());
 
     when(service.insert(
       testPayment.getPaymentBookingUuid(),
       testPayment.getPaymentStripeUuid(),
-      testPayment.getPaymentStatus()
+      testPayment.getPaymentStatus().name()
     )).thenReturn(testPayment);
 
-    MvcResult response = mvc
-      .perform(post(SERVICE_PATH_PAYMENTS)
+    MvcResult response = perform(post(SERVICE_PATH_PAYMENTS)
       .headers(headers)
       .content(mapper.writeValueAsString(filterMap))
       )
@@ -307,16 +506,15 @@ class PaymentControllerTest {
     Map<String, String> filterMap = new HashMap<>();
     filterMap.put("paymentBookingUuid", testPayment.getPaymentBookingUuid());
     filterMap.put("paymentStripeUuid", testPayment.getPaymentStripeUuid());
-    filterMap.put("paymentStatus", testPayment.getPaymentStatus());
+    filterMap.put("paymentStatus", testPayment.getPaymentStatus().name());
 
     when(service.insert(
       testPayment.getPaymentBookingUuid(),
       testPayment.getPaymentStripeUuid(),
-      testPayment.getPaymentStatus()
+      testPayment.getPaymentStatus().name()
     )).thenThrow(new PaymentAlreadyExistsException());
 
-    mvc
-      .perform(post(SERVICE_PATH_PAYMENTS)
+    perform(post(SERVICE_PATH_PAYMENTS)
       .headers(headers)
       .content(mapper.writeValueAsString(filterMap))
       )
@@ -339,8 +537,7 @@ class PaymentControllerTest {
       "NotAStatus"
     )).thenThrow(new PaymentStatusNotFoundException());
 
-    mvc
-      .perform(post(SERVICE_PATH_PAYMENTS)
+    perform(post(SERVICE_PATH_PAYMENTS)
       .headers(headers)
       .content(mapper.writeValueAsString(filterMap))
       )
@@ -348,6 +545,98 @@ class PaymentControllerTest {
       .andReturn();
   }
 
+  @Test
+  void test_insert_withRepeatedIdempotencyKey_thenReplayed() throws Exception {
+    
+    Payment testPayment = MOCKPaymentService.getTestPayment();
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("paymentBookingUuid", testPayment.getPaymentBookingUuid());
+    filterMap.put("paymentStripeUuid", testPayment.getPaymentStripeUuid());
+    filterMap.put("paymentStatus", testPayment.getPaymentStatus().name());
+
+    when(service.insert(
+      testPayment.getPaymentBookingUuid(),
+      testPayment.getPaymentStripeUuid(),
+      testPayment.getPaymentStatus().name()
+    )).thenReturn(testPayment);
+
+    for(int attempt = 0; attempt < 2; attempt++) {
+      MvcResult response = perform(post(SERVICE_PATH_PAYMENTS)
+        .headers(headers)
+        .header(PaymentIdempotency.IDEMPOTENCY_KEY_HEADER, "replayed-key")
+        .content(mapper.writeValueAsString(filterMap))
+        )
+        .andExpect(status().is(201))
+        .andReturn();
+
+      assertEquals(mapper.writeValueAsString(testPayment), response.getResponse().getContentAsString());
+      assertEquals(attempt == 1 ? "true" : null, response.getResponse().getHeader(PaymentIdempotency.REPLAYED_HEADER));
+    }
+    verify(service, times(1)).insert(any(), any(), any());
+  }
+
+  @Test
+  void test_insert_withReusedIdempotencyKey_thenStatus422() throws Exception {
+    
+    Payment testPayment = MOCKPaymentService.getTestPayment();
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("paymentBookingUuid", testPayment.getPaymentBookingUuid());
+    filterMap.put("paymentStripeUuid", testPayment.getPaymentStripeUuid());
+    filterMap.put("paymentStatus", testPayment.getPaymentStatus().name());
+
+    when(service.insert(any(), any(), any())).thenReturn(testPayment);
+
+    perform(post(SERVICE_PATH_PAYMENTS)
+      .headers(headers)
+      .header(PaymentIdempotency.IDEMPOTENCY_KEY_HEADER, "reused-key")
+      .content(mapper.writeValueAsString(filterMap))
+      )
+      .andExpect(status().is(201));
+
+    filterMap.put("paymentStatus", "REJECTED");
+    perform(post(SERVICE_PATH_PAYMENTS)
+      .headers(headers)
+      .header(PaymentIdempotency.IDEMPOTENCY_KEY_HEADER, "reused-key")
+      .content(mapper.writeValueAsString(filterMap))
+      )
+      .andExpect(status().is(422));
+  }
+
+  // insertAll
+  //=======================================================================
+  @Test
+  void test_insertAll_withValidPayments_thenStatus201() throws Exception {
+    Payment testPayment = MOCKPaymentService.getTestPayment();
+    List<PaymentBatchResult> results = Arrays.asList(new PaymentBatchResult(0, 201, testPayment, null));
+    when(service.insertAll(anyList())).thenReturn(results);
+
+    MvcResult response = perform(post(SERVICE_PATH_PAYMENTS + "/batch")
+      .headers(headers)
+      .content("[{}]")
+      )
+      .andExpect(status().is(201))
+      .andReturn();
+
+    assertEquals(mapper.writeValueAsString(results), response.getResponse().getContentAsString());
+  }
+
+  @Test
+  void test_insertAll_withPartialFailure_thenStatus207() throws Exception {
+    Payment testPayment = MOCKPaymentService.getTestPayment();
+    List<PaymentBatchResult> results = Arrays.asList(
+      new PaymentBatchResult(0, 201, testPayment, null),
+      new PaymentBatchResult(1, 409, null, "Duplicate")
+    );
+    when(service.insertAll(anyList())).thenReturn(results);
+
+    perform(post(SERVICE_PATH_PAYMENTS + "/batch")
+      .headers(headers)
+      .content("[{}, {}]")
+      )
+      .andExpect(status().is(207))
+      .andReturn();
+  }
+
   // update
   //=======================================================================
   @Test
@@ -358,17 +647,17 @@ class PaymentControllerTest {
     filterMap.put("paymentId", testPayment.getPaymentId().toString());
     filterMap.put("paymentBookingUuid", testPayment.getPaymentBookingUuid());
     filterMap.put("paymentStripeUuid", testPayment.getPaymentStripeUuid());
-    filterMap.put("paymentStatus", testPayment.getPaymentStatus());
+    filterMap.put("paymentStatus", testPayment.getPaymentStatus().name());
 
     when(service.update(
       testPayment.getPaymentId(),
       testPayment.getPaymentBookingUuid(),
       testPayment.getPaymentStripeUuid(),
-      testPayment.getPaymentStatus()
+      testPayment.getPaymentStatus().name(),
+      null
     )).thenReturn(testPayment);
 
-    MvcResult response = mvc
-      .perform(put(SERVICE_PATH_PAYMENTS)
+    MvcResult response = perform(put(SERVICE_PATH_PAYMENTS)
       .headers(headers)
       .content(mapper.writeValueAsString(filterMap))
       )
@@ -386,17 +675,17 @@ class PaymentControllerTest {
     filterMap.put("paymentId", testPayment.getPaymentId().toString());
     filterMap.put("paymentBookingUuid", "Unkown-ID");
     filterMap.put("paymentStripeUuid", testPayment.getPaymentStripeUuid());
-    filterMap.put("paymentStatus", testPayment.getPaymentStatus());
+    filterMap.put("paymentStatus", testPayment.getPaymentStatus().name());
 
     when(service.update(
       testPayment.getPaymentId(),
       "Unkown-ID",
       testPayment.getPaymentStripeUuid(),
-      testPayment.getPaymentStatus()
+      testPayment.getPaymentStatus().name(),
+      null
     )).thenThrow(new PaymentNotFoundException());
 
-    mvc
-      .perform(put(SERVICE_PATH_PAYMENTS)
+    perform(put(SERVICE_PATH_PAYMENTS)
       .headers(headers)
       .content(mapper.writeValueAsString(filterMap))
       )
@@ -404,6 +693,33 @@ class PaymentControllerTest {
       .andReturn();
   }
 
+  @Test
+  void test_update_withStalePaymentVersion_thenStatus409() throws Exception {
+    
+    Payment testPayment = MOCKPaymentService.getTestPayment();
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("paymentId", testPayment.getPaymentId().toString());
+    filterMap.put("paymentBookingUuid", testPayment.getPaymentBookingUuid());
+    filterMap.put("paymentStripeUuid", testPayment.getPaymentStripeUuid());
+    filterMap.put("paymentStatus", testPayment.getPaymentStatus().name());
+    filterMap.put("paymentVersion", "3");
+
+    when(service.update(
+      testPayment.getPaymentId(),
+      testPayment.getPaymentBookingUuid(),
+      testPayment.getPaymentStripeUuid(),
+      testPayment.getPaymentStatus().name(),
+      3
+    )).thenThrow(new PaymentVersionConflictException());
+
+    perform(put(SERVICE_PATH_PAYMENTS)
+      .headers(headers)
+      .content(mapper.writeValueAsString(filterMap))
+      )
+      .andExpect(status().is(409))
+      .andReturn();
+  }
+
   @Test
   void test_update_withInvalidPaymentId_thenStatus400() throws Exception {
     
@@ -412,10 +728,9 @@ class PaymentControllerTest {
     filterMap.put("paymentId", "NotAnInteger");
     filterMap.put("paymentBookingUuid", testPayment.getPaymentBookingUuid());
     filterMap.put("paymentStripeUuid", testPayment.getPaymentStripeUuid());
-    filterMap.put("paymentStatus", testPayment.getPaymentStatus());
+    filterMap.put("paymentStatus", testPayment.getPaymentStatus().name());
 
-    mvc
-      .perform(put(SERVICE_PATH_PAYMENTS)
+    perform(put(SERVICE_PATH_PAYMENTS)
       .headers(headers)
       .content(mapper.writeValueAsString(filterMap))
       )
@@ -437,11 +752,11 @@ class PaymentControllerTest {
       testPayment.getPaymentId(),
       testPayment.getPaymentBookingUuid(),
       testPayment.getPaymentStripeUuid(),
-      "NotAStatus"
+      "NotAStatus",
+      null
     )).thenThrow(new PaymentStatusNotFoundException());
 
-    mvc
-      .perform(put(SERVICE_PATH_PAYMENTS)
+    perform(put(SERVICE_PATH_PAYMENTS)
       .headers(headers)
       .content(mapper.writeValueAsString(filterMap))
       )
@@ -449,13 +764,43 @@ class PaymentControllerTest {
       .andReturn();
   }
 
+  // updateStatuses
+  //=======================================================================
+  @Test
+  void test_updateStatuses_withValidStatus_thenStatus202() throws Exception {
+    PaymentStatusUpdate statusUpdate = new PaymentStatusUpdate(Arrays.asList(5, 6, -1), null, "CONFIRMED");
+    PaymentStatusUpdateResult result = new PaymentStatusUpdateResult(2, Arrays.asList(-1));
+    when(service.updateStatuses(Arrays.asList(5, 6, -1), null, "CONFIRMED")).thenReturn(result);
+
+    MvcResult response = perform(put(SERVICE_PATH_PAYMENTS + "/status")
+      .headers(headers)
+      .content(mapper.writeValueAsString(statusUpdate))
+      )
+      .andExpect(status().is(202))
+      .andReturn();
+
+    assertEquals(mapper.writeValueAsString(result), response.getResponse().getContentAsString());
+  }
+
+  @Test
+  void test_updateStatuses_withInvalidStatus_thenStatus400() throws Exception {
+    PaymentStatusUpdate statusUpdate = new PaymentStatusUpdate(null, "PENDING", "NotAStatus");
+    when(service.updateStatuses(null, "PENDING", "NotAStatus")).thenThrow(new PaymentStatusNotFoundException());
+
+    perform(put(SERVICE_PATH_PAYMENTS + "/status")
+      .headers(headers)
+      .content(mapper.writeValueAsString(statusUpdate))
+      )
+      .andExpect(status().is(400))
+      .andReturn();
+  }
+
   // delete
   //=======================================================================
   @Test
   void test_delete_withValidPayment_thenStatus202() throws Exception {
 
-    mvc
-      .perform(delete(SERVICE_PATH_PAYMENTS + "/1")
+    perform(delete(SERVICE_PATH_PAYMENTS + "/1")
       .headers(headers)
       )
       .andExpect(status().is(202))
@@ -465,20 +810,30 @@ class PaymentControllerTest {
   @Test
   void test_delete_withNonExistingPayment_thenStatus404() throws Exception {
     
-    when(service.delete(-1)).thenThrow(new PaymentNotFoundException());
+    when(service.delete(-1, null)).thenThrow(new PaymentNotFoundException());
 
-    mvc
-      .perform(delete(SERVICE_PATH_PAYMENTS + "/-1")
+    perform(delete(SERVICE_PATH_PAYMENTS + "/-1")
       .headers(headers)
       )
       .andExpect(status().is(404))
       .andReturn();
   }
 
+  @Test
+  void test_delete_withStalePaymentVersion_thenStatus409() throws Exception {
+    
+    when(service.delete(1, 2)).thenThrow(new PaymentVersionConflictException());
+
+    perform(delete(SERVICE_PATH_PAYMENTS + "/1?paymentVersion=2")
+      .headers(headers)
+      )
+      .andExpect(status().is(409))
+      .andReturn();
+  }
+
   @Test
   void test_delete_withInvalidParams_thenStatus400() throws Exception {
-    mvc
-      .perform(delete(SERVICE_PATH_PAYMENTS + "/NOT_AN_INTEGER")
+    perform(delete(SERVICE_PATH_PAYMENTS + "/NOT_AN_INTEGER")
       .headers(headers)
       )
       .andExpect(status().is(400))
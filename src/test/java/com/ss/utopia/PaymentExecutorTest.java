@@ -0,0 +1,83 @@
+package com.ss.utopia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+
+import com.ss.utopia.exceptions.PaymentNotFoundException;
+import com.ss.utopia.exceptions.PaymentRequestRejectedException;
+import com.ss.utopia.executors.PaymentExecutor;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PaymentExecutorTest {
+
+  private PaymentExecutor paymentExecutor;
+
+  @AfterEach
+  void teardown() throws Exception {
+    paymentExecutor.shutdown();
+  }
+
+  @Test
+  void test_submit_RunsOffTheCallingThread() throws Exception {
+    paymentExecutor = new PaymentExecutor(true, 2, 4);
+    String callingThread = Thread.currentThread().getName();
+    String taskThread = paymentExecutor.submit(() -> Thread.currentThread().getName()).get(5, TimeUnit.SECONDS);
+    assertTrue(taskThread.startsWith("payment-executor-"));
+    assertNotEquals(callingThread, taskThread);
+  }
+
+  @Test
+  void test_submit_Disabled_RunsInline() throws Exception {
+    paymentExecutor = new PaymentExecutor(false, 2, 4);
+    CompletableFuture<String> future = paymentExecutor.submit(() -> Thread.currentThread().getName());
+    assertTrue(future.isDone());
+    assertEquals(Thread.currentThread().getName(), future.get());
+  }
+
+  @Test
+  void test_submit_CheckedException_CompletesExceptionally() throws Exception {
+    paymentExecutor = new PaymentExecutor(true, 2, 4);
+    CompletableFuture<Object> future = paymentExecutor.submit(() -> {
+      throw new PaymentNotFoundException("No Payment with ID: -1 exist!");
+    });
+    ExecutionException err = assertThrows(ExecutionException.class, () -> future.get(5, TimeUnit.SECONDS));
+    assertTrue(err.getCause() instanceof PaymentNotFoundException);
+  }
+
+  @Test
+  void test_submit_QueueFull_IsRejectedAndCounted() throws Exception {
+    paymentExecutor = new PaymentExecutor(true, 1, 1);
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    paymentExecutor.bindTo(registry);
+
+    CountDownLatch started = new CountDownLatch(1);
+    CountDownLatch release = new CountDownLatch(1);
+    CompletableFuture<Boolean> running = paymentExecutor.submit(() -> {
+      started.countDown();
+      return release.await(5, TimeUnit.SECONDS);
+    });
+    assertTrue(started.await(5, TimeUnit.SECONDS));
+    CompletableFuture<Integer> queued = paymentExecutor.submit(() -> 1);
+    assertEquals(1.0, registry.get("payments.async.queue.depth").gauge().value());
+
+    CompletableFuture<Integer> rejected = paymentExecutor.submit(() -> 2);
+    ExecutionException err = assertThrows(ExecutionException.class, rejected::get);
+    assertTrue(err.getCause() instanceof PaymentRequestRejectedException);
+    assertEquals(1.0, registry.get("payments.async.rejected").counter().count());
+
+    release.countDown();
+    assertTrue(running.get(5, TimeUnit.SECONDS));
+    assertEquals(Integer.valueOf(1), queued.get(5, TimeUnit.SECONDS));
+  }
+}
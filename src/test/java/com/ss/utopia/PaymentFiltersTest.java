@@ -0,0 +1,81 @@
+package com.ss.utopia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.UUID;
+import java.util.function.Predicate;
+import java.util.stream.Collectors;
+
+import com.ss.utopia.filters.PaymentFilters;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+
+import org.junit.jupiter.api.Test;
+
+class PaymentFiltersTest {
+
+  private static final String[] SEARCH_TERMS = {
+    "", "0", "04", "20", "12", "7", "2147483647", "21474836470", "a", "4A", "-", "confirmed", "PEND", "%"
+  };
+
+  // matchesSearchTerms - against a plain toLowerCase().contains() scan
+  //=======================================================================
+  @Test
+  void test_matchesSearchTerms_PaymentIdDigits() throws Exception {
+    int[] paymentIds = { 0, 1, 4, 10, 20, 100, 1204, 4120, 70007, Integer.MAX_VALUE };
+    for(int paymentId : paymentIds) {
+      Payment payment = new Payment(paymentId, "b", "s", PaymentStatus.CONFIRMED);
+      for(String searchTerm : SEARCH_TERMS) {
+        assertEquals(
+          Integer.toString(paymentId).contains(searchTerm.toLowerCase(Locale.getDefault())) || matchesText(payment, searchTerm),
+          PaymentFilters.matchesSearchTerms(searchTerm).test(payment),
+          paymentId + " / " + searchTerm
+        );
+      }
+    }
+  }
+
+  @Test
+  void test_matchesSearchTerms_MixedCaseFields() throws Exception {
+    Payment payment = new Payment(5, "FA0FF7DB-C2DA-40BD-BA21-1D7E81FAA24A", "a2bf6dd9-b296-4e03-b1ee-55acfd1c196d", PaymentStatus.PENDING);
+    assertTrue(PaymentFilters.matchesSearchTerms("fa0ff7db, PENDING").test(payment));
+    assertTrue(PaymentFilters.matchesSearchTerms("B296-4E03").test(payment));
+    assertFalse(PaymentFilters.matchesSearchTerms("pending, confirmed").test(payment));
+  }
+
+  // apply - sequential and parallel scans
+  //=======================================================================
+  @Test
+  void test_apply_AboveParallelThreshold_KeepsOrder() throws Exception {
+    List<Payment> payments = new ArrayList<>();
+    PaymentStatus[] paymentStatuses = PaymentStatus.values();
+    for(int i = 1; i <= 50_000; i++) {
+      payments.add(new Payment(i, UUID.randomUUID().toString(), UUID.randomUUID().toString(), paymentStatuses[i % 4]));
+    }
+
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("paymentStatus", "CONFIRMED");
+    filterMap.put("searchTerms", "4a, 7");
+    Predicate<Payment> expected = i -> i.getPaymentStatus() == PaymentStatus.CONFIRMED && matchesText(i, "4a") && matchesText(i, "7");
+
+    assertEquals(
+      payments.stream().filter(expected).collect(Collectors.toList()),
+      PaymentFilters.apply(payments, filterMap)
+    );
+  }
+
+  private boolean matchesText(Payment payment, String searchTerm) {
+    String lowerTerm = searchTerm.toLowerCase(Locale.getDefault());
+    return payment.getPaymentId().toString().contains(lowerTerm) ||
+      payment.getPaymentBookingUuid().toLowerCase(Locale.getDefault()).contains(lowerTerm) ||
+      payment.getPaymentStripeUuid().toLowerCase(Locale.getDefault()).contains(lowerTerm) ||
+      payment.getPaymentStatus().name().toLowerCase(Locale.getDefault()).contains(lowerTerm);
+  }
+}
@@ -0,0 +1,234 @@
+package com.ss.utopia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ss.utopia.exceptions.PaymentIdempotencyKeyInProgressException;
+import com.ss.utopia.exceptions.PaymentIdempotencyKeyInvalidException;
+import com.ss.utopia.exceptions.PaymentNotFoundException;
+import com.ss.utopia.idempotency.IdempotentResponse;
+import com.ss.utopia.idempotency.JdbcIdempotencyStore;
+import com.ss.utopia.idempotency.MemoryIdempotencyStore;
+import com.ss.utopia.idempotency.PaymentIdempotency;
+import com.ss.utopia.models.Payment;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.ResponseEntity;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabase;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseBuilder;
+import org.springframework.jdbc.datasource.embedded.EmbeddedDatabaseType;
+import org.springframework.test.util.ReflectionTestUtils;
+
+class PaymentIdempotencyTest {
+
+  private PaymentIdempotency paymentIdempotency;
+  private Map<String, String> request;
+
+  @BeforeEach
+  void setup() throws Exception {
+    paymentIdempotency = new PaymentIdempotency(4);
+    ReflectionTestUtils.setField(paymentIdempotency, "idempotencyStore", new MemoryIdempotencyStore(100, 60));
+    ReflectionTestUtils.setField(paymentIdempotency, "objectMapper", new ObjectMapper());
+
+    request = new HashMap<>();
+    request.put("paymentBookingUuid", "IdempotentBookingUuid");
+    request.put("paymentStripeUuid", "IdempotentStripeUuid");
+    request.put("paymentStatus", "PENDING");
+  }
+
+  @Test
+  void test_execute_ConcurrentRequests_RunOnce() throws Exception {
+    AtomicInteger insertCount = new AtomicInteger();
+    CountDownLatch inserting = new CountDownLatch(1);
+    CountDownLatch releaseInsert = new CountDownLatch(1);
+    ExecutorService threads = Executors.newFixedThreadPool(1);
+    try {
+      Future<ResponseEntity<Object>> first = threads.submit(() -> paymentIdempotency.execute("concurrent-key", request, () -> {
+        insertCount.incrementAndGet();
+        inserting.countDown();
+        releaseInsert.await(5, TimeUnit.SECONDS);
+        return new ResponseEntity<>(MOCKPaymentRepository.getTestPayment(), HttpStatus.CREATED);
+      }));
+      assertTrue(inserting.await(5, TimeUnit.SECONDS));
+
+      // Repeats are answered from the claim while the first insert runs, without waiting for it
+      for(int i = 0; i < 4; i++) {
+        assertThrows(PaymentIdempotencyKeyInProgressException.class, () -> paymentIdempotency.execute("concurrent-key", request, () -> {
+          insertCount.incrementAndGet();
+          return new ResponseEntity<>(HttpStatus.CREATED);
+        }));
+      }
+      // Other keys, on whichever stripe, are not held up by it
+      for(int i = 0; i < 8; i++) {
+        assertEquals(HttpStatus.CREATED, paymentIdempotency.execute("other-key-" + i, request, 
+          () -> new ResponseEntity<>(HttpStatus.CREATED)).getStatusCode());
+      }
+
+      releaseInsert.countDown();
+      assertEquals(HttpStatus.CREATED, first.get(5, TimeUnit.SECONDS).getStatusCode());
+    }
+    finally {
+      releaseInsert.countDown();
+      threads.shutdownNow();
+    }
+    ResponseEntity<Object> replayed = paymentIdempotency.execute("concurrent-key", request, () -> {
+      throw new IllegalStateException("Replays must not run the request again");
+    });
+    assertEquals(HttpStatus.CREATED, replayed.getStatusCode());
+    assertEquals(1, insertCount.get());
+  }
+
+  @Test
+  void test_execute_FailedRequest_IsNotStored() throws Exception {
+    AtomicInteger attempts = new AtomicInteger();
+    assertThrows(PaymentNotFoundException.class, () -> paymentIdempotency.execute("failed-key", request, () -> {
+      attempts.incrementAndGet();
+      throw new PaymentNotFoundException();
+    }));
+    paymentIdempotency.execute("failed-key", request, () -> {
+      attempts.incrementAndGet();
+      return new ResponseEntity<>(HttpStatus.CREATED);
+    });
+    assertEquals(2, attempts.get());
+  }
+
+  @Test
+  void test_execute_FieldOrder_DoesNotChangeFingerprint() throws Exception {
+    paymentIdempotency.execute("ordered-key", request, () -> new ResponseEntity<>(HttpStatus.CREATED));
+    Map<String, String> reordered = new LinkedHashMap<>();
+    reordered.put("paymentStatus", "PENDING");
+    reordered.put("paymentStripeUuid", "IdempotentStripeUuid");
+    reordered.put("paymentBookingUuid", "IdempotentBookingUuid");
+    assertEquals(HttpStatus.CREATED, paymentIdempotency.execute("ordered-key", reordered, () -> {
+      throw new IllegalStateException("Replays must not run the request again");
+    }).getStatusCode());
+  }
+
+  @Test
+  void test_execute_OversizedKey_IsRejected() throws Exception {
+    StringBuilder idempotencyKey = new StringBuilder();
+    for(int i = 0; i < 256; i++) {
+      idempotencyKey.append('k');
+    }
+    assertThrows(PaymentIdempotencyKeyInvalidException.class, 
+      () -> paymentIdempotency.execute(idempotencyKey.toString(), request, () -> new ResponseEntity<>(HttpStatus.CREATED)));
+  }
+
+  @Test
+  void test_jdbcStore_StoresAndExpiresResponses() throws Exception {
+    EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+      .setType(EmbeddedDatabaseType.H2)
+      .generateUniqueName(true)
+      .addScript("db/migration/V5__idempotency_keys.sql")
+      .build();
+    try {
+      JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+      JdbcIdempotencyStore store = new JdbcIdempotencyStore(60, 60);
+      ReflectionTestUtils.setField(store, "jdbcTemplate", jdbcTemplate);
+
+      String body = new ObjectMapper().writeValueAsString(new Payment(1, "JdbcBookingUuid", "JdbcStripeUuid", null));
+      assertTrue(store.claim("jdbc-key", "fingerprint"));
+      store.put("jdbc-key", new IdempotentResponse("fingerprint", 201, body));
+      assertFalse(store.claim("jdbc-key", "other-fingerprint"));
+      store.put("jdbc-key", new IdempotentResponse("other-fingerprint", 201, "{}"));
+      assertEquals("fingerprint", store.get("jdbc-key").getFingerprint());
+      assertEquals(body, store.get("jdbc-key").getBody());
+      assertNull(store.get("missing-key"));
+
+      JdbcIdempotencyStore expiredStore = new JdbcIdempotencyStore(0, 60);
+      ReflectionTestUtils.setField(expiredStore, "jdbcTemplate", jdbcTemplate);
+      assertNull(expiredStore.get("jdbc-key"));
+      assertEquals(1, expiredStore.purgeExpired());
+    }
+    finally {
+      database.shutdown();
+    }
+  }
+
+  @Test
+  void test_jdbcStore_ClaimsKeyForOneInstance() throws Exception {
+    EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+      .setType(EmbeddedDatabaseType.H2)
+      .generateUniqueName(true)
+      .addScript("db/migration/V5__idempotency_keys.sql")
+      .build();
+    try {
+      JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+      PaymentIdempotency[] instances = new PaymentIdempotency[2];
+      for(int i = 0; i < instances.length; i++) {
+        JdbcIdempotencyStore store = new JdbcIdempotencyStore(60, 60);
+        ReflectionTestUtils.setField(store, "jdbcTemplate", jdbcTemplate);
+        instances[i] = new PaymentIdempotency(4);
+        ReflectionTestUtils.setField(instances[i], "idempotencyStore", store);
+        ReflectionTestUtils.setField(instances[i], "objectMapper", new ObjectMapper());
+      }
+
+      AtomicInteger insertCount = new AtomicInteger();
+      ResponseEntity<Object> response = instances[0].execute("shared-key", request, () -> {
+        insertCount.incrementAndGet();
+        assertThrows(PaymentIdempotencyKeyInProgressException.class, () -> instances[1].execute("shared-key", request, () -> {
+          insertCount.incrementAndGet();
+          return new ResponseEntity<>(HttpStatus.CREATED);
+        }));
+        return new ResponseEntity<>(MOCKPaymentRepository.getTestPayment(), HttpStatus.CREATED);
+      });
+      assertEquals(HttpStatus.CREATED, response.getStatusCode());
+
+      ResponseEntity<Object> replayed = instances[1].execute("shared-key", request, () -> {
+        throw new IllegalStateException("Replays must not run the request again");
+      });
+      assertEquals("true", replayed.getHeaders().getFirst(PaymentIdempotency.REPLAYED_HEADER));
+      assertEquals(1, insertCount.get());
+    }
+    finally {
+      database.shutdown();
+    }
+  }
+
+  @Test
+  void test_jdbcStore_ReleasedOrAbandonedClaim_CanBeClaimedAgain() throws Exception {
+    EmbeddedDatabase database = new EmbeddedDatabaseBuilder()
+      .setType(EmbeddedDatabaseType.H2)
+      .generateUniqueName(true)
+      .addScript("db/migration/V5__idempotency_keys.sql")
+      .build();
+    try {
+      JdbcTemplate jdbcTemplate = new JdbcTemplate(database);
+      JdbcIdempotencyStore store = new JdbcIdempotencyStore(60, 60);
+      ReflectionTestUtils.setField(store, "jdbcTemplate", jdbcTemplate);
+
+      assertTrue(store.claim("released-key", "fingerprint"));
+      assertTrue(store.get("released-key").isInProgress());
+      store.release("released-key");
+      assertNull(store.get("released-key"));
+      assertTrue(store.claim("released-key", "fingerprint"));
+
+      JdbcIdempotencyStore abandoningStore = new JdbcIdempotencyStore(60, 0);
+      ReflectionTestUtils.setField(abandoningStore, "jdbcTemplate", jdbcTemplate);
+      assertNull(abandoningStore.get("released-key"));
+      assertTrue(abandoningStore.claim("released-key", "fingerprint"));
+    }
+    finally {
+      database.shutdown();
+    }
+  }
+}
@@ -0,0 +1,46 @@
+package com.ss.utopia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.util.Arrays;
+import java.util.List;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.dataformat.xml.XmlMapper;
+import com.ss.utopia.json.PaymentJsonSerializers;
+import com.ss.utopia.models.ErrorMessage;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+
+import org.junit.jupiter.api.Test;
+
+class PaymentJsonSerializersTest {
+
+  private final ObjectMapper beanMapper = new ObjectMapper();
+  private final ObjectMapper mapper = new ObjectMapper().registerModule(PaymentJsonSerializers.module());
+
+  @Test
+  void test_serializePayment_matchesBeanSerializer() throws Exception {
+    Payment payment = MOCKPaymentService.getTestPayment();
+    payment.setPaymentVersion(3);
+    assertEquals(beanMapper.writeValueAsString(payment), mapper.writeValueAsString(payment));
+
+    List<Payment> payments = Arrays.asList(payment, new Payment(null, null, null, null));
+    assertEquals(beanMapper.writeValueAsString(payments), mapper.writeValueAsString(payments));
+  }
+
+  @Test
+  void test_serializeErrorMessage_matchesBeanSerializer() throws Exception {
+    ErrorMessage errorMessage = new ErrorMessage("No Payment with ID: 1 exist!");
+    assertEquals(beanMapper.writeValueAsString(errorMessage), mapper.writeValueAsString(errorMessage));
+  }
+
+  @Test
+  void test_serializePayment_asXml_matchesBeanSerializer() throws Exception {
+    Payment payment = new Payment(7, "BookingUuid", "StripeUuid", PaymentStatus.APPROVED);
+    assertEquals(
+      new XmlMapper().writeValueAsString(payment),
+      new XmlMapper().registerModule(PaymentJsonSerializers.module()).writeValueAsString(payment)
+    );
+  }
+}
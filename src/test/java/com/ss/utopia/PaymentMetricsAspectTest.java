@@ -0,0 +1,84 @@
+package com.ss.utopia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Optional;
+
+import com.ss.utopia.exceptions.PaymentNotFoundException;
+import com.ss.utopia.metrics.PaymentMetricsAspect;
+import com.ss.utopia.repositories.PaymentRepository;
+import com.ss.utopia.services.PaymentService;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.aop.aspectj.annotation.AspectJProxyFactory;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PaymentMetricsAspectTest {
+
+  private MeterRegistry registry;
+  private PaymentMetricsAspect aspect;
+
+  @BeforeEach
+  void setup() {
+    registry = new SimpleMeterRegistry();
+    aspect = new PaymentMetricsAspect(1000);
+    aspect.bindTo(registry);
+  }
+
+  @Test
+  void test_serviceMethods_areTimedWithResultSizes() throws Exception {
+    PaymentService service = mock(PaymentService.class);
+    when(service.findAll()).thenReturn(MOCKPaymentService.getTestPaymentList());
+    when(service.findById(-1)).thenThrow(new PaymentNotFoundException());
+    PaymentService proxy = proxyOf(service, true);
+
+    proxy.findAll();
+    proxy.findAll();
+    assertThrows(PaymentNotFoundException.class, () -> proxy.findById(-1));
+
+    assertEquals(2, registry.get("payments.service").tags("method", "findAll", "exception", "none").timer().count());
+    assertEquals(1, registry.get("payments.service").tags("method", "findById", "exception", "PaymentNotFoundException").timer().count());
+    assertEquals(2, registry.get("payments.service.results").tag("method", "findAll").summary().count());
+    assertEquals(2.0 * MOCKPaymentService.getTestPaymentList().size(),
+      registry.get("payments.service.results").tag("method", "findAll").summary().totalAmount());
+  }
+
+  @Test
+  void test_repositoryQueries_areTimed() throws Exception {
+    PaymentRepository repository = mock(PaymentRepository.class);
+    when(repository.findVersionById(1)).thenReturn(Optional.of(0));
+    PaymentRepository proxy = proxyOf(repository, false);
+
+    proxy.findVersionById(1);
+    proxy.findAllById(Arrays.asList(1, 2));
+
+    assertEquals(1, registry.get("payments.repository").tag("method", "findVersionById").timer().count());
+    assertEquals(1, registry.get("payments.repository").tag("method", "findAllById").timer().count());
+  }
+
+  @Test
+  void test_exceptionHandlers_areCounted() throws Exception {
+    PaymentController proxy = proxyOf(new PaymentController(), true);
+
+    proxy.paymentNotFoundException(new PaymentNotFoundException());
+    proxy.paymentNotFoundException(new PaymentNotFoundException());
+
+    assertEquals(2.0, registry.get("payments.controller.errors")
+      .tags("handler", "paymentNotFoundException", "exception", "PaymentNotFoundException")
+      .counter().count());
+  }
+
+  private <T> T proxyOf(T target, boolean proxyTargetClass) {
+    AspectJProxyFactory factory = new AspectJProxyFactory(target);
+    factory.setProxyTargetClass(proxyTargetClass);
+    factory.addAspect(aspect);
+    return factory.getProxy();
+  }
+}
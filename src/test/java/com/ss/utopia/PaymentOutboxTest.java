@@ -0,0 +1,130 @@
+package com.ss.utopia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
+
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.datatype.jsr310.JavaTimeModule;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentEvent;
+import com.ss.utopia.models.PaymentEventType;
+import com.ss.utopia.models.PaymentStatus;
+import com.ss.utopia.outbox.FilePaymentEventSink;
+import com.ss.utopia.outbox.PaymentEventSink;
+import com.ss.utopia.outbox.PaymentOutbox;
+import com.ss.utopia.outbox.PaymentOutboxPublisher;
+import com.ss.utopia.repositories.PaymentEventRepository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Import;
+import org.springframework.test.util.ReflectionTestUtils;
+
+@DataJpaTest(properties = {
+  "spring.flyway.enabled=false",
+  "spring.jpa.hibernate.ddl-auto=create-drop",
+  "payments.outbox.enabled=true",
+  "payments.outbox.batch-size=2"
+})
+@Import({ PaymentOutbox.class, PaymentOutboxPublisher.class })
+class PaymentOutboxTest {
+
+  @Autowired
+  private PaymentOutbox paymentOutbox;
+
+  @Autowired
+  private PaymentOutboxPublisher paymentOutboxPublisher;
+
+  @Autowired
+  private PaymentEventRepository paymentEventRepository;
+
+  @Autowired
+  private RecordingSink recordingSink;
+
+  @TestConfiguration
+  static class TestConfig {
+    @Bean
+    RecordingSink recordingSink() {
+      return new RecordingSink();
+    }
+  }
+
+  static class RecordingSink implements PaymentEventSink {
+    final List<List<PaymentEvent>> batches = new ArrayList<>();
+    boolean failing;
+
+    @Override
+    public void publish(List<PaymentEvent> events) {
+      if(failing) {
+        throw new IllegalStateException("Sink unavailable");
+      }
+      batches.add(new ArrayList<>(events));
+    }
+  }
+
+  @BeforeEach
+  void setup() throws Exception {
+    paymentEventRepository.deleteAll();
+    recordingSink.batches.clear();
+    recordingSink.failing = false;
+  }
+
+  @Test
+  void test_publishPending_PublishesInBatchesAndDrainsOutbox() throws Exception {
+    for(Payment payment : MOCKPaymentRepository.getTestPaymentList().subList(0, 5)) {
+      paymentOutbox.record(PaymentEventType.CREATED, payment);
+    }
+    Payment deletedPayment = new Payment(1, "booking", "stripe", PaymentStatus.PENDING);
+    deletedPayment.setPaymentVersion(3);
+    paymentOutbox.recordDeleted(deletedPayment);
+
+    assertEquals(6, paymentOutboxPublisher.publishPending());
+    assertEquals(Arrays.asList(2, 2, 2), recordingSink.batches.stream().map(List::size).collect(Collectors.toList()));
+    List<PaymentEvent> published = recordingSink.batches.stream().flatMap(List::stream).collect(Collectors.toList());
+    assertEquals(MOCKPaymentRepository.getTestPaymentList().get(0).getPaymentStripeUuid(), published.get(0).getPaymentStripeUuid());
+    assertEquals(PaymentEventType.DELETED, published.get(5).getEventType());
+    assertEquals(Integer.valueOf(4), published.get(5).getPaymentVersion());
+    assertEquals(0, paymentEventRepository.count());
+  }
+
+  @Test
+  void test_publishPending_FailingSink_KeepsEvents() throws Exception {
+    paymentOutbox.record(PaymentEventType.UPDATED, new Payment(7, "OutboxBookingUuid", "OutboxStripeUuid", PaymentStatus.APPROVED));
+    recordingSink.failing = true;
+
+    assertEquals(0, paymentOutboxPublisher.publishPending());
+    assertEquals(1, paymentEventRepository.count());
+  }
+
+  @Test
+  void test_fileSink_AppendsJsonLines(@TempDir Path directory) throws Exception {
+    Path path = directory.resolve("payment-events.ndjson");
+    ObjectMapper mapper = new ObjectMapper().registerModule(new JavaTimeModule());
+    FilePaymentEventSink sink = new FilePaymentEventSink(path.toString());
+    ReflectionTestUtils.setField(sink, "objectMapper", mapper);
+
+    sink.publish(Arrays.asList(new PaymentEvent(PaymentEventType.CREATED, MOCKPaymentRepository.getTestPayment())));
+    sink.publish(Arrays.asList(new PaymentEvent(PaymentEventType.DELETED, new Payment(2, null, null, null))));
+
+    List<String> lines = Files.readAllLines(path, StandardCharsets.UTF_8);
+    assertEquals(2, lines.size());
+    JsonNode created = mapper.readTree(lines.get(0));
+    assertEquals("CREATED", created.get("eventType").asText());
+    assertEquals(MOCKPaymentRepository.getTestPayment().getPaymentBookingUuid(), created.get("paymentBookingUuid").asText());
+    assertNull(mapper.treeToValue(mapper.readTree(lines.get(1)).get("paymentStatus"), PaymentStatus.class));
+  }
+}
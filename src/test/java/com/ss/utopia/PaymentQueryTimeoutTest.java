@@ -0,0 +1,125 @@
+package com.ss.utopia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Stream;
+
+import javax.sql.DataSource;
+
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+import com.ss.utopia.repositories.PaymentRepository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.config.BeanPostProcessor;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.boot.test.context.TestConfiguration;
+import org.springframework.context.annotation.Bean;
+import org.springframework.jdbc.datasource.DelegatingDataSource;
+
+// Records the longest JDBC query timeout Hibernate sets on each prepared statement,
+// to check which repository queries the javax.persistence.query.timeout default reaches.
+@DataJpaTest(properties = {
+  "spring.flyway.enabled=false",
+  "spring.jpa.hibernate.ddl-auto=create-drop",
+  "spring.jpa.properties.javax.persistence.query.timeout=10000"
+})
+class PaymentQueryTimeoutTest {
+
+  private static final Map<String, Integer> queryTimeouts = new ConcurrentHashMap<>();
+
+  @Autowired
+  private PaymentRepository paymentRepository;
+
+  @BeforeEach
+  void setup() throws Exception {
+    paymentRepository.save(new Payment("TimeoutBookingUuid", "TimeoutStripeUuid", PaymentStatus.PENDING));
+    paymentRepository.flush();
+    queryTimeouts.clear();
+  }
+
+  @Test
+  void test_findPage_isCutOffAfterQueryTimeout() throws Exception {
+    paymentRepository.findPage(null, null, 10);
+    assertEquals(Integer.valueOf(10), queryTimeouts.get("payments"));
+  }
+
+  @Test
+  void test_findLockedById_isCutOffAfterQueryTimeout() throws Exception {
+    Integer paymentId = paymentRepository.findPage(null, null, 1).get(0).getPaymentId();
+    queryTimeouts.clear();
+    paymentRepository.findLockedById(paymentId);
+    assertEquals(Integer.valueOf(10), queryTimeouts.get("payments"));
+  }
+
+  @Test
+  void test_streamAll_isExemptForExport() throws Exception {
+    try(Stream<Payment> payments = paymentRepository.streamAll()) {
+      assertEquals(1, payments.count());
+    }
+    assertEquals(Integer.valueOf(0), queryTimeouts.get("payments"));
+  }
+
+  @TestConfiguration
+  static class QueryTimeoutRecorder {
+
+    @Bean
+    static BeanPostProcessor recordQueryTimeouts() {
+      return new BeanPostProcessor() {
+        @Override
+        public Object postProcessAfterInitialization(Object bean, String beanName) {
+          if(!(bean instanceof DataSource)) {
+            return bean;
+          }
+          return new DelegatingDataSource((DataSource) bean) {
+            @Override
+            public Connection getConnection() throws SQLException {
+              return recording(super.getConnection());
+            }
+          };
+        }
+      };
+    }
+
+    private static Connection recording(Connection connection) {
+      return proxy(Connection.class, (proxy, method, args) -> {
+        Object result = invoke(connection, method, args);
+        if(result instanceof PreparedStatement && args[0].toString().startsWith("select")) {
+          String sql = args[0].toString();
+          PreparedStatement statement = (PreparedStatement) result;
+          return proxy(PreparedStatement.class, (statementProxy, statementMethod, statementArgs) -> {
+            if(statementMethod.getName().equals("setQueryTimeout")) {
+              queryTimeouts.merge(sql.contains(" from payments ") ? "payments" : sql, (Integer) statementArgs[0], Math::max);
+            }
+            return invoke(statement, statementMethod, statementArgs);
+          });
+        }
+        return result;
+      });
+    }
+
+    private static <T> T proxy(Class<T> type, InvocationHandler handler) {
+      return type.cast(Proxy.newProxyInstance(type.getClassLoader(), new Class<?>[] { type }, handler));
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+      try {
+        return method.invoke(target, args);
+      }
+      catch(InvocationTargetException err) {
+        throw err.getCause();
+      }
+    }
+  }
+}
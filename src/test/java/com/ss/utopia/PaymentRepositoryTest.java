@@ -0,0 +1,314 @@
+package com.ss.utopia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import javax.persistence.EntityManager;
+
+import com.ss.utopia.filters.PaymentFilters;
+import com.ss.utopia.filters.PaymentSpecifications;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+import com.ss.utopia.models.PaymentStatusCount;
+import com.ss.utopia.repositories.PaymentRepository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Sort;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+
+@DataJpaTest(properties = {
+  "spring.flyway.enabled=false",
+  "spring.jpa.hibernate.ddl-auto=create-drop"
+})
+class PaymentRepositoryTest {
+
+  @Autowired
+  private PaymentRepository paymentRepository;
+
+  @Autowired
+  private EntityManager entityManager;
+
+  @BeforeEach
+  void setup() throws Exception {
+    paymentRepository.deleteAll();
+    for(Payment payment : MOCKPaymentRepository.getTestPaymentList()) {
+      paymentRepository.save(new Payment(
+        payment.getPaymentBookingUuid(),
+        payment.getPaymentStripeUuid(),
+        payment.getPaymentStatus()
+      ));
+    }
+  }
+
+  // findBySearchAndFilter - database query vs PaymentFilters
+  //=======================================================================
+  @Test
+  void test_searchAndFilter_NoFilters_isEquivalent() throws Exception {
+    assertSearchIsEquivalent(new HashMap<>());
+  }
+
+  @Test
+  void test_searchAndFilter_EmptySearch_isEquivalent() throws Exception {
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("searchTerms", "");
+    assertSearchIsEquivalent(filterMap);
+  }
+
+  @Test
+  void test_searchAndFilter_SearchSingle_isEquivalent() throws Exception {
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("searchTerms", "confirmed");
+    assertSearchIsEquivalent(filterMap);
+  }
+
+  @Test
+  void test_searchAndFilter_SearchMulti_isEquivalent() throws Exception {
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("searchTerms", "CONFIRMED, 40");
+    assertSearchIsEquivalent(filterMap);
+  }
+
+  @Test
+  void test_searchAndFilter_SearchWildcards_isEquivalent() throws Exception {
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("searchTerms", "%,_");
+    assertSearchIsEquivalent(filterMap);
+  }
+
+  @Test
+  void test_searchAndFilter_FilterPaymentId_isEquivalent() throws Exception {
+    Integer paymentId = paymentRepository.findAll(Sort.by("paymentId")).get(3).getPaymentId();
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("paymentId", paymentId.toString());
+    assertSearchIsEquivalent(filterMap);
+  }
+
+  @Test
+  void test_searchAndFilter_FilterMulti_isEquivalent() throws Exception {
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("paymentBookingUuid", "38d85c66-2a58-4608-9cbb-a27769b9e95f");
+    filterMap.put("paymentStripeUuid", "7749569a-d956-497b-ae9c-42f1427a005f");
+    filterMap.put("paymentStatus", "REJECTED");
+    assertSearchIsEquivalent(filterMap);
+  }
+
+  @Test
+  void test_searchAndFilter_FilterAndSearch_isEquivalent() throws Exception {
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("paymentStatus", "PENDING");
+    filterMap.put("searchTerms", "4");
+    assertSearchIsEquivalent(filterMap);
+  }
+
+  // Indexes
+  //=======================================================================
+  @Test
+  void test_saveAndFlush_withDuplicateStripeUuid_isRejected() throws Exception {
+    Payment duplicatePayment = new Payment("NewBookingUuid", MOCKPaymentRepository.getTestPayment().getPaymentStripeUuid(), PaymentStatus.PENDING);
+    DataIntegrityViolationException err = assertThrows(
+      DataIntegrityViolationException.class, 
+      () -> paymentRepository.saveAndFlush(duplicatePayment)
+    );
+    assertTrue(err.getMostSpecificCause().getMessage().toLowerCase().contains(Payment.STRIPE_UUID_INDEX));
+  }
+
+  // findPage
+  //=======================================================================
+  @Test
+  void test_findPage_WalksAllPaymentsInOrder() throws Exception {
+    List<Integer> expected = toIds(paymentRepository.findAll(Sort.by("paymentId")));
+    List<Integer> actual = new ArrayList<>();
+
+    Integer afterPaymentId = null;
+    List<Payment> page = paymentRepository.findPage(null, afterPaymentId, 4);
+    while(!page.isEmpty()) {
+      assertTrue(page.size() <= 4);
+      actual.addAll(toIds(page));
+      afterPaymentId = page.get(page.size() - 1).getPaymentId();
+      page = paymentRepository.findPage(null, afterPaymentId, 4);
+    }
+    assertEquals(expected, actual);
+  }
+
+  @Test
+  void test_findPage_WithSpecification() throws Exception {
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("paymentStatus", "CONFIRMED");
+
+    List<Payment> confirmedPayments = paymentRepository.findAll(PaymentSpecifications.apply(filterMap), Sort.by("paymentId"));
+    List<Payment> page = paymentRepository.findPage(
+      PaymentSpecifications.apply(filterMap), confirmedPayments.get(0).getPaymentId(), 2
+    );
+    assertEquals(toIds(confirmedPayments.subList(1, 3)), toIds(page));
+  }
+
+  // streamAll
+  //=======================================================================
+  @Test
+  void test_streamAll_ReadsAllPaymentsInOrder() throws Exception {
+    List<Integer> expected = toIds(paymentRepository.findAll(Sort.by("paymentId")));
+    entityManager.clear();
+
+    List<Integer> actual = new ArrayList<>();
+    try(Stream<Payment> payments = paymentRepository.streamAll()) {
+      payments.forEach(payment -> {
+        actual.add(payment.getPaymentId());
+        paymentRepository.detach(payment);
+        assertFalse(entityManager.contains(payment));
+      });
+    }
+    assertEquals(expected, actual);
+  }
+
+  // saveAll / findAllWithStripeUuids
+  //=======================================================================
+  @Test
+  void test_saveAll_AssignsPooledIds() throws Exception {
+    List<Payment> newPayments = new ArrayList<>();
+    for(int i = 0; i < 60; i++) {
+      newPayments.add(new Payment("BatchBookingUuid" + i, "BatchStripeUuid" + i, PaymentStatus.PENDING));
+    }
+    List<Payment> savedPayments = paymentRepository.saveAll(newPayments);
+    assertEquals(60, savedPayments.stream().map(Payment::getPaymentId).distinct().count());
+
+    List<String> stripeUuids = new ArrayList<>();
+    stripeUuids.add("BatchStripeUuid7");
+    stripeUuids.add("BatchStripeUuid42");
+    stripeUuids.add("NotAValidUuid");
+    assertEquals(2, paymentRepository.findAllWithStripeUuids(stripeUuids).size());
+  }
+
+  // updateStatusWithIds
+  //=======================================================================
+  @Test
+  void test_updateStatusWithIds_UpdatesOnlyGivenPayments() throws Exception {
+    List<Integer> pendingIds = paymentRepository.findAllIdsWithStatus(PaymentStatus.PENDING);
+    assertEquals(4, pendingIds.size());
+
+    List<Integer> paymentIds = new ArrayList<>(pendingIds.subList(0, 2));
+    paymentIds.add(-1);
+    assertEquals(new HashSet<>(pendingIds.subList(0, 2)), new HashSet<>(paymentRepository.findAllExistingIds(paymentIds)));
+    assertEquals(2, paymentRepository.updateStatusWithIds(paymentIds, PaymentStatus.APPROVED));
+
+    assertEquals(pendingIds.subList(2, 4), paymentRepository.findAllIdsWithStatus(PaymentStatus.PENDING));
+    assertEquals(PaymentStatus.APPROVED, paymentRepository.findById(pendingIds.get(0)).get().getPaymentStatus());
+  }
+
+  @Test
+  void test_updateStatusWithIdsAndStatus_SkipsPaymentsNoLongerInFromStatus() throws Exception {
+    List<Integer> pendingIds = paymentRepository.findAllIdsWithStatus(PaymentStatus.PENDING);
+    paymentRepository.updateStatusWithIds(pendingIds.subList(0, 1), PaymentStatus.APPROVED);
+
+    assertEquals(3, paymentRepository.updateStatusWithIdsAndStatus(pendingIds, PaymentStatus.PENDING, PaymentStatus.REJECTED));
+    Payment approvedPayment = paymentRepository.findById(pendingIds.get(0)).get();
+    assertEquals(PaymentStatus.APPROVED, approvedPayment.getPaymentStatus());
+    assertEquals(Integer.valueOf(1), approvedPayment.getPaymentVersion());
+    assertEquals(Integer.valueOf(1), paymentRepository.findById(pendingIds.get(1)).get().getPaymentVersion());
+  }
+
+  // findLatestUpdatedAt / updatedSince - the read models' change marker. Outside
+  // the test transaction, H2 stamps every row of a transaction with its start time.
+  //=======================================================================
+  @Test
+  @Transactional(propagation = Propagation.NOT_SUPPORTED)
+  void test_updatedSince_FindsPaymentsChangedAfterMarker() throws Exception {
+    try {
+      Instant latestUpdatedAt = paymentRepository.findLatestUpdatedAt();
+      assertNotNull(latestUpdatedAt);
+      Thread.sleep(5);
+
+      List<Integer> pendingIds = paymentRepository.findAllIdsWithStatus(PaymentStatus.PENDING);
+      paymentRepository.updateStatusWithIds(pendingIds.subList(0, 2), PaymentStatus.APPROVED);
+
+      List<Payment> changedPayments = paymentRepository.findPage(PaymentSpecifications.updatedSince(latestUpdatedAt.plusMillis(1)), null, 10);
+      assertEquals(pendingIds.subList(0, 2), changedPayments.stream().map(Payment::getPaymentId).collect(Collectors.toList()));
+      assertTrue(paymentRepository.findLatestUpdatedAt().isAfter(latestUpdatedAt));
+    }
+    finally {
+      // Committed, so the other tests' rollback does not clear them
+      paymentRepository.deleteAll();
+    }
+  }
+
+  // updateWithVersion / deleteWithVersion
+  //=======================================================================
+  @Test
+  void test_updateWithVersion_RejectsStaleVersion() throws Exception {
+    Payment payment = paymentRepository.findAll(Sort.by("paymentId")).get(0);
+    Integer paymentId = payment.getPaymentId();
+    assertEquals(Integer.valueOf(0), paymentRepository.findVersionById(paymentId).get());
+
+    assertEquals(1, paymentRepository.updateWithVersion(paymentId, "VersionBookingUuid", payment.getPaymentStripeUuid(), PaymentStatus.APPROVED, 0));
+    assertEquals(0, paymentRepository.updateWithVersion(paymentId, "StaleBookingUuid", payment.getPaymentStripeUuid(), PaymentStatus.REJECTED, 0));
+
+    Payment updatedPayment = paymentRepository.findById(paymentId).get();
+    assertEquals("VersionBookingUuid", updatedPayment.getPaymentBookingUuid());
+    assertEquals(PaymentStatus.APPROVED, updatedPayment.getPaymentStatus());
+    assertEquals(Integer.valueOf(1), updatedPayment.getPaymentVersion());
+
+    assertEquals(0, paymentRepository.deleteWithVersion(paymentId, 0));
+    assertEquals(1, paymentRepository.deleteWithVersion(paymentId, 1));
+    assertFalse(paymentRepository.existsById(paymentId));
+    assertEquals(0, paymentRepository.deleteWithId(paymentId));
+  }
+
+  // countByStatus
+  //=======================================================================
+  @Test
+  void test_countByStatus_CountsEachStoredStatus() throws Exception {
+    Map<PaymentStatus, Long> statusCounts = new HashMap<>();
+    for(PaymentStatusCount statusCount : paymentRepository.countByStatus()) {
+      statusCounts.put(statusCount.getPaymentStatus(), statusCount.getPaymentCount());
+    }
+    assertEquals(3, statusCounts.size());
+    assertEquals(Long.valueOf(4), statusCounts.get(PaymentStatus.CONFIRMED));
+    assertEquals(Long.valueOf(4), statusCounts.get(PaymentStatus.PENDING));
+    assertEquals(Long.valueOf(1), statusCounts.get(PaymentStatus.REJECTED));
+  }
+
+  // PaymentStatusConverter
+  //=======================================================================
+  @Test
+  void test_save_StoresPaymentStatusCode() throws Exception {
+    Payment savedPayment = paymentRepository.saveAndFlush(new Payment("CodeBookingUuid", "CodeStripeUuid", PaymentStatus.REJECTED));
+    Number storedStatus = (Number) entityManager
+      .createNativeQuery("SELECT status FROM payments WHERE id = ?1")
+      .setParameter(1, savedPayment.getPaymentId())
+      .getSingleResult();
+    assertEquals(PaymentStatus.REJECTED.getCode(), storedStatus.byteValue());
+
+    entityManager.clear();
+    assertEquals(PaymentStatus.REJECTED, paymentRepository.findById(savedPayment.getPaymentId()).get().getPaymentStatus());
+  }
+
+  private void assertSearchIsEquivalent(Map<String, String> filterMap) {
+    List<Payment> allPayments = paymentRepository.findAll(Sort.by("paymentId"));
+    List<Integer> expected = toIds(PaymentFilters.apply(allPayments, filterMap));
+    List<Integer> actual = toIds(paymentRepository.findAll(PaymentSpecifications.apply(filterMap), Sort.by("paymentId")));
+    assertFalse(allPayments.isEmpty());
+    assertEquals(expected, actual);
+  }
+
+  private List<Integer> toIds(List<Payment> payments) {
+    return payments.stream()
+      .map(Payment::getPaymentId)
+      .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,128 @@
+package com.ss.utopia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+import java.util.Optional;
+
+import javax.sql.DataSource;
+
+import com.ss.utopia.datasources.PaymentDataSourceConfig;
+import com.ss.utopia.datasources.PaymentRecentWrites;
+import com.ss.utopia.datasources.PaymentRoutingDataSource;
+import com.ss.utopia.datasources.PaymentRoutingDataSource.PrimaryReads;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+import com.ss.utopia.repositories.PaymentRepository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.test.autoconfigure.jdbc.AutoConfigureTestDatabase;
+import org.springframework.boot.test.autoconfigure.orm.jpa.DataJpaTest;
+import org.springframework.context.annotation.Import;
+import org.springframework.jdbc.core.JdbcTemplate;
+import org.springframework.jdbc.datasource.LazyConnectionDataSourceProxy;
+import org.springframework.transaction.PlatformTransactionManager;
+import org.springframework.transaction.annotation.Propagation;
+import org.springframework.transaction.annotation.Transactional;
+import org.springframework.transaction.support.TransactionTemplate;
+
+// Two in-memory H2 databases stand in for the MySQL primary and replica. The
+// replica never receives the primary's writes, so which one answered a query
+// shows where it was routed.
+@DataJpaTest(properties = {
+  "spring.flyway.enabled=false",
+  "spring.jpa.hibernate.ddl-auto=create-drop",
+  "spring.datasource.url=jdbc:h2:mem:payments-primary;DB_CLOSE_DELAY=-1",
+  "spring.datasource.username=sa",
+  "spring.datasource.password=",
+  "payments.datasource.replica.url=jdbc:h2:mem:payments-replica;DB_CLOSE_DELAY=-1",
+  "payments.datasource.read-your-writes-ms=60000"
+})
+@AutoConfigureTestDatabase(replace = AutoConfigureTestDatabase.Replace.NONE)
+@Import({ PaymentDataSourceConfig.class, PaymentRecentWrites.class })
+@Transactional(propagation = Propagation.NOT_SUPPORTED)
+class PaymentRoutingDataSourceTest {
+
+  private static final int REPLICA_PAYMENT_ID = 1000;
+
+  @Autowired
+  private PaymentRepository paymentRepository;
+
+  @Autowired
+  private PaymentRecentWrites paymentRecentWrites;
+
+  @Autowired
+  private DataSource dataSource;
+
+  @Autowired
+  private PlatformTransactionManager transactionManager;
+
+  private Payment primaryPayment;
+
+  @BeforeEach
+  void setup() throws Exception {
+    PaymentRoutingDataSource routingDataSource = (PaymentRoutingDataSource) ((LazyConnectionDataSourceProxy) dataSource).getTargetDataSource();
+    JdbcTemplate replica = new JdbcTemplate(routingDataSource.getResolvedDataSources().get("replica"));
+    replica.execute("DROP TABLE IF EXISTS payments");
+    replica.execute(
+      "CREATE TABLE payments (id INT PRIMARY KEY, booking_uuid VARCHAR(255), stripe_uuid VARCHAR(255), status TINYINT NOT NULL, version INT NOT NULL DEFAULT 0, " +
+      "updated_at TIMESTAMP(3) DEFAULT CURRENT_TIMESTAMP(3))"
+    );
+    replica.update(
+      "INSERT INTO payments (id, booking_uuid, stripe_uuid, status) VALUES (?, ?, ?, ?)",
+      REPLICA_PAYMENT_ID, "ReplicaBookingUuid", "ReplicaStripeUuid", PaymentStatus.APPROVED.getCode()
+    );
+
+    paymentRepository.deleteAll();
+    primaryPayment = paymentRepository.save(new Payment("PrimaryBookingUuid", "PrimaryStripeUuid", PaymentStatus.PENDING));
+  }
+
+  @Test
+  void test_readOnlyQueries_AreRoutedToReplica() throws Exception {
+    assertTrue(paymentRepository.findById(REPLICA_PAYMENT_ID).isPresent());
+    assertFalse(paymentRepository.findById(primaryPayment.getPaymentId()).isPresent());
+    assertTrue(paymentRepository.findByStripeUuid("ReplicaStripeUuid").isPresent());
+    assertEquals(PaymentStatus.APPROVED, paymentRepository.countByStatus().get(0).getPaymentStatus());
+  }
+
+  @Test
+  void test_readWriteTransaction_IsRoutedToPrimary() throws Exception {
+    TransactionTemplate readWrite = new TransactionTemplate(transactionManager);
+    Optional<Payment> payment = readWrite.execute(status -> paymentRepository.findById(primaryPayment.getPaymentId()));
+    assertTrue(payment.isPresent());
+    assertEquals(PaymentStatus.PENDING, payment.get().getPaymentStatus());
+  }
+
+  @Test
+  void test_primaryReads_OverridesReadOnlyRouting() throws Exception {
+    try(PrimaryReads primaryReads = PaymentRoutingDataSource.primaryReads()) {
+      assertTrue(paymentRepository.findById(primaryPayment.getPaymentId()).isPresent());
+      assertFalse(paymentRepository.findById(REPLICA_PAYMENT_ID).isPresent());
+    }
+    assertFalse(PaymentRoutingDataSource.isPrimaryReads());
+    assertTrue(paymentRepository.findById(REPLICA_PAYMENT_ID).isPresent());
+  }
+
+  @Test
+  void test_recentWrites_ReadsWrittenPaymentsFromPrimary() throws Exception {
+    paymentRecentWrites.record(primaryPayment);
+
+    try(PrimaryReads primaryReads = paymentRecentWrites.readsForBookingUuid("PrimaryBookingUuid")) {
+      assertTrue(paymentRepository.findByBookingUuid("PrimaryBookingUuid").isPresent());
+    }
+    try(PrimaryReads primaryReads = paymentRecentWrites.readsForId(REPLICA_PAYMENT_ID)) {
+      assertTrue(paymentRepository.findById(REPLICA_PAYMENT_ID).isPresent());
+    }
+  }
+
+  @Test
+  void test_recentWrites_MarksWrittenPaymentKeys() throws Exception {
+    paymentRecentWrites.record(primaryPayment);
+    assertTrue(paymentRecentWrites.isRecentlyWritten(primaryPayment));
+    assertTrue(paymentRecentWrites.isRecentlyWritten(new Payment(Integer.MAX_VALUE, "PrimaryBookingUuid", "OtherStripeUuid", PaymentStatus.PENDING)));
+    assertFalse(paymentRecentWrites.isRecentlyWritten(new Payment(Integer.MAX_VALUE, "ReplicaBookingUuid", "ReplicaStripeUuid", PaymentStatus.PENDING)));
+  }
+}
@@ -0,0 +1,208 @@
+package com.ss.utopia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.ss.utopia.filters.PaymentFilters;
+import com.ss.utopia.indexes.PaymentSearchIndex;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+import com.ss.utopia.repositories.PaymentRepository;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PaymentSearchIndexTest {
+
+  private PaymentSearchIndex paymentSearchIndex;
+  private List<Payment> payments;
+
+  @BeforeEach
+  void setup() throws Exception {
+    payments = new ArrayList<>();
+    for(Payment payment : MOCKPaymentRepository.getTestPaymentList()) {
+      payments.add(payment.copy());
+    }
+    PaymentRepository paymentRepository = mock(PaymentRepository.class);
+    when(paymentRepository.streamAll()).thenAnswer(invocation -> payments.stream().map(Payment::copy));
+    // Pages ignore the specification, refresh re-reads every payment
+    when(paymentRepository.findPage(any(), any(), anyInt())).thenAnswer(invocation -> {
+      Integer afterPaymentId = invocation.getArgument(1);
+      int limit = invocation.getArgument(2);
+      return payments.stream()
+        .filter(i -> afterPaymentId == null || i.getPaymentId() > afterPaymentId)
+        .limit(limit)
+        .map(Payment::copy)
+        .collect(Collectors.toList());
+    });
+    when(paymentRepository.findLatestUpdatedAt()).thenReturn(Instant.parse("2021-03-01T10:00:00Z"));
+
+    paymentSearchIndex = new PaymentSearchIndex("index", 60000);
+    ReflectionTestUtils.setField(paymentSearchIndex, "paymentRepository", paymentRepository);
+    paymentSearchIndex.rebuild();
+  }
+
+  @Test
+  void test_isLoaded_OnlyAfterRebuild() throws Exception {
+    PaymentSearchIndex unbuiltIndex = new PaymentSearchIndex("index", 60000);
+    assertFalse(unbuiltIndex.isLoaded());
+    assertTrue(paymentSearchIndex.isLoaded());
+  }
+
+  // search - same results as PaymentFilters.apply
+  //=======================================================================
+  @Test
+  void test_search_isEquivalent() throws Exception {
+    String[] searchTerms = { "", "confirmed", "CONFIRMED, 40", "pend, 4", "a2bf6dd9-b296", "7", "%,_", "not-indexed" };
+    for(String searchTerm : searchTerms) {
+      Map<String, String> filterMap = new HashMap<>();
+      filterMap.put("searchTerms", searchTerm);
+      assertSearchIsEquivalent(filterMap);
+    }
+  }
+
+  @Test
+  void test_search_WithFilters_isEquivalent() throws Exception {
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("paymentBookingUuid", "38d85c66-2a58-4608-9cbb-a27769b9e95f");
+    filterMap.put("paymentStatus", "REJECTED");
+    assertSearchIsEquivalent(filterMap);
+
+    filterMap.clear();
+    filterMap.put("paymentId", "4");
+    filterMap.put("searchTerms", "confirmed");
+    assertSearchIsEquivalent(filterMap);
+
+    filterMap.clear();
+    filterMap.put("paymentStatus", "PENDING");
+    assertSearchIsEquivalent(filterMap);
+  }
+
+  // Incremental maintenance
+  //=======================================================================
+  @Test
+  void test_put_IndexesNewAndUpdatedPayments() throws Exception {
+    Payment newPayment = new Payment(100, "11111111-2222-3333-4444-555555555555", "66666666-7777-8888-9999-000000000000", PaymentStatus.PENDING);
+    payments.add(newPayment.copy());
+    paymentSearchIndex.put(newPayment);
+    assertEquals(1, search("3333-4444").size());
+
+    Payment updatedPayment = new Payment(100, "aaaaaaaa-2222-3333-4444-555555555555", "66666666-7777-8888-9999-000000000000", PaymentStatus.PENDING);
+    updatedPayment.setPaymentVersion(1);
+    payments.set(payments.size() - 1, updatedPayment.copy());
+    paymentSearchIndex.put(updatedPayment);
+    assertTrue(search("11111111").isEmpty());
+    assertEquals(1, search("aaaaaaaa").size());
+    assertSearchIsEquivalent(searchTermsMap("pend"));
+  }
+
+  @Test
+  void test_updateStatus_And_remove() throws Exception {
+    Payment rejectedPayment = payments.get(8);
+    rejectedPayment.setPaymentStatus(PaymentStatus.APPROVED);
+    paymentSearchIndex.updateStatus(rejectedPayment.getPaymentId(), PaymentStatus.APPROVED);
+    assertTrue(search("rejected").isEmpty());
+    assertSearchIsEquivalent(searchTermsMap("approved"));
+
+    Payment removedPayment = payments.remove(0);
+    paymentSearchIndex.remove(removedPayment.getPaymentId());
+    assertTrue(search(removedPayment.getPaymentStripeUuid()).isEmpty());
+    assertSearchIsEquivalent(searchTermsMap("confirmed"));
+    assertEquals(payments.size(), paymentSearchIndex.size());
+  }
+
+  @Test
+  void test_refresh_LoadsOtherInstancesInsertsAndUpdates() throws Exception {
+    payments.add(new Payment(20, "11111111-2222-3333-4444-555555555555", "66666666-7777-8888-9999-000000000000", PaymentStatus.PENDING));
+    payments.add(0, new Payment(0, "aaaaaaaa-2222-3333-4444-555555555555", "bbbbbbbb-7777-8888-9999-000000000000", PaymentStatus.PENDING));
+    payments.get(5).setPaymentStatus(PaymentStatus.APPROVED);
+    payments.get(5).setPaymentVersion(1);
+    paymentSearchIndex.refresh();
+    assertEquals(payments.size(), paymentSearchIndex.size());
+    assertSearchIsEquivalent(searchTermsMap("3333-4444"));
+    assertSearchIsEquivalent(searchTermsMap("approved"));
+  }
+
+  @Test
+  void test_refresh_KeepsNewerCommittedChange() throws Exception {
+    Payment committedPayment = payments.get(4).copy();
+    committedPayment.setPaymentStatus(PaymentStatus.REJECTED);
+    committedPayment.setPaymentVersion(2);
+    paymentSearchIndex.put(committedPayment);
+    paymentSearchIndex.remove(payments.get(5).getPaymentId());
+
+    // The refresh page was read before both changes committed
+    paymentSearchIndex.refresh();
+    assertEquals(Arrays.asList(committedPayment.getPaymentId(), 9), toIds(search("rejected")));
+    assertEquals(payments.size() - 1, paymentSearchIndex.size());
+  }
+
+  @Test
+  void test_rebuild_DropsOtherInstancesDeletes() throws Exception {
+    payments.remove(3);
+    paymentSearchIndex.refresh();
+    assertEquals(payments.size() + 1, paymentSearchIndex.size());
+    paymentSearchIndex.rebuild();
+    assertEquals(payments.size(), paymentSearchIndex.size());
+    assertSearchIsEquivalent(searchTermsMap("confirmed"));
+  }
+
+  @Test
+  void test_disabledIndex_HoldsNothing() throws Exception {
+    PaymentSearchIndex disabledIndex = new PaymentSearchIndex("database", 60000);
+    disabledIndex.put(payments.get(0));
+    disabledIndex.rebuild();
+    assertEquals(0, disabledIndex.size());
+  }
+
+  // Metrics
+  //=======================================================================
+  @Test
+  void test_bindTo_ReportsIndexSize() throws Exception {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    paymentSearchIndex.bindTo(registry);
+    assertEquals(payments.size(), registry.get("payments.search.index.payments").gauge().value());
+    assertTrue(registry.get("payments.search.index.postings").gauge().value() > 0);
+    assertTrue(registry.get("payments.search.index.memory").gauge().value() > 0);
+  }
+
+  private List<Payment> search(String searchTerms) {
+    return paymentSearchIndex.search(searchTermsMap(searchTerms));
+  }
+
+  private Map<String, String> searchTermsMap(String searchTerms) {
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("searchTerms", searchTerms);
+    return filterMap;
+  }
+
+  private void assertSearchIsEquivalent(Map<String, String> filterMap) {
+    assertEquals(
+      toIds(PaymentFilters.apply(payments, filterMap)),
+      toIds(paymentSearchIndex.search(filterMap)),
+      filterMap.toString()
+    );
+  }
+
+  private List<Integer> toIds(List<Payment> payments) {
+    return payments.stream()
+      .map(Payment::getPaymentId)
+      .collect(Collectors.toList());
+  }
+}
@@ -1,24 +1,61 @@
 package com.ss.utopia;
 
 import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertNull;
 import static org.junit.jupiter.api.Assertions.assertThrows;
 import static org.junit.jupiter.api.Assertions.assertTrue;
 import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyCollection;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.anyList;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.ArgumentMatchers.eq;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
 import static org.mockito.Mockito.when;
 
 import java.util.Map;
 import java.util.Optional;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
 
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.ss.utopia.caches.PaymentCache;
+import com.ss.utopia.caches.PaymentLookupCoalescer;
+import com.ss.utopia.datasources.PaymentRecentWrites;
 import com.ss.utopia.exceptions.PaymentAlreadyExistsException;
+import com.ss.utopia.exceptions.PaymentBatchTooLargeException;
+import com.ss.utopia.exceptions.PaymentCursorInvalidException;
 import com.ss.utopia.exceptions.PaymentNotFoundException;
+import com.ss.utopia.exceptions.PaymentResultTooLargeException;
 import com.ss.utopia.exceptions.PaymentStatusNotFoundException;
+import com.ss.utopia.exceptions.PaymentUuidInvalidException;
+import com.ss.utopia.exceptions.PaymentVersionConflictException;
+import com.ss.utopia.filters.PaymentCursors;
 import com.ss.utopia.filters.PaymentFilters;
+import com.ss.utopia.indexes.PaymentSearchIndex;
 import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+import com.ss.utopia.models.PaymentBatchResult;
+import com.ss.utopia.models.PaymentEvent;
+import com.ss.utopia.models.PaymentEventType;
+import com.ss.utopia.models.PaymentPage;
+import com.ss.utopia.models.PaymentStats;
+import com.ss.utopia.models.PaymentStatusCount;
+import com.ss.utopia.models.PaymentStatusUpdateResult;
+import com.ss.utopia.outbox.PaymentOutbox;
+import com.ss.utopia.repositories.PaymentEventRepository;
 import com.ss.utopia.repositories.PaymentRepository;
+import com.ss.utopia.snapshots.PaymentSnapshot;
+import com.ss.utopia.subscriptions.PaymentSubscriptions;
 import com.ss.utopia.services.PaymentService;
 
 import org.junit.jupiter.api.BeforeEach;
@@ -30,8 +67,14 @@ import org.springframework.context.annotation.Configuration;
 import org.springframework.context.annotation.Import;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.boot.test.context.SpringBootTest;
-
-@SpringBootTest
+import org.springframework.dao.DataIntegrityViolationException;
+import org.springframework.data.domain.Sort;
+import org.springframework.data.jpa.domain.Specification;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.transaction.support.TransactionSynchronizationManager;
+import org.springframework.transaction.support.TransactionSynchronizationUtils;
+
+@SpringBootTest(properties = "payments.outbox.enabled=true")
 class PaymentServiceTest {
 
   private final ObjectMapper mapper = new ObjectMapper();
@@ -39,11 +82,20 @@ class PaymentServiceTest {
   @Autowired
   private PaymentService service;
 
+  @Autowired
+  private PaymentCache paymentCache;
+
   @MockBean
   private PaymentRepository paymentRepository;
 
+  @MockBean
+  private PaymentEventRepository paymentEventRepository;
+
   @Configuration
-  @Import(PaymentService.class)
+  @Import({
+    PaymentService.class, PaymentCache.class, PaymentLookupCoalescer.class, PaymentSearchIndex.class, PaymentSnapshot.class,
+    PaymentRecentWrites.class, PaymentOutbox.class, PaymentSubscriptions.class
+  })
   static class TestConfig {
     @Bean
     PaymentRepository paymentRepository() {
@@ -54,6 +106,10 @@ class PaymentServiceTest {
   @BeforeEach
   void setup() throws Exception {
     Mockito.reset(paymentRepository);
+    paymentCache.evictAll();
+    ReflectionTestUtils.setField(service, "searchMode", "database");
+    ReflectionTestUtils.setField(service, "uuidStorage", "string");
+    ReflectionTestUtils.setField(service, "maxResultSize", 10000);
   }
 
   // Validate Models
@@ -63,23 +119,65 @@ class PaymentServiceTest {
     assertEquals(Integer.valueOf(1), MOCKPaymentService.getTestPayment().getPaymentId());
     assertEquals("fa0ff7db-c2da-40bd-ba21-1d7e81faa24a", MOCKPaymentService.getTestPayment().getPaymentBookingUuid());
     assertEquals("a2bf6dd9-b296-4e03-b1ee-55acfd1c196d", MOCKPaymentService.getTestPayment().getPaymentStripeUuid());
-    assertEquals("CONFIRMED", MOCKPaymentService.getTestPayment().getPaymentStatus());
+    assertEquals(PaymentStatus.CONFIRMED, MOCKPaymentService.getTestPayment().getPaymentStatus());
   }
 
   // findAll
   //=======================================================================
   @Test
   void test_findAll_WithValidResults() throws Exception {
-    when(paymentRepository.findAll()).thenReturn(MOCKPaymentRepository.findAllWithResults());
+    when(paymentRepository.findPage(isNull(), isNull(), anyInt())).thenReturn(MOCKPaymentRepository.findAllWithResults());
     assertEquals(MOCKPaymentRepository.findAllWithResults(), service.findAll());
+    verify(paymentRepository).findPage(isNull(), isNull(), eq(10001));
   }
 
   @Test
   void test_findAll_WithInvalidResults() throws Exception {
-    when(paymentRepository.findAll()).thenReturn(MOCKPaymentRepository.findAllWithNoResults());
+    when(paymentRepository.findPage(isNull(), isNull(), anyInt())).thenReturn(MOCKPaymentRepository.findAllWithNoResults());
     assertEquals(MOCKPaymentRepository.findAllWithNoResults(), service.findAll());
   }
 
+  @Test
+  void test_findAll_OverMaxResultSize_isRejected() throws Exception {
+    ReflectionTestUtils.setField(service, "maxResultSize", 3);
+    when(paymentRepository.findPage(isNull(), isNull(), anyInt())).thenReturn(MOCKPaymentRepository.getTestPaymentList().subList(0, 4));
+    assertThrows(PaymentResultTooLargeException.class, () -> service.findAll());
+    verify(paymentRepository).findPage(isNull(), isNull(), eq(4));
+    verify(paymentRepository, never()).findAll();
+  }
+
+  // exportAll
+  //=======================================================================
+  @Test
+  void test_exportAll_ConsumesAndDetachesEveryPayment() throws Exception {
+    when(paymentRepository.streamAll()).thenReturn(MOCKPaymentRepository.getTestPaymentList().stream());
+
+    List<Payment> exported = new ArrayList<>();
+    service.exportAll(exported::add);
+    assertEquals(MOCKPaymentRepository.getTestPaymentList(), exported);
+    verify(paymentRepository, times(exported.size())).detach(any(Payment.class));
+  }
+
+  // findStats
+  //=======================================================================
+  @Test
+  void test_findStats_FillsMissingStatusesAndCaches() throws Exception {
+    when(paymentRepository.countByStatus()).thenReturn(Arrays.asList(
+      new PaymentStatusCount(PaymentStatus.CONFIRMED, 4L),
+      new PaymentStatusCount(PaymentStatus.PENDING, 4L),
+      new PaymentStatusCount(PaymentStatus.REJECTED, 1L)
+    ));
+
+    PaymentStats stats = service.findStats();
+    assertEquals(Long.valueOf(9), stats.getTotalCount());
+    assertEquals(Long.valueOf(4), stats.getStatusCounts().get(PaymentStatus.PENDING));
+    assertEquals(Long.valueOf(0), stats.getStatusCounts().get(PaymentStatus.APPROVED));
+    assertEquals(Arrays.asList(PaymentStatus.values()), new ArrayList<>(stats.getStatusCounts().keySet()));
+
+    assertEquals(stats, service.findStats());
+    verify(paymentRepository, times(1)).countByStatus();
+  }
+
   // findById
   //=======================================================================
   @Test
@@ -111,6 +209,13 @@ class PaymentServiceTest {
     assertThrows(PaymentNotFoundException.class, () -> service.findByBookingUuid(bookingUuid));
   }
 
+  @Test
+  void test_findByBookingUuid_WithBinaryUuidStorage_SkipsNonUuid() throws Exception {
+    ReflectionTestUtils.setField(service, "uuidStorage", "binary");
+    assertThrows(PaymentNotFoundException.class, () -> service.findByBookingUuid("NotAValidUuid"));
+    verify(paymentRepository, never()).findByBookingUuid(any());
+  }
+
     // findByStripeUuid
   //=======================================================================
   @Test
@@ -128,6 +233,177 @@ class PaymentServiceTest {
     assertThrows(PaymentNotFoundException.class, () -> service.findByStripeUuid(stripeUuid));
   }
 
+  // PaymentCache
+  //=======================================================================
+  @Test
+  void test_findById_ReadsThroughCache() throws Exception {
+    when(paymentRepository.findById(1)).thenReturn(MOCKPaymentRepository.findById(1));
+    service.findById(1);
+    service.findById(1);
+    verify(paymentRepository, times(1)).findById(1);
+  }
+
+  @Test
+  void test_findByBookingAndStripeUuid_ShareCachedPayment() throws Exception {
+    Payment testPayment = MOCKPaymentRepository.getTestPayment();
+    when(paymentRepository.findById(1)).thenReturn(MOCKPaymentRepository.findById(1));
+    service.findById(1);
+
+    assertEquals(testPayment, service.findByBookingUuid(testPayment.getPaymentBookingUuid()));
+    assertEquals(testPayment, service.findByStripeUuid(testPayment.getPaymentStripeUuid()));
+    verify(paymentRepository, never()).findByBookingUuid(any());
+    verify(paymentRepository, never()).findByStripeUuid(any());
+  }
+
+  @Test
+  void test_evict_InsideTransaction_WaitsForCommit() throws Exception {
+    Payment testPayment = MOCKPaymentRepository.getTestPayment();
+    paymentCache.put(testPayment, paymentCache.loadStamp());
+    TransactionSynchronizationManager.initSynchronization();
+    try {
+      paymentCache.evict(testPayment);
+      assertEquals(testPayment, paymentCache.getById(testPayment.getPaymentId()));
+      TransactionSynchronizationUtils.triggerAfterCommit();
+      assertNull(paymentCache.getById(testPayment.getPaymentId()));
+    }
+    finally {
+      TransactionSynchronizationManager.clearSynchronization();
+    }
+  }
+
+  @Test
+  void test_findById_LoadRacingWrite_IsNotCached() throws Exception {
+    Payment testPayment = MOCKPaymentRepository.getTestPayment();
+    Payment updatedPayment = new Payment(1, testPayment.getPaymentBookingUuid(), testPayment.getPaymentStripeUuid(), PaymentStatus.APPROVED);
+    updatedPayment.setPaymentVersion(1);
+
+    // The write commits and evicts while the lookup's query is still running
+    when(paymentRepository.findById(1)).thenAnswer(invocation -> {
+      paymentCache.evict(updatedPayment);
+      return Optional.of(testPayment);
+    });
+    assertEquals(PaymentStatus.CONFIRMED, service.findById(1).getPaymentStatus());
+    assertNull(paymentCache.getById(1));
+
+    when(paymentRepository.findById(1)).thenReturn(Optional.of(updatedPayment));
+    assertEquals(PaymentStatus.APPROVED, service.findById(1).getPaymentStatus());
+    assertEquals(updatedPayment, paymentCache.getById(1));
+  }
+
+  @Test
+  void test_put_OlderVersion_DoesNotReplaceCachedPayment() throws Exception {
+    Payment testPayment = MOCKPaymentRepository.getTestPayment();
+    Payment olderPayment = new Payment(1, testPayment.getPaymentBookingUuid(), testPayment.getPaymentStripeUuid(), PaymentStatus.CONFIRMED);
+    olderPayment.setPaymentVersion(0);
+    Payment updatedPayment = new Payment(1, testPayment.getPaymentBookingUuid(), testPayment.getPaymentStripeUuid(), PaymentStatus.APPROVED);
+    updatedPayment.setPaymentVersion(1);
+    paymentCache.put(updatedPayment, paymentCache.loadStamp());
+    paymentCache.put(olderPayment, paymentCache.loadStamp());
+    assertEquals(PaymentStatus.APPROVED, paymentCache.getById(1).getPaymentStatus());
+  }
+
+  // PaymentLookupCoalescer
+  //=======================================================================
+  @Test
+  void test_findByBookingUuid_CoalescesConcurrentLookups() throws Exception {
+    Payment testPayment = MOCKPaymentRepository.getTestPayment();
+    CountDownLatch leaderQuerying = new CountDownLatch(1);
+    CountDownLatch releaseQuery = new CountDownLatch(1);
+    when(paymentRepository.findByBookingUuid(testPayment.getPaymentBookingUuid())).thenAnswer(invocation -> {
+      leaderQuerying.countDown();
+      releaseQuery.await(5, TimeUnit.SECONDS);
+      return Optional.of(testPayment);
+    });
+
+    List<Payment> results = new CopyOnWriteArrayList<>();
+    List<Thread> lookups = new ArrayList<>();
+    for(int i = 0; i < 5; i++) {
+      Thread lookup = new Thread(() -> {
+        try {
+          results.add(service.findByBookingUuid(testPayment.getPaymentBookingUuid()));
+        }
+        catch(PaymentNotFoundException err) {
+          throw new IllegalStateException(err);
+        }
+      });
+      lookups.add(lookup);
+      lookup.start();
+      if(i == 0) {
+        assertTrue(leaderQuerying.await(5, TimeUnit.SECONDS));
+      }
+    }
+
+    // Followers park on the leader's call before it is allowed to finish
+    long deadline = System.currentTimeMillis() + 5000;
+    while(lookups.subList(1, 5).stream().anyMatch(i -> i.getState() != Thread.State.WAITING) 
+      && System.currentTimeMillis() < deadline) {
+      Thread.sleep(5);
+    }
+    releaseQuery.countDown();
+    for(Thread lookup : lookups) {
+      lookup.join(5000);
+    }
+
+    assertEquals(5, results.size());
+    assertTrue(results.stream().allMatch(testPayment::equals));
+    verify(paymentRepository, times(1)).findByBookingUuid(testPayment.getPaymentBookingUuid());
+  }
+
+  @Test
+  void test_findByBookingUuid_AfterEviction_DoesNotJoinEarlierLookup() throws Exception {
+    Payment testPayment = MOCKPaymentRepository.getTestPayment();
+    Payment updatedPayment = new Payment(1, testPayment.getPaymentBookingUuid(), testPayment.getPaymentStripeUuid(), PaymentStatus.APPROVED);
+    CountDownLatch leaderQuerying = new CountDownLatch(1);
+    CountDownLatch releaseQuery = new CountDownLatch(1);
+    when(paymentRepository.findByBookingUuid(testPayment.getPaymentBookingUuid())).thenAnswer(invocation -> {
+      leaderQuerying.countDown();
+      releaseQuery.await(5, TimeUnit.SECONDS);
+      return Optional.of(testPayment);
+    }).thenReturn(Optional.of(updatedPayment));
+
+    List<Payment> leaderResult = new CopyOnWriteArrayList<>();
+    Thread leader = new Thread(() -> {
+      try {
+        leaderResult.add(service.findByBookingUuid(testPayment.getPaymentBookingUuid()));
+      }
+      catch(PaymentNotFoundException err) {
+        throw new IllegalStateException(err);
+      }
+    });
+    leader.start();
+    try {
+      assertTrue(leaderQuerying.await(5, TimeUnit.SECONDS));
+
+      // The caller's write commits while the earlier lookup is still querying
+      paymentCache.evict(updatedPayment);
+      assertEquals(PaymentStatus.APPROVED, service.findByBookingUuid(testPayment.getPaymentBookingUuid()).getPaymentStatus());
+    }
+    finally {
+      releaseQuery.countDown();
+      leader.join(5000);
+    }
+    assertEquals(PaymentStatus.CONFIRMED, leaderResult.get(0).getPaymentStatus());
+    verify(paymentRepository, times(2)).findByBookingUuid(testPayment.getPaymentBookingUuid());
+  }
+
+  @Test
+  void test_update_EvictsAllCachedKeys() throws Exception {
+    Payment testPayment = MOCKPaymentRepository.getTestPayment();
+    when(paymentRepository.findByBookingUuid(testPayment.getPaymentBookingUuid()))
+    .thenReturn(MOCKPaymentRepository.findByBookingUuid(testPayment.getPaymentBookingUuid()));
+    service.findByBookingUuid(testPayment.getPaymentBookingUuid());
+
+    Payment updatedPayment = new Payment(1, testPayment.getPaymentBookingUuid(), testPayment.getPaymentStripeUuid(), PaymentStatus.APPROVED);
+    when(paymentRepository.updateWithVersion(1, testPayment.getPaymentBookingUuid(), testPayment.getPaymentStripeUuid(), PaymentStatus.APPROVED, 0))
+    .thenReturn(1);
+    service.update(1, testPayment.getPaymentBookingUuid(), testPayment.getPaymentStripeUuid(), "APPROVED", 0);
+
+    when(paymentRepository.findById(1)).thenReturn(Optional.of(updatedPayment));
+    when(paymentRepository.findByBookingUuid(testPayment.getPaymentBookingUuid())).thenReturn(Optional.of(updatedPayment));
+    assertEquals(PaymentStatus.APPROVED, service.findById(1).getPaymentStatus());
+    assertEquals(PaymentStatus.APPROVED, service.findByBookingUuid(testPayment.getPaymentBookingUuid()).getPaymentStatus());
+  }
+
   // findBySearchAndFilter
   //=======================================================================
   @Test
@@ -271,25 +547,196 @@ class PaymentServiceTest {
     assertEquals(0, searchAndFiterResults.size());
   }
 
+  @Test
+  @SuppressWarnings("unchecked")
+  void test_findBySearchAndFilter_DatabaseMode_QueriesRepository() throws Exception {
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("paymentStatus", "PENDING");
+
+    List<Payment> pendingPayments = PaymentFilters.apply(MOCKPaymentRepository.getTestPaymentList(), filterMap);
+    when(paymentRepository.findPage(any(Specification.class), isNull(), anyInt())).thenReturn(pendingPayments);
+
+    assertEquals(pendingPayments, service.findBySearchAndFilter(filterMap));
+    verify(paymentRepository).findPage(any(Specification.class), isNull(), eq(10001));
+    verify(paymentRepository, never()).findAll();
+  }
+
+  @Test
+  void test_findBySearchAndFilter_MemoryMode_OverMaxResultSize_isRejected() throws Exception {
+    ReflectionTestUtils.setField(service, "searchMode", "memory");
+    ReflectionTestUtils.setField(service, "maxResultSize", 3);
+    when(paymentRepository.findPage(isNull(), isNull(), anyInt())).thenReturn(MOCKPaymentRepository.findAllWithResults());
+
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("paymentStatus", "PENDING");
+    assertThrows(PaymentResultTooLargeException.class, () -> service.findBySearchAndFilter(filterMap));
+
+    filterMap.put("paymentStatus", "REJECTED");
+    assertEquals(1, service.findBySearchAndFilter(filterMap).size());
+    verify(paymentRepository, never()).findAll();
+  }
+
+  @Test
+  void test_findBySearchAndFilter_MemoryMode_FiltersPages() throws Exception {
+    ReflectionTestUtils.setField(service, "searchMode", "memory");
+    when(paymentRepository.findPage(isNull(), isNull(), anyInt())).thenReturn(MOCKPaymentRepository.findAllWithResults());
+
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("paymentStatus", "PENDING");
+
+    assertEquals(
+      PaymentFilters.apply(MOCKPaymentRepository.getTestPaymentList(), filterMap),
+      service.findBySearchAndFilter(filterMap)
+    );
+  }
+
+  @Test
+  void test_findBySearchAndFilter_MemoryMode_ReadsOnlyUntilLimit() throws Exception {
+    ReflectionTestUtils.setField(service, "searchMode", "memory");
+    ReflectionTestUtils.setField(service, "maxResultSize", 3);
+    List<Payment> approvedPayments = new ArrayList<>();
+    for(int paymentId = 1; paymentId <= 1000; paymentId++) {
+      approvedPayments.add(new Payment(paymentId, "booking" + paymentId, "stripe" + paymentId, PaymentStatus.APPROVED));
+    }
+    when(paymentRepository.findPage(isNull(), isNull(), anyInt())).thenReturn(approvedPayments);
+    when(paymentRepository.findPage(isNull(), eq(1000), anyInt())).thenReturn(MOCKPaymentRepository.findAllWithResults());
+
+    // The only match is on the second page
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("paymentStatus", "REJECTED");
+    assertEquals(1, service.findBySearchAndFilter(filterMap).size());
+
+    // Four matches in the first page are enough to reject the search
+    filterMap.put("paymentStatus", "APPROVED");
+    assertThrows(PaymentResultTooLargeException.class, () -> service.findBySearchAndFilter(filterMap));
+    verify(paymentRepository, times(1)).findPage(isNull(), eq(1000), anyInt());
+  }
+
+  @Test
+  void test_findBySearchAndFilter_IndexMode_SearchesIndex() throws Exception {
+    ReflectionTestUtils.setField(service, "searchMode", "index");
+    PaymentSearchIndex paymentSearchIndex = mock(PaymentSearchIndex.class);
+    Object enabledIndex = ReflectionTestUtils.getField(service, "paymentSearchIndex");
+    ReflectionTestUtils.setField(service, "paymentSearchIndex", paymentSearchIndex);
+    try {
+      Map<String, String> filterMap = new HashMap<>();
+      filterMap.put("searchTerms", "pend");
+      List<Payment> pendingPayments = PaymentFilters.apply(MOCKPaymentRepository.getTestPaymentList(), filterMap);
+      when(paymentSearchIndex.isLoaded()).thenReturn(true);
+      when(paymentSearchIndex.search(filterMap)).thenReturn(pendingPayments);
+
+      assertEquals(pendingPayments, service.findBySearchAndFilter(filterMap));
+      verify(paymentRepository, never()).findAll();
+      verify(paymentRepository, never()).findAll(any(Specification.class), any(Sort.class));
+    }
+    finally {
+      ReflectionTestUtils.setField(service, "paymentSearchIndex", enabledIndex);
+    }
+  }
+
+  @Test
+  void test_findBySearchAndFilter_IndexNotLoaded_SearchesDatabase() throws Exception {
+    ReflectionTestUtils.setField(service, "searchMode", "index");
+    PaymentSearchIndex paymentSearchIndex = mock(PaymentSearchIndex.class);
+    Object enabledIndex = ReflectionTestUtils.getField(service, "paymentSearchIndex");
+    ReflectionTestUtils.setField(service, "paymentSearchIndex", paymentSearchIndex);
+    try {
+      Map<String, String> filterMap = new HashMap<>();
+      filterMap.put("searchTerms", "pend");
+      when(paymentRepository.findPage(any(Specification.class), isNull(), anyInt()))
+      .thenReturn(MOCKPaymentRepository.getTestPaymentList().subList(4, 8));
+
+      assertEquals(MOCKPaymentRepository.getTestPaymentList().subList(4, 8), service.findBySearchAndFilter(filterMap));
+      verify(paymentSearchIndex, never()).search(any());
+    }
+    finally {
+      ReflectionTestUtils.setField(service, "paymentSearchIndex", enabledIndex);
+    }
+  }
+
+  @Test
+  void test_findBySearchAndFilter_SnapshotNotLoaded_SearchesDatabase() throws Exception {
+    ReflectionTestUtils.setField(service, "searchMode", "snapshot");
+    PaymentSnapshot paymentSnapshot = mock(PaymentSnapshot.class);
+    Object enabledSnapshot = ReflectionTestUtils.getField(service, "paymentSnapshot");
+    ReflectionTestUtils.setField(service, "paymentSnapshot", paymentSnapshot);
+    try {
+      Map<String, String> filterMap = new HashMap<>();
+      filterMap.put("searchTerms", "pend");
+      when(paymentRepository.findPage(any(Specification.class), isNull(), anyInt()))
+      .thenReturn(MOCKPaymentRepository.getTestPaymentList().subList(4, 8));
+
+      assertEquals(MOCKPaymentRepository.getTestPaymentList().subList(4, 8), service.findBySearchAndFilter(filterMap));
+      verify(paymentSnapshot, never()).search(any());
+
+      List<Payment> pendingPayments = PaymentFilters.apply(MOCKPaymentRepository.getTestPaymentList(), filterMap);
+      when(paymentSnapshot.isLoaded()).thenReturn(true);
+      when(paymentSnapshot.search(filterMap)).thenReturn(pendingPayments);
+      assertEquals(pendingPayments, service.findBySearchAndFilter(filterMap));
+    }
+    finally {
+      ReflectionTestUtils.setField(service, "paymentSnapshot", enabledSnapshot);
+    }
+  }
+
+  // findPage
+  //=======================================================================
+  @Test
+  void test_findPage_WithMorePages() throws Exception {
+    when(paymentRepository.findPage(any(), isNull(), anyInt()))
+    .thenReturn(MOCKPaymentRepository.getTestPaymentList().subList(0, 4));
+
+    PaymentPage page = service.findPage(new HashMap<>(), 3, null);
+    assertEquals(MOCKPaymentRepository.getTestPaymentList().subList(0, 3), page.getPayments());
+    assertEquals(PaymentCursors.encode(3), page.getNextCursor());
+    verify(paymentRepository).findPage(any(), isNull(), eq(4));
+  }
+
+  @Test
+  void test_findPage_LastPage() throws Exception {
+    when(paymentRepository.findPage(any(), eq(7), anyInt()))
+    .thenReturn(MOCKPaymentRepository.getTestPaymentList().subList(7, 9));
+
+    PaymentPage page = service.findPage(new HashMap<>(), 3, PaymentCursors.encode(7));
+    assertEquals(MOCKPaymentRepository.getTestPaymentList().subList(7, 9), page.getPayments());
+    assertNull(page.getNextCursor());
+  }
+
+  @Test
+  void test_findPage_WithInvalidCursor() throws Exception {
+    assertThrows(PaymentCursorInvalidException.class, () -> service.findPage(new HashMap<>(), 3, "NotACursor"));
+  }
+
   // insert
   //=======================================================================
   @Test
   void test_insert_withValidPayment() throws Exception {
-    when(paymentRepository.save(any(Payment.class))).thenReturn(new Payment(1, "NewBookingUuid", "NewStripeUuid", "PENDING"));
+    when(paymentRepository.saveAndFlush(any(Payment.class))).thenReturn(new Payment(1, "NewBookingUuid", "NewStripeUuid", PaymentStatus.PENDING));
 
-    Payment expected = new Payment(1, "NewBookingUuid", "NewStripeUuid", "PENDING");
+    Payment expected = new Payment(1, "NewBookingUuid", "NewStripeUuid", PaymentStatus.PENDING);
     Payment actual = service.insert("NewBookingUuid", "NewStripeUuid", "PENDING");
     assertEquals(expected.getPaymentId(), actual.getPaymentId());
     assertEquals(expected.getPaymentBookingUuid(), actual.getPaymentBookingUuid());
     assertEquals(expected.getPaymentStripeUuid(), actual.getPaymentStripeUuid());
     assertEquals(expected.getPaymentStatus(), actual.getPaymentStatus());
+    verify(paymentEventRepository).save(argThat(i -> 
+      i.getEventType() == PaymentEventType.CREATED && i.getPaymentId() == 1 && "NewBookingUuid".equals(i.getPaymentBookingUuid())
+    ));
   }
 
   @Test
   void test_insert_withDuplicateStripeUuidPayment() throws Exception {
-    when(paymentRepository.findByStripeUuid(MOCKPaymentRepository.getTestPayment().getPaymentStripeUuid()))
-    .thenReturn(MOCKPaymentRepository.findByStripeUuid(MOCKPaymentRepository.getTestPayment().getPaymentStripeUuid()));
+    when(paymentRepository.saveAndFlush(any(Payment.class)))
+    .thenThrow(MOCKPaymentRepository.saveWithDuplicateStripeUuid());
     assertThrows(PaymentAlreadyExistsException.class, () -> service.insert("NewBookingUuid", MOCKPaymentRepository.getTestPayment().getPaymentStripeUuid(), "PENDING"));
+    verify(paymentRepository, never()).findByStripeUuid(any());
+  }
+
+  @Test
+  void test_insert_withOtherIntegrityViolation() throws Exception {
+    when(paymentRepository.saveAndFlush(any(Payment.class)))
+    .thenThrow(new DataIntegrityViolationException("Column 'booking_uuid' cannot be null"));
+    assertThrows(DataIntegrityViolationException.class, () -> service.insert(null, "NewStripeUuid", "PENDING"));
   }
 
   @Test
@@ -297,55 +744,256 @@ class PaymentServiceTest {
     assertThrows(PaymentStatusNotFoundException.class, () -> service.insert("NewBookingUuid", "NewStripeUuid", "NotAValidStatus"));
   }
 
+  @Test
+  void test_insert_withBinaryUuidStorage_RejectsNonUuid() throws Exception {
+    ReflectionTestUtils.setField(service, "uuidStorage", "binary");
+    assertThrows(PaymentUuidInvalidException.class, () -> service.insert("NewBookingUuid", "NewStripeUuid", "PENDING"));
+    verify(paymentRepository, never()).saveAndFlush(any(Payment.class));
+  }
+
+  @Test
+  void test_insert_withBinaryUuidStorage_RejectsUppercaseUuid() throws Exception {
+    ReflectionTestUtils.setField(service, "uuidStorage", "binary");
+    Payment testPayment = MOCKPaymentRepository.getTestPayment();
+    assertThrows(PaymentUuidInvalidException.class, 
+      () -> service.insert(testPayment.getPaymentBookingUuid().toUpperCase(), testPayment.getPaymentStripeUuid(), "CONFIRMED"));
+    verify(paymentRepository, never()).saveAndFlush(any(Payment.class));
+  }
+
+  @Test
+  void test_insert_withBinaryUuidStorage_AcceptsUuid() throws Exception {
+    ReflectionTestUtils.setField(service, "uuidStorage", "binary");
+    Payment testPayment = MOCKPaymentRepository.getTestPayment();
+    when(paymentRepository.saveAndFlush(any(Payment.class))).thenReturn(testPayment);
+    assertEquals(testPayment, service.insert(testPayment.getPaymentBookingUuid(), testPayment.getPaymentStripeUuid(), "CONFIRMED"));
+  }
+
+  // insertAll
+  //=======================================================================
+  @Test
+  @SuppressWarnings("unchecked")
+  void test_insertAll_withMixedBatch() throws Exception {
+    String takenStripeUuid = MOCKPaymentRepository.getTestPayment().getPaymentStripeUuid();
+    List<Map<String, String>> paymentMaps = Arrays.asList(
+      buildPaymentMap("NewBookingUuid1", "NewStripeUuid1", "PENDING"),
+      buildPaymentMap("NewBookingUuid2", "NewStripeUuid2", "NotAValidStatus"),
+      buildPaymentMap("NewBookingUuid3", takenStripeUuid, "PENDING"),
+      buildPaymentMap("NewBookingUuid4", "NewStripeUuid1", "PENDING"),
+      buildPaymentMap("NewBookingUuid5", "NewStripeUuid5", "CONFIRMED")
+    );
+
+    when(paymentRepository.findAllWithStripeUuids(anyCollection()))
+    .thenReturn(Arrays.asList(MOCKPaymentRepository.getTestPayment()));
+    when(paymentRepository.saveAll(anyList())).thenAnswer(invocation -> {
+      List<Payment> newPayments = invocation.getArgument(0);
+      for(int i = 0; i < newPayments.size(); i++) {
+        newPayments.get(i).setPaymentId(100 + i);
+      }
+      return newPayments;
+    });
+
+    List<PaymentBatchResult> results = service.insertAll(paymentMaps);
+    assertEquals(5, results.size());
+    assertEquals(Integer.valueOf(201), results.get(0).getStatus());
+    assertEquals(Integer.valueOf(100), results.get(0).getPayment().getPaymentId());
+    assertEquals(Integer.valueOf(400), results.get(1).getStatus());
+    assertEquals(Integer.valueOf(409), results.get(2).getStatus());
+    assertEquals(Integer.valueOf(409), results.get(3).getStatus());
+    assertEquals(Integer.valueOf(201), results.get(4).getStatus());
+    assertEquals("NewStripeUuid5", results.get(4).getPayment().getPaymentStripeUuid());
+    verify(paymentRepository, times(1)).findAllWithStripeUuids(anyCollection());
+    verify(paymentRepository, never()).findByStripeUuid(any());
+  }
+
+  @Test
+  void test_insertAll_withBinaryUuidStorage_RejectsNonUuid() throws Exception {
+    ReflectionTestUtils.setField(service, "uuidStorage", "binary");
+    Payment testPayment = MOCKPaymentRepository.getTestPayment();
+    List<Map<String, String>> paymentMaps = Arrays.asList(
+      buildPaymentMap("NewBookingUuid1", testPayment.getPaymentStripeUuid(), "PENDING"),
+      buildPaymentMap(testPayment.getPaymentBookingUuid(), testPayment.getPaymentStripeUuid(), "PENDING")
+    );
+    when(paymentRepository.saveAll(anyList())).thenAnswer(invocation -> invocation.getArgument(0));
+
+    List<PaymentBatchResult> results = service.insertAll(paymentMaps);
+    assertEquals(Integer.valueOf(400), results.get(0).getStatus());
+    assertEquals(Integer.valueOf(201), results.get(1).getStatus());
+  }
+
+  @Test
+  void test_insertAll_withTooManyPayments() throws Exception {
+    ReflectionTestUtils.setField(service, "maxBatchSize", 1);
+    List<Map<String, String>> paymentMaps = Arrays.asList(
+      buildPaymentMap("NewBookingUuid1", "NewStripeUuid1", "PENDING"),
+      buildPaymentMap("NewBookingUuid2", "NewStripeUuid2", "PENDING")
+    );
+    try {
+      assertThrows(PaymentBatchTooLargeException.class, () -> service.insertAll(paymentMaps));
+    } 
+    finally {
+      ReflectionTestUtils.setField(service, "maxBatchSize", 10000);
+    }
+  }
+
   // update
   //=======================================================================
   @Test
   void test_update_withValidPayment() throws Exception {
-    when(paymentRepository.findById(MOCKPaymentRepository.getTestPayment().getPaymentId()))
-    .thenReturn(MOCKPaymentRepository.findById(MOCKPaymentRepository.getTestPayment().getPaymentId()));
-    when(paymentRepository.save(any(Payment.class))).thenReturn(new Payment(1, "NewBookingUuid", "NewStripeUuid", "PENDING"));
+    when(paymentRepository.findVersionById(1)).thenReturn(Optional.of(4));
+    when(paymentRepository.updateWithVersion(1, "NewBookingUuid", "NewStripeUuid", PaymentStatus.PENDING, 4)).thenReturn(1);
 
-    Payment expected = new Payment(1, "NewBookingUuid", "NewStripeUuid", "PENDING");
-    Payment actual = service.update(1, "NewBookingUuid", "NewStripeUuid", "PENDING");
+    Payment expected = new Payment(1, "NewBookingUuid", "NewStripeUuid", PaymentStatus.PENDING);
+    Payment actual = service.update(1, "NewBookingUuid", "NewStripeUuid", "PENDING", null);
     assertEquals(expected.getPaymentId(), actual.getPaymentId());
     assertEquals(expected.getPaymentBookingUuid(), actual.getPaymentBookingUuid());
     assertEquals(expected.getPaymentStripeUuid(), actual.getPaymentStripeUuid());
     assertEquals(expected.getPaymentStatus(), actual.getPaymentStatus());
+    assertEquals(Integer.valueOf(5), actual.getPaymentVersion());
   }
 
   @Test
-  void test_update_withDuplicateStripeUuidPayment() throws Exception {
-    Integer paymentId = MOCKPaymentRepository.getTestPayment().getPaymentId();
-    when(paymentRepository.findById(paymentId))
-    .thenReturn(MOCKPaymentRepository.findById(paymentId));
+  void test_update_withPaymentVersion_SkipsVersionLookup() throws Exception {
+    when(paymentRepository.updateWithVersion(1, "NewBookingUuid", "NewStripeUuid", PaymentStatus.PENDING, 2)).thenReturn(1);
+
+    assertEquals(Integer.valueOf(3), service.update(1, "NewBookingUuid", "NewStripeUuid", "PENDING", 2).getPaymentVersion());
+    verify(paymentRepository, never()).findVersionById(any());
+    verify(paymentRepository, never()).existsById(any());
+  }
 
+  @Test
+  void test_update_withStalePaymentVersion() throws Exception {
+    when(paymentRepository.updateWithVersion(1, "NewBookingUuid", "NewStripeUuid", PaymentStatus.PENDING, 2)).thenReturn(0);
+    when(paymentRepository.existsById(1)).thenReturn(true);
+
+    assertThrows(PaymentVersionConflictException.class, () -> service.update(1, "NewBookingUuid", "NewStripeUuid", "PENDING", 2));
+  }
+
+  @Test
+  void test_update_withNonExistingPayment() throws Exception {
+    when(paymentRepository.findVersionById(1)).thenReturn(Optional.empty());
+
+    assertThrows(PaymentNotFoundException.class, () -> service.update(1, "NewBookingUuid", "NewStripeUuid", "PENDING", null));
+    verify(paymentRepository, never()).updateWithVersion(any(), any(), any(), any(), any());
+  }
+
+  @Test
+  void test_update_withDuplicateStripeUuidPayment() throws Exception {
     String paymentStripeUuid = MOCKPaymentRepository.getTestPaymentList().get(2).getPaymentStripeUuid();
-    when(paymentRepository.findByStripeUuid(paymentStripeUuid))
-    .thenReturn(MOCKPaymentRepository.findByStripeUuid(paymentStripeUuid));
+    when(paymentRepository.updateWithVersion(1, "NewBookingUuid", paymentStripeUuid, PaymentStatus.PENDING, 0))
+    .thenThrow(MOCKPaymentRepository.saveWithDuplicateStripeUuid());
 
-    assertThrows(PaymentAlreadyExistsException.class, () -> service.update(1, "NewBookingUuid", paymentStripeUuid, "PENDING"));
+    assertThrows(PaymentAlreadyExistsException.class, () -> service.update(1, "NewBookingUuid", paymentStripeUuid, "PENDING", 0));
   }
 
   @Test
   void test_update_withInvalidPaymentStatus() throws Exception {
-    assertThrows(PaymentStatusNotFoundException.class, () -> service.update(1, "NewBookingUuid", "NewStripeUuid", "NotAValidStatus"));
+    assertThrows(PaymentStatusNotFoundException.class, () -> service.update(1, "NewBookingUuid", "NewStripeUuid", "NotAValidStatus", null));
+  }
+
+  // updateStatuses
+  //=======================================================================
+  @Test
+  void test_updateStatuses_withPaymentIds() throws Exception {
+    when(paymentRepository.findAllExistingIds(anyCollection())).thenReturn(Arrays.asList(5, 6));
+    when(paymentRepository.updateStatusWithIds(anyCollection(), eq(PaymentStatus.CONFIRMED))).thenReturn(2);
+
+    PaymentStatusUpdateResult result = service.updateStatuses(Arrays.asList(5, 6, -1), null, "CONFIRMED");
+    assertEquals(Integer.valueOf(2), result.getUpdatedCount());
+    assertEquals(Arrays.asList(-1), result.getMissingPaymentIds());
+  }
+
+  @Test
+  void test_updateStatuses_withFromStatus_InChunks() throws Exception {
+    ReflectionTestUtils.setField(service, "updateChunkSize", 3);
+    try {
+      when(paymentRepository.findAllIdsWithStatus(PaymentStatus.PENDING)).thenReturn(Arrays.asList(5, 6, 7, 8));
+      when(paymentRepository.updateStatusWithIdsAndStatus(anyCollection(), eq(PaymentStatus.PENDING), eq(PaymentStatus.REJECTED)))
+      .thenAnswer(invocation -> ((List<?>) invocation.getArgument(0)).size());
+
+      PaymentStatusUpdateResult result = service.updateStatuses(null, "PENDING", "REJECTED");
+      assertEquals(Integer.valueOf(4), result.getUpdatedCount());
+      assertTrue(result.getMissingPaymentIds().isEmpty());
+      verify(paymentRepository, times(2)).updateStatusWithIdsAndStatus(anyCollection(), eq(PaymentStatus.PENDING), eq(PaymentStatus.REJECTED));
+      verify(paymentRepository, never()).updateStatusWithIds(anyCollection(), any());
+    } 
+    finally {
+      ReflectionTestUtils.setField(service, "updateChunkSize", 1000);
+    }
+  }
+
+  @Test
+  void test_updateStatuses_withFromStatus_SkipsPaymentsChangedMeanwhile() throws Exception {
+    when(paymentRepository.findAllIdsWithStatus(PaymentStatus.PENDING)).thenReturn(Arrays.asList(5, 6));
+    when(paymentRepository.updateStatusWithIdsAndStatus(anyCollection(), eq(PaymentStatus.PENDING), eq(PaymentStatus.REJECTED)))
+    .thenReturn(1);
+    // Payment 6 was approved by another request after its id was selected
+    Payment rejectedPayment = new Payment(5, "booking5", "stripe5", PaymentStatus.REJECTED);
+    rejectedPayment.setPaymentVersion(1);
+    Payment approvedPayment = new Payment(6, "booking6", "stripe6", PaymentStatus.APPROVED);
+    approvedPayment.setPaymentVersion(1);
+    when(paymentRepository.findAllById(anyCollection())).thenReturn(Arrays.asList(rejectedPayment, approvedPayment));
+
+    PaymentStatusUpdateResult result = service.updateStatuses(null, "PENDING", "REJECTED");
+    assertEquals(Integer.valueOf(1), result.getUpdatedCount());
+    verify(paymentEventRepository).saveAll(argThat(i -> {
+      List<PaymentEvent> events = new ArrayList<>();
+      i.forEach(events::add);
+      return events.size() == 1 && events.get(0).getPaymentId() == 5;
+    }));
+  }
+
+  @Test
+  void test_updateStatuses_withInvalidPaymentStatus() throws Exception {
+    assertThrows(PaymentStatusNotFoundException.class, () -> service.updateStatuses(Arrays.asList(1), null, "NotAValidStatus"));
+    assertThrows(PaymentStatusNotFoundException.class, () -> service.updateStatuses(null, "NotAValidStatus", "CONFIRMED"));
   }
 
   // delete
   //=======================================================================
   @Test
   void test_delete_Valid() throws Exception {
-    when(paymentRepository.findById(MOCKPaymentRepository.getTestPayment().getPaymentId()))
-    .thenReturn(MOCKPaymentRepository.findById(MOCKPaymentRepository.getTestPayment().getPaymentId()));
+    Payment testPayment = new Payment(1, "booking", "stripe", PaymentStatus.PENDING);
+    testPayment.setPaymentVersion(0);
+    when(paymentRepository.findLockedById(testPayment.getPaymentId())).thenReturn(Optional.of(testPayment));
     assertEquals(
-      "Payment with ID: " + MOCKPaymentRepository.getTestPayment().getPaymentId() + " was deleted.", 
-      service.delete(MOCKPaymentRepository.getTestPayment().getPaymentId())
+      "Payment with ID: " + testPayment.getPaymentId() + " was deleted.", 
+      service.delete(testPayment.getPaymentId(), null)
     );
+    verify(paymentRepository).deleteWithId(testPayment.getPaymentId());
   }
 
   @Test
   void test_delete_Invalid() throws Exception {
-    when(paymentRepository.findById(1)).thenReturn(Optional.empty());
-    assertThrows(PaymentNotFoundException.class, () -> service.delete(1));
+    when(paymentRepository.findLockedById(1)).thenReturn(Optional.empty());
+    assertThrows(PaymentNotFoundException.class, () -> service.delete(1, null));
+    verify(paymentRepository, never()).deleteWithId(any());
+  }
+
+  @Test
+  void test_delete_RecordsDeletedEventPastCurrentVersion() throws Exception {
+    Payment lockedPayment = new Payment(1, "booking", "stripe", PaymentStatus.APPROVED);
+    lockedPayment.setPaymentVersion(5);
+    when(paymentRepository.findLockedById(1)).thenReturn(Optional.of(lockedPayment));
+    service.delete(1, null);
+    verify(paymentEventRepository).save(argThat(i -> 
+      i.getEventType() == PaymentEventType.DELETED && i.getPaymentId() == 1 && i.getPaymentVersion() == 6
+    ));
+  }
+
+  @Test
+  void test_delete_withStalePaymentVersion() throws Exception {
+    Payment lockedPayment = new Payment(1, "booking", "stripe", PaymentStatus.PENDING);
+    lockedPayment.setPaymentVersion(3);
+    when(paymentRepository.findLockedById(1)).thenReturn(Optional.of(lockedPayment));
+    assertThrows(PaymentVersionConflictException.class, () -> service.delete(1, 2));
+    verify(paymentRepository, never()).deleteWithId(any());
+  }
+
+  private Map<String, String> buildPaymentMap(String paymentBookingUuid, String paymentStripeUuid, String paymentStatus) {
+    Map<String, String> paymentMap = new HashMap<>();
+    paymentMap.put("paymentBookingUuid", paymentBookingUuid);
+    paymentMap.put("paymentStripeUuid", paymentStripeUuid);
+    paymentMap.put("paymentStatus", paymentStatus);
+    return paymentMap;
   }
-}
\ No newline at end of file
+}
@@ -0,0 +1,214 @@
+package com.ss.utopia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyInt;
+import static org.mockito.ArgumentMatchers.argThat;
+import static org.mockito.ArgumentMatchers.isNull;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.Collectors;
+
+import com.ss.utopia.filters.PaymentFilters;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+import com.ss.utopia.repositories.PaymentRepository;
+import com.ss.utopia.snapshots.PaymentSnapshot;
+
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PaymentSnapshotTest {
+
+  private PaymentSnapshot paymentSnapshot;
+  private PaymentRepository paymentRepository;
+  private List<Payment> payments;
+
+  @BeforeEach
+  void setup() throws Exception {
+    payments = new ArrayList<>();
+    for(Payment payment : MOCKPaymentRepository.getTestPaymentList()) {
+      payments.add(payment.copy());
+    }
+    // Values the packed UUID columns can not hold
+    payments.add(new Payment(10, "NewBookingUuid", "A2BF6DD9-0000-4E03-B1EE-55ACFD1C196D", PaymentStatus.PENDING));
+
+    paymentRepository = mock(PaymentRepository.class);
+    when(paymentRepository.count()).thenReturn((long) payments.size());
+    // Pages ignore the specification, refresh re-reads every payment
+    when(paymentRepository.findPage(any(), any(), anyInt())).thenAnswer(invocation -> {
+      Integer afterPaymentId = invocation.getArgument(1);
+      int limit = invocation.getArgument(2);
+      return payments.stream()
+        .filter(i -> afterPaymentId == null || i.getPaymentId() > afterPaymentId)
+        .limit(limit)
+        .map(Payment::copy)
+        .collect(Collectors.toList());
+    });
+    when(paymentRepository.findLatestUpdatedAt()).thenReturn(Instant.parse("2021-03-01T10:00:00Z"));
+
+    paymentSnapshot = new PaymentSnapshot("snapshot", 4, 60000);
+    ReflectionTestUtils.setField(paymentSnapshot, "paymentRepository", paymentRepository);
+    paymentSnapshot.rebuild();
+  }
+
+  // search - same results as PaymentFilters.apply
+  //=======================================================================
+  @Test
+  void test_rebuild_LoadsEveryPage() throws Exception {
+    assertFalse(new PaymentSnapshot("snapshot", 4, 60000).isLoaded());
+    assertTrue(paymentSnapshot.isLoaded());
+    assertEquals(payments.size(), paymentSnapshot.size());
+    assertEquals(toIds(payments), toIds(paymentSnapshot.search(new HashMap<>())));
+  }
+
+  @Test
+  void test_search_isEquivalent() throws Exception {
+    String[] searchTerms = { "", "confirmed", "CONFIRMED, 40", "pend, 4", "a2bf6dd9", "0000-4e03", "newbooking", "7", "1", "%,_" };
+    for(String searchTerm : searchTerms) {
+      Map<String, String> filterMap = new HashMap<>();
+      filterMap.put("searchTerms", searchTerm);
+      assertSearchIsEquivalent(filterMap);
+    }
+  }
+
+  @Test
+  void test_search_WithFilters_isEquivalent() throws Exception {
+    Map<String, String> filterMap = new HashMap<>();
+    filterMap.put("paymentBookingUuid", "38d85c66-2a58-4608-9cbb-a27769b9e95f");
+    filterMap.put("paymentStripeUuid", "7749569a-d956-497b-ae9c-42f1427a005f");
+    filterMap.put("paymentStatus", "REJECTED");
+    assertSearchIsEquivalent(filterMap);
+
+    filterMap.clear();
+    filterMap.put("paymentBookingUuid", "NewBookingUuid");
+    assertSearchIsEquivalent(filterMap);
+
+    filterMap.clear();
+    filterMap.put("paymentStripeUuid", "A2BF6DD9-0000-4E03-B1EE-55ACFD1C196D");
+    assertSearchIsEquivalent(filterMap);
+
+    filterMap.clear();
+    filterMap.put("paymentId", "4");
+    filterMap.put("paymentStatus", "NotAValidStatus");
+    assertSearchIsEquivalent(filterMap);
+  }
+
+  // Incremental maintenance
+  //=======================================================================
+  @Test
+  void test_put_updateStatus_remove() throws Exception {
+    Payment updatedPayment = payments.get(2).copy();
+    updatedPayment.setPaymentBookingUuid("11111111-2222-3333-4444-555555555555");
+    updatedPayment.setPaymentVersion(1);
+    payments.set(2, updatedPayment.copy());
+    paymentSnapshot.put(updatedPayment);
+
+    payments.get(8).setPaymentStatus(PaymentStatus.APPROVED);
+    paymentSnapshot.updateStatus(payments.get(8).getPaymentId(), PaymentStatus.APPROVED);
+
+    Payment removedPayment = payments.remove(0);
+    paymentSnapshot.remove(removedPayment.getPaymentId());
+
+    assertEquals(payments.size(), paymentSnapshot.size());
+    assertSearchIsEquivalent(new HashMap<>());
+    assertSearchIsEquivalent(Collections.singletonMap("searchTerms", "3333"));
+    assertSearchIsEquivalent(Collections.singletonMap("searchTerms", "approved"));
+    assertTrue(paymentSnapshot.search(Collections.singletonMap("searchTerms", removedPayment.getPaymentStripeUuid())).isEmpty());
+  }
+
+  @Test
+  void test_refresh_LoadsOtherInstancesInsertsAndUpdates() throws Exception {
+    payments.add(new Payment(20, "11111111-2222-3333-4444-555555555555", "66666666-7777-8888-9999-000000000000", PaymentStatus.PENDING));
+    paymentSnapshot.refresh();
+    // Another instance's sequence block, below the highest id already loaded
+    payments.add(10, new Payment(15, "aaaaaaaa-2222-3333-4444-555555555555", "bbbbbbbb-7777-8888-9999-000000000000", PaymentStatus.PENDING));
+    payments.get(4).setPaymentStatus(PaymentStatus.APPROVED);
+    payments.get(4).setPaymentVersion(1);
+    paymentSnapshot.refresh();
+    assertSearchIsEquivalent(new HashMap<>());
+    assertSearchIsEquivalent(Collections.singletonMap("searchTerms", "approved"));
+  }
+
+  @Test
+  void test_refresh_OnlyReadsChangesSinceMarker() throws Exception {
+    paymentSnapshot.refresh();
+    verify(paymentRepository).findPage(argThat(i -> i != null), isNull(), anyInt());
+  }
+
+  @Test
+  void test_refresh_KeepsNewerCommittedChange() throws Exception {
+    Payment committedPayment = payments.get(4).copy();
+    committedPayment.setPaymentStatus(PaymentStatus.REJECTED);
+    committedPayment.setPaymentVersion(2);
+    paymentSnapshot.put(committedPayment);
+    paymentSnapshot.remove(payments.get(5).getPaymentId());
+
+    // The refresh page was read before both changes committed
+    paymentSnapshot.refresh();
+    Map<String, String> filterMap = Collections.singletonMap("paymentStatus", "REJECTED");
+    assertEquals(
+      Arrays.asList(committedPayment.getPaymentId(), 9),
+      toIds(paymentSnapshot.search(filterMap))
+    );
+    assertEquals(payments.size() - 1, paymentSnapshot.size());
+  }
+
+  @Test
+  void test_rebuild_DropsOtherInstancesDeletes() throws Exception {
+    payments.remove(3);
+    paymentSnapshot.refresh();
+    assertEquals(payments.size() + 1, paymentSnapshot.size());
+    paymentSnapshot.rebuild();
+    assertSearchIsEquivalent(new HashMap<>());
+  }
+
+  @Test
+  void test_disabledSnapshot_HoldsNothing() throws Exception {
+    PaymentSnapshot disabledSnapshot = new PaymentSnapshot("database", 4, 60000);
+    disabledSnapshot.put(payments.get(0));
+    disabledSnapshot.rebuild();
+    assertEquals(0, disabledSnapshot.size());
+  }
+
+  // Metrics
+  //=======================================================================
+  @Test
+  void test_bindTo_ReportsSnapshotSize() throws Exception {
+    SimpleMeterRegistry registry = new SimpleMeterRegistry();
+    paymentSnapshot.bindTo(registry);
+    assertEquals(payments.size(), registry.get("payments.snapshot.payments").gauge().value());
+    assertTrue(registry.get("payments.snapshot.memory").gauge().value() > 0);
+  }
+
+  private void assertSearchIsEquivalent(Map<String, String> filterMap) {
+    List<Payment> expected = PaymentFilters.apply(payments, filterMap);
+    List<Payment> actual = paymentSnapshot.search(filterMap);
+    assertEquals(toIds(expected), toIds(actual), filterMap.toString());
+    for(int i = 0; i < expected.size(); i++) {
+      assertEquals(expected.get(i).getPaymentBookingUuid(), actual.get(i).getPaymentBookingUuid());
+      assertEquals(expected.get(i).getPaymentStripeUuid(), actual.get(i).getPaymentStripeUuid());
+      assertEquals(expected.get(i).getPaymentStatus(), actual.get(i).getPaymentStatus());
+    }
+  }
+
+  private List<Integer> toIds(List<Payment> payments) {
+    return payments.stream()
+      .map(Payment::getPaymentId)
+      .collect(Collectors.toList());
+  }
+}
@@ -0,0 +1,129 @@
+package com.ss.utopia;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+import static org.mockito.ArgumentMatchers.anyIterable;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+import static org.mockito.Mockito.when;
+
+import java.util.Arrays;
+import java.util.Collections;
+
+import com.ss.utopia.exceptions.PaymentNotFoundException;
+import com.ss.utopia.exceptions.PaymentRequestRejectedException;
+import com.ss.utopia.models.Payment;
+import com.ss.utopia.models.PaymentStatus;
+import com.ss.utopia.repositories.PaymentRepository;
+import com.ss.utopia.subscriptions.PaymentSubscriptions;
+
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+
+class PaymentSubscriptionsTest {
+
+  private PaymentSubscriptions subscriptions;
+
+  @BeforeEach
+  void setup() {
+    subscriptions = new PaymentSubscriptions(2, 4, 60000, 1);
+  }
+
+  @AfterEach
+  void teardown() {
+    subscriptions.shutdown();
+  }
+
+  @Test
+  void test_subscribe_overMaxSubscribers_isRejected() throws Exception {
+    subscriptions.subscribe(1, () -> new Payment(1, "BookingUuid1", "StripeUuid1", PaymentStatus.PENDING));
+    subscriptions.subscribe(1, () -> new Payment(1, "BookingUuid1", "StripeUuid1", PaymentStatus.PENDING));
+    assertThrows(PaymentRequestRejectedException.class,
+      () -> subscriptions.subscribe(2, () -> new Payment(2, "BookingUuid2", "StripeUuid2", PaymentStatus.PENDING)));
+    assertEquals(2, subscriptions.getSubscriberCount());
+  }
+
+  @Test
+  void test_hasSubscribers_onlyForSubscribedPayments() throws Exception {
+    assertFalse(subscriptions.hasSubscribers(Arrays.asList(1, 2)));
+    subscriptions.subscribe(2, () -> new Payment(2, "BookingUuid2", "StripeUuid2", PaymentStatus.PENDING));
+    assertTrue(subscriptions.hasSubscribers(Arrays.asList(1, 2)));
+    assertFalse(subscriptions.hasSubscribers(Arrays.asList(1, 3)));
+  }
+
+  @Test
+  void test_subscribe_withMissingPayment_isNotRegistered() throws Exception {
+    assertThrows(PaymentNotFoundException.class, () -> subscriptions.subscribe(3, () -> {
+      throw new PaymentNotFoundException();
+    }));
+    assertEquals(0, subscriptions.getSubscriberCount());
+  }
+
+  @Test
+  void test_recheck_FailedChunk_StillRechecksTheRest() throws Exception {
+    PaymentSubscriptions manySubscriptions = new PaymentSubscriptions(2000, 4, 60000, 1);
+    try {
+      PaymentRepository paymentRepository = mock(PaymentRepository.class);
+      ReflectionTestUtils.setField(manySubscriptions, "paymentRepository", paymentRepository);
+      for(int i = 1; i <= 1001; i++) {
+        int paymentId = i;
+        manySubscriptions.subscribe(paymentId, () -> new Payment(paymentId, "BookingUuid" + paymentId, "StripeUuid" + paymentId, PaymentStatus.PENDING));
+      }
+
+      when(paymentRepository.findAllById(anyIterable()))
+      .thenThrow(new IllegalStateException("Replica unavailable"))
+      .thenReturn(Collections.emptyList());
+      manySubscriptions.recheck();
+      verify(paymentRepository, times(2)).findAllById(anyIterable());
+    }
+    finally {
+      manySubscriptions.shutdown();
+    }
+  }
+
+  @Test
+  void test_recheck_sendsOnlyNewerVersionsAndDeletes() throws Exception {
+    PaymentRepository paymentRepository = mock(PaymentRepository.class);
+    ReflectionTestUtils.setField(subscriptions, "paymentRepository", paymentRepository);
+    MeterRegistry registry = new SimpleMeterRegistry();
+    subscriptions.bindTo(registry);
+
+    subscriptions.subscribe(1, () -> versionOf(new Payment(1, "BookingUuid1", "StripeUuid1", PaymentStatus.PENDING), 0));
+    awaitSent(registry, 1);
+
+    Payment approvedPayment = versionOf(new Payment(1, "BookingUuid1", "StripeUuid1", PaymentStatus.APPROVED), 1);
+    when(paymentRepository.findAllById(anyIterable())).thenReturn(Arrays.asList(approvedPayment));
+    subscriptions.recheck();
+    awaitSent(registry, 2);
+    subscriptions.publish(approvedPayment);
+    subscriptions.recheck();
+
+    when(paymentRepository.findAllById(anyIterable())).thenReturn(Collections.emptyList());
+    subscriptions.recheck();
+    awaitSent(registry, 3);
+    assertEquals(0, subscriptions.getSubscriberCount());
+    assertEquals(3.0, registry.get("payments.subscriptions.sent").counter().count());
+  }
+
+  private static Payment versionOf(Payment payment, int paymentVersion) {
+    payment.setPaymentVersion(paymentVersion);
+    return payment;
+  }
+
+  // Events are written by the dispatcher thread
+  private static void awaitSent(MeterRegistry registry, int sent) throws Exception {
+    long deadline = System.currentTimeMillis() + 5000;
+    while(registry.get("payments.subscriptions.sent").counter().count() < sent) {
+      assertTrue(System.currentTimeMillis() < deadline, "Timed out waiting for " + sent + " events");
+      Thread.sleep(10);
+    }
+  }
+}